@@ -0,0 +1,370 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Totals the traffic between each source and destination host of a trace. Every pair is keyed by a single
+ * <code>long</code> made from the pair's <code>HostDictionary</code> identifiers and found through an open
+ * addressing hash index, so counting a packet creates no objects. Pairs are numbered in the order they were
+ * first seen and their byte and packet totals are kept in primitive columns, so that scanning every pair of
+ * a trace, as finding a host's top peers does, stays cheap with hundreds of thousands of pairs.
+ * <p>
+ * A <code>HostSeries</code> can also be kept for each pair. That makes graphing a conversation immediate but
+ * costs far more memory than the totals, so it is off unless asked for.
+ * @author Michael Johnson
+ */
+public class ConversationMatrix {
+    private static final int INITIAL_CAPACITY = 1024;
+    private long[] keys = new long[INITIAL_CAPACITY];
+    private long[] bytes = new long[INITIAL_CAPACITY];
+    private long[] packets = new long[INITIAL_CAPACITY];
+    private HostSeries[] series;
+    private int size;
+    private int[] index = new int[INITIAL_CAPACITY * 2];
+    private HostDictionary hosts;
+
+    /**
+     * Constructs an empty <code>ConversationMatrix</code> object whose host identifiers belong to the given
+     * dictionary.
+     * @param hosts         the <code>HostDictionary</code> the host identifiers refer to
+     * @param keepSeries    whether to keep a <code>HostSeries</code> for every pair
+     */
+    public ConversationMatrix(HostDictionary hosts, boolean keepSeries) {
+        this.hosts = hosts;
+        if (keepSeries) {
+            series = new HostSeries[INITIAL_CAPACITY];
+        }
+    }
+
+    /**
+     * Makes the key of a pair of hosts.
+     * @param sourceId  the source host identifier
+     * @param destId    the destination host identifier
+     * @return the source in the high 32 bits and the destination in the low 32 bits
+     */
+    public static long key(int sourceId, int destId) {
+        return ((long) sourceId << 32) | (destId & 0xffffffffL);
+    }
+
+    /**
+     * Counts a packet sent from one host to another.
+     * @param timeMicros    the time stamp in microseconds
+     * @param sourceId      the source host identifier
+     * @param destId        the destination host identifier
+     * @param pktSize       the packet size in bytes
+     */
+    public void add(long timeMicros, int sourceId, int destId, int pktSize) {
+        int pair = pairOf(key(sourceId, destId));
+        bytes[pair] += pktSize;
+        packets[pair]++;
+        if (series != null) {
+            if (series[pair] == null) {
+                series[pair] = new HostSeries();
+            }
+            series[pair].add(timeMicros, pktSize);
+        }
+    }
+
+    /**
+     * Adds totals counted elsewhere to a pair, such as those kept in a <code>TraceIndex</code>. No series is kept
+     * for the packets added this way.
+     * @param sourceId      the source host identifier
+     * @param destId        the destination host identifier
+     * @param pairBytes     the number of bytes sent
+     * @param pairPackets   the number of packets sent
+     */
+    public void addTotals(int sourceId, int destId, long pairBytes, long pairPackets) {
+        int pair = pairOf(key(sourceId, destId));
+        bytes[pair] += pairBytes;
+        packets[pair] += pairPackets;
+    }
+
+    /**
+     * Takes back a packet counted by <code>add</code>, such as a final line that turned out to be incomplete.
+     * @param timeMicros    the time stamp in microseconds
+     * @param sourceId      the source host identifier
+     * @param destId        the destination host identifier
+     * @param pktSize       the packet size in bytes
+     */
+    public void remove(long timeMicros, int sourceId, int destId, int pktSize) {
+        int pair = find(sourceId, destId);
+        if (pair < 0) {
+            return;
+        }
+        bytes[pair] -= pktSize;
+        packets[pair]--;
+        if (series != null) {
+            series[pair].remove(timeMicros, pktSize);
+        }
+    }
+
+    /**
+     * Adds the totals of another matrix to this one, translating its host identifiers.
+     * @param later     the <code>ConversationMatrix</code> holding the packets that follow this matrix's packets
+     * @param hostMap   the identifier in this matrix's dictionary of each host in the later matrix's dictionary
+     */
+    public void addAll(ConversationMatrix later, int[] hostMap) {
+        for (int other = 0; other < later.size; other++) {
+            int pair = pairOf(key(hostMap[later.getSourceId(other)], hostMap[later.getDestId(other)]));
+            bytes[pair] += later.bytes[other];
+            packets[pair] += later.packets[other];
+            if (series != null && later.series != null && later.series[other] != null) {
+                if (series[pair] == null) {
+                    series[pair] = later.series[other];
+                } else {
+                    series[pair].addAll(later.series[other]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Looks up the pair of two hosts.
+     * @param sourceId  the source host identifier
+     * @param destId    the destination host identifier
+     * @return the pair number, or -1 if no packet has been sent from the source to the destination
+     */
+    public int find(int sourceId, int destId) {
+        long key = key(sourceId, destId);
+        int mask = index.length - 1;
+        int slot = hash(key) & mask;
+        int pair;
+        while ((pair = index[slot] - 1) >= 0) {
+            if (keys[pair] == key) {
+                return pair;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Gets the number of distinct pairs seen.
+     * @return the pair count
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Checks whether a <code>HostSeries</code> is kept for every pair.
+     * @return true if pair series are kept
+     */
+    public boolean isKeepingSeries() {
+        return series != null;
+    }
+
+    /**
+     * Gets the source host of a pair.
+     * @param pair the pair number
+     * @return the source host identifier
+     */
+    public int getSourceId(int pair) {
+        return (int) (keys[pair] >>> 32);
+    }
+
+    /**
+     * Gets the destination host of a pair.
+     * @param pair the pair number
+     * @return the destination host identifier
+     */
+    public int getDestId(int pair) {
+        return (int) keys[pair];
+    }
+
+    /**
+     * Gets the number of bytes sent within a pair.
+     * @param pair the pair number
+     * @return the byte total
+     */
+    public long getBytes(int pair) {
+        return bytes[pair];
+    }
+
+    /**
+     * Gets the number of packets sent within a pair.
+     * @param pair the pair number
+     * @return the packet total
+     */
+    public long getPackets(int pair) {
+        return packets[pair];
+    }
+
+    /**
+     * Gets the series of a pair.
+     * @param pair the pair number
+     * @return the pair's <code>HostSeries</code>, or null if pair series are not kept
+     */
+    public HostSeries getSeries(int pair) {
+        return series == null ? null : series[pair];
+    }
+
+    /**
+     * Gets the hosts a host has exchanged the most bytes with in one direction. Every pair is scanned once and the
+     * heaviest are kept in a heap of at most <code>n</code> pairs, so the cost grows with the number of pairs
+     * and not with the number of packets.
+     * @param hostId    the host identifier
+     * @param role      <code>HostDictionary.SOURCE</code> for the hosts it sent to, or
+     *                  <code>HostDictionary.DEST</code> for the hosts that sent to it
+     * @param n         the number of peers to return
+     * @return up to <code>n</code> conversations, heaviest first
+     */
+    public List<Conversation> getTopPeers(int hostId, int role, int n) {
+        int[] heap = new int[Math.max(1, n)];
+        int count = 0;
+        for (int pair = 0; pair < size; pair++) {
+            int id = role == HostDictionary.SOURCE ? getSourceId(pair) : getDestId(pair);
+            if (id != hostId || packets[pair] == 0) {
+                continue;
+            }
+            if (count < heap.length) {
+                heap[count] = pair;
+                siftUp(heap, count++);
+            } else if (bytes[pair] > bytes[heap[0]]) {
+                heap[0] = pair;
+                siftDown(heap, count);
+            }
+        }
+        ArrayList<Conversation> top = new ArrayList<Conversation>();
+        while (count > 0) {
+            int pair = heap[0];
+            top.add(new Conversation(hosts.getAddr(getSourceId(pair)), hosts.getAddr(getDestId(pair)), bytes[pair], packets[pair]));
+            heap[0] = heap[--count];
+            siftDown(heap, count);
+        }
+        Collections.reverse(top);
+        return top;
+    }
+
+    private void siftUp(int[] heap, int position) {
+        int pair = heap[position];
+        while (position > 0) {
+            int parent = (position - 1) >>> 1;
+            if (bytes[heap[parent]] <= bytes[pair]) {
+                break;
+            }
+            heap[position] = heap[parent];
+            position = parent;
+        }
+        heap[position] = pair;
+    }
+
+    private void siftDown(int[] heap, int count) {
+        int pair = heap[0];
+        int position = 0;
+        while (true) {
+            int child = 2 * position + 1;
+            if (child >= count) {
+                break;
+            }
+            if (child + 1 < count && bytes[heap[child + 1]] < bytes[heap[child]]) {
+                child++;
+            }
+            if (bytes[pair] <= bytes[heap[child]]) {
+                break;
+            }
+            heap[position] = heap[child];
+            position = child;
+        }
+        heap[position] = pair;
+    }
+
+    private static int hash(long key) {
+        long mixed = key * 0x9E3779B97F4A7C15L;
+        return (int) (mixed ^ (mixed >>> 32));
+    }
+
+    private int pairOf(long key) {
+        int mask = index.length - 1;
+        int slot = hash(key) & mask;
+        int pair;
+        while ((pair = index[slot] - 1) >= 0) {
+            if (keys[pair] == key) {
+                return pair;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return insert(key, slot);
+    }
+
+    private int insert(long key, int slot) {
+        int pair = size++;
+        if (pair == keys.length) {
+            int capacity = pair * 2;
+            keys = Arrays.copyOf(keys, capacity);
+            bytes = Arrays.copyOf(bytes, capacity);
+            packets = Arrays.copyOf(packets, capacity);
+            if (series != null) {
+                series = Arrays.copyOf(series, capacity);
+            }
+        }
+        keys[pair] = key;
+        index[slot] = pair + 1;
+        if (size * 2 > index.length) {
+            rehash();
+        }
+        return pair;
+    }
+
+    private void rehash() {
+        index = new int[index.length * 2];
+        int mask = index.length - 1;
+        for (int pair = 0; pair < size; pair++) {
+            int slot = hash(keys[pair]) & mask;
+            while (index[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            index[slot] = pair + 1;
+        }
+    }
+
+    /**
+     * The traffic sent from one host to another.
+     */
+    public static class Conversation {
+        private final String sourceAddr;
+        private final String destAddr;
+        private final long bytes;
+        private final long packets;
+
+        private Conversation(String sourceAddr, String destAddr, long bytes, long packets) {
+            this.sourceAddr = sourceAddr;
+            this.destAddr = destAddr;
+            this.bytes = bytes;
+            this.packets = packets;
+        }
+
+        /**
+         * Gets the address of the sending host.
+         * @return the <code>String</code> IP address
+         */
+        public String getSourceAddr() {
+            return sourceAddr;
+        }
+
+        /**
+         * Gets the address of the receiving host.
+         * @return the <code>String</code> IP address
+         */
+        public String getDestAddr() {
+            return destAddr;
+        }
+
+        /**
+         * Gets the number of bytes sent.
+         * @return the byte total
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * Gets the number of packets sent.
+         * @return the packet total
+         */
+        public long getPackets() {
+            return packets;
+        }
+    }
+}
@@ -0,0 +1,259 @@
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Renders the graph of every host in a trace, or of a chosen subset of hosts, to PNG files without a display.
+ * The trace is loaded once, graphs are drawn in parallel by render workers that each own a
+ * <code>GraphRenderer</code>, and drawn images are handed through a bounded queue to writer threads that
+ * encode and write them, so that neither drawing nor encoding waits on the other and at most a fixed number
+ * of images are held in memory at once. A <code>TraceFilter</code> expression given with <code>-filter</code>
+ * limits the packets loaded, such as to a subnet or time window.
+ * <p>
+ * Usage: <code>java GraphExporter [-out dir] [-threads n] [-role source|dest|all] [-hosts a,b.c.*] [-size WxH] [-filter expr] trace</code>
+ * @author Michael Johnson
+ */
+public class GraphExporter {
+    private static final int DEFAULT_WIDTH = 995;
+    private static final int DEFAULT_HEIGHT = 350;
+    private static final int IMAGES_PER_WRITER = 4;
+    private static final RenderedGraph END_OF_IMAGES = new RenderedGraph(null, null);
+    private File outputDirectory;
+    private int renderThreads = Runtime.getRuntime().availableProcessors();
+    private int writerThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    private int width = DEFAULT_WIDTH;
+    private int height = DEFAULT_HEIGHT;
+    private Color background = Color.WHITE;
+
+    /**
+     * Constructs a <code>GraphExporter</code> object that writes one PNG per host into the given directory.
+     * @param outputDirectory the directory to write images to
+     */
+    public GraphExporter(File outputDirectory) {
+        this.outputDirectory = outputDirectory;
+    }
+
+    /**
+     * Loads a trace and exports the graphs of the hosts chosen on the command line.
+     * @param args the command line arguments, described in the class documentation
+     */
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+        File traceFile = null;
+        File outputDirectory = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        String role = "all";
+        String hostFilter = null;
+        String filterExpression = null;
+        int width = DEFAULT_WIDTH;
+        int height = DEFAULT_HEIGHT;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("-out")) {
+                    outputDirectory = new File(args[++i]);
+                } else if (args[i].equals("-threads")) {
+                    threads = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("-role")) {
+                    role = args[++i];
+                } else if (args[i].equals("-hosts")) {
+                    hostFilter = args[++i];
+                } else if (args[i].equals("-filter")) {
+                    filterExpression = args[++i];
+                } else if (args[i].equals("-size")) {
+                    String[] size = args[++i].split("x");
+                    width = Integer.parseInt(size[0]);
+                    height = Integer.parseInt(size[1]);
+                } else {
+                    traceFile = new File(args[i]);
+                }
+            }
+        } catch (RuntimeException e) {
+            traceFile = null;
+        }
+        if (traceFile == null || threads < 1 || width < 1 || height < 1 || !(role.equals("all") || role.equals("source") || role.equals("dest"))) {
+            System.err.println("Usage: java GraphExporter [-out dir] [-threads n] [-role source|dest|all] [-hosts a,b.c.*] [-size WxH] [-filter expr] trace");
+            System.exit(2);
+        }
+        TraceFilter filter = null;
+        if (filterExpression != null) {
+            try {
+                filter = TraceFilter.compile(filterExpression);
+            } catch (IllegalArgumentException e) {
+                System.err.println("Invalid filter: " + e.getMessage());
+                System.exit(2);
+            }
+        }
+        if (outputDirectory == null) {
+            outputDirectory = traceFile.getAbsoluteFile().getParentFile();
+        }
+        if (!outputDirectory.isDirectory() && !outputDirectory.mkdirs()) {
+            System.err.println("Cannot create " + outputDirectory);
+            System.exit(1);
+        }
+        long startTime = System.nanoTime();
+        TraceFile trace = new TraceFile(traceFile, threads, filter);
+        long loadTime = System.nanoTime();
+        List<String> hosts = selectHosts(trace, role, hostFilter);
+        GraphExporter exporter = new GraphExporter(outputDirectory);
+        exporter.setThreads(threads, Math.max(1, threads / 2));
+        exporter.setImageSize(width, height);
+        int written = exporter.export(trace, hosts);
+        long endTime = System.nanoTime();
+        System.out.printf("Loaded %s in %.2f s, wrote %,d of %,d graphs to %s in %.2f s%n", traceFile.getName(),
+                (loadTime - startTime) / 1e9, written, hosts.size(), outputDirectory, (endTime - loadTime) / 1e9);
+        System.exit(written == hosts.size() ? 0 : 1);
+    }
+
+    /**
+     * Chooses the hosts of a trace to export. A filter is a comma separated list of addresses, where an address
+     * ending in <code>*</code> matches every address starting with what comes before it.
+     * @param trace         the loaded <code>TraceFile</code>
+     * @param role          "source", "dest" or "all" to take source hosts, destination hosts, or both
+     * @param hostFilter    the filter to apply, or null to take every host
+     * @return the chosen host addresses, in first-seen order
+     */
+    public static List<String> selectHosts(TraceFile trace, String role, String hostFilter) {
+        LinkedHashSet<String> candidates = new LinkedHashSet<String>();
+        if (!role.equals("dest")) {
+            candidates.addAll(trace.getFirstSeenSourceHostList());
+        }
+        if (!role.equals("source")) {
+            candidates.addAll(trace.getFirstSeenDestHostList());
+        }
+        if (hostFilter == null) {
+            return new ArrayList<String>(candidates);
+        }
+        String[] patterns = hostFilter.split(",");
+        ArrayList<String> hosts = new ArrayList<String>();
+        for (String host : candidates) {
+            for (String pattern : patterns) {
+                pattern = pattern.trim();
+                boolean matches = pattern.endsWith("*") ? host.startsWith(pattern.substring(0, pattern.length() - 1)) : host.equals(pattern);
+                if (matches) {
+                    hosts.add(host);
+                    break;
+                }
+            }
+        }
+        return hosts;
+    }
+
+    /**
+     * Sets the number of threads that draw graphs and the number that encode and write them.
+     * @param renderThreads the number of render workers
+     * @param writerThreads the number of writer threads
+     */
+    public void setThreads(int renderThreads, int writerThreads) {
+        this.renderThreads = Math.max(1, renderThreads);
+        this.writerThreads = Math.max(1, writerThreads);
+    }
+
+    /**
+     * Sets the size of the exported images, which each graph is laid out to fill.
+     * @param width     the image width in pixels
+     * @param height    the image height in pixels
+     */
+    public void setImageSize(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Sets the colour exported images are filled with before the graph is drawn.
+     * @param background the background <code>Color</code>
+     */
+    public void setBackground(Color background) {
+        this.background = background;
+    }
+
+    /**
+     * Draws and writes the graph of each given host to <code>host.png</code> in the output directory. Hosts
+     * without a series are skipped.
+     * @param trace the loaded <code>TraceFile</code>
+     * @param hosts the addresses of the hosts to export
+     * @return the number of images written
+     */
+    public int export(final TraceFile trace, final List<String> hosts) {
+        final BlockingQueue<RenderedGraph> pending = new ArrayBlockingQueue<RenderedGraph>(writerThreads * IMAGES_PER_WRITER);
+        final AtomicInteger nextHost = new AtomicInteger();
+        final AtomicInteger written = new AtomicInteger();
+        ExecutorService renderPool = Executors.newFixedThreadPool(renderThreads);
+        ExecutorService writerPool = Executors.newFixedThreadPool(writerThreads);
+        for (int i = 0; i < writerThreads; i++) {
+            writerPool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (RenderedGraph graph = pending.take(); graph != END_OF_IMAGES; graph = pending.take()) {
+                            File imageFile = new File(outputDirectory, graph.hostAddr + ".png");
+                            try {
+                                ImageIO.write(graph.image, "png", imageFile);
+                                written.incrementAndGet();
+                            } catch (IOException | RuntimeException e) {
+                                e.printStackTrace();
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+        }
+        ArrayList<Future<?>> renders = new ArrayList<Future<?>>();
+        for (int i = 0; i < renderThreads; i++) {
+            renders.add(renderPool.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws InterruptedException {
+                    GraphRenderer renderer = new GraphRenderer();
+                    renderer.setSize(width, height);
+                    for (int next = nextHost.getAndIncrement(); next < hosts.size(); next = nextHost.getAndIncrement()) {
+                        String hostAddr = hosts.get(next);
+                        SeriesView graphData = trace.hostPackets.get(hostAddr);
+                        if (graphData != null) {
+                            renderer.setData(graphData);
+                            pending.put(new RenderedGraph(hostAddr, renderer.render(width, height, background)));
+                        }
+                    }
+                    return null;
+                }
+            }));
+        }
+        try {
+            for (Future<?> render : renders) {
+                try {
+                    render.get();
+                } catch (ExecutionException e) {
+                    e.getCause().printStackTrace();
+                }
+            }
+            for (int i = 0; i < writerThreads; i++) {
+                pending.put(END_OF_IMAGES);
+            }
+            writerPool.shutdown();
+            writerPool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            writerPool.shutdownNow();
+            Thread.currentThread().interrupt();
+        } finally {
+            renderPool.shutdownNow();
+        }
+        return written.get();
+    }
+
+    private static class RenderedGraph {
+        private final String hostAddr;
+        private final BufferedImage image;
+
+        private RenderedGraph(String hostAddr, BufferedImage image) {
+            this.hostAddr = hostAddr;
+            this.image = image;
+        }
+    }
+}
@@ -0,0 +1,590 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+/**
+ * Draws the graph of a host's series over a time window onto any <code>Graphics</code>, so that
+ * the same drawing can be cached by a <code>PacketGrapher</code> or produced without a display. The series is
+ * reduced to the highest volume in each pixel column before drawing, and each column is drawn from zero up to
+ * it, so a frame never draws more than one line per column however many bins the window holds.
+ * <p>
+ * The same host's series from several traces can be drawn over one another, each in its own colour, or as the
+ * difference between the last of them and the first. Their bins are walked together by a <code>SeriesMerge</code>,
+ * so the traces are compared at the same time into each capture.
+ * @author Michael Johnson
+ */
+public class GraphRenderer {
+    private static final long MICROS_PER_SECOND = 1000000L;
+    private static final long MIN_TIME_INCR = 1000L;
+    private static final long[] TIME_INCR_STEPS = {1, 2, 5};
+    private static final long MIN_TIME_TICKS = 8;
+    private static final long MAX_TIME_TICKS = 24;
+    private static final long[] BYTE_INCR_STEPS = {1, 2, 5};
+    private static final int MAX_BYTE_TICKS = 10;
+    private static final long LARGE_BYTE_INCR = 200000L;
+    private static final int LABEL_CHAR_WIDTH = 6;
+    private static final int LABEL_PADDING = 8;
+    private static final long MIN_WINDOW = MIN_TIME_TICKS * MIN_TIME_INCR;
+    private static final Color SELECTION_COLOR = new Color(0, 0, 255, 40);
+    private static final Color[] COMPARISON_COLORS = {new Color(0, 0, 255, 140), new Color(255, 128, 0, 140),
+            new Color(0, 160, 0, 140), new Color(200, 0, 200, 140), new Color(0, 160, 160, 140), new Color(128, 64, 0, 140)};
+    private static final Color INCREASE_COLOR = new Color(0, 160, 0, 160);
+    private static final Color DECREASE_COLOR = new Color(220, 0, 0, 160);
+    private static final int LEGEND_LINE_HEIGHT = 14;
+    private static final int DEFAULT_WIDTH = 995;
+    private static final int DEFAULT_HEIGHT = 350;
+    private static final int LEFT_MARGIN = 50;
+    private static final int RIGHT_MARGIN = 45;
+    private static final int TOP_MARGIN = 25;
+    private static final int BOTTOM_MARGIN = 75;
+    private static final int DEFAULT_SECONDS = 650;
+    private Double WIDTH;
+    private Double HEIGHT;
+    private Point graphPoint;
+    private Double BYTE_INCR = 200000.0;
+    private Double SECOND_INCR = 50.0;
+    private Double byteTicks;
+    private Double maxByteTicks;
+    private Double relativeSingleByte;
+    private long timeIncr;
+    private long fullTimeSpan;
+    private long viewStart;
+    private long viewEnd;
+    private boolean zoomed;
+    private double relativeSingleMicro;
+    private LevelView level;
+    private Long maxBytes;
+    private long totalBytes;
+    private Integer maxSeconds;
+    private SeriesView graphData;
+    private SeriesView[] comparedData;
+    private String[] comparedNames;
+    private boolean difference;
+    private LevelView[] comparedLevels;
+    private long[] comparedTotals;
+    private boolean defaultGraph = true;
+
+    /**
+     * Constructs a <code>GraphRenderer</code> object that draws the empty default graph, laid out for an image of
+     * 995 by 350 pixels.
+     */
+    public GraphRenderer() {
+        setSize(DEFAULT_WIDTH, DEFAULT_HEIGHT);
+    }
+
+    /**
+     * Lays the graph out for an image of the given size, keeping the same margins around the plotting area for the
+     * axis labels whatever the size.
+     * @param width     the width of the image in pixels
+     * @param height    the height of the image in pixels
+     */
+    public void setSize(int width, int height) {
+        WIDTH = (double) Math.max(1, width - LEFT_MARGIN - RIGHT_MARGIN);
+        HEIGHT = (double) Math.max(1, height - TOP_MARGIN - BOTTOM_MARGIN);
+        graphPoint = new Point(LEFT_MARGIN, TOP_MARGIN + HEIGHT.intValue());
+        if (!defaultGraph) {
+            setupGraphParameters();
+        }
+    }
+
+    /**
+     * Replaces the graphing data, keeping the current time window if one has been chosen.
+     * @param graphData the series to draw, on or off the heap, or null to draw the empty default graph
+     */
+    public void setData(SeriesView graphData) {
+        this.graphData = graphData;
+        comparedData = null;
+        comparedLevels = null;
+        comparedTotals = null;
+        defaultGraph = graphData == null;
+        if (defaultGraph) {
+            zoomed = false;
+        } else {
+            setupGraphParameters();
+        }
+    }
+
+    /**
+     * Replaces the graphing data with the same host's series from several traces, keeping the current time window
+     * if one has been chosen. The series are either drawn over one another or, as a difference, the bytes by which
+     * the last series is above the first are drawn in green and the bytes by which it is below in red.
+     * @param series        the series to compare, any of which may be null where a trace has none for the host
+     * @param names         the <code>String</code> names to label each series with
+     * @param difference    true to draw the difference between the last series and the first
+     */
+    public void setComparison(SeriesView[] series, String[] names, boolean difference) {
+        graphData = null;
+        for (SeriesView view : series) {
+            if (view != null && graphData == null) {
+                graphData = view;
+            }
+        }
+        comparedData = series.clone();
+        comparedNames = names.clone();
+        this.difference = difference;
+        defaultGraph = graphData == null;
+        if (defaultGraph) {
+            zoomed = false;
+        } else {
+            setupGraphParameters();
+        }
+    }
+
+    /**
+     * Checks whether there is graphing data to draw.
+     * @return true if a series is being drawn rather than the empty default graph
+     */
+    public boolean hasData() {
+        return !defaultGraph;
+    }
+
+    /**
+     * Draws only the given time window of the series. The window is widened to at least a few milliseconds and
+     * kept within the trace.
+     * @param start the start of the window in microseconds
+     * @param end   the end of the window in microseconds
+     */
+    public void setTimeWindow(long start, long end) {
+        if (defaultGraph) {
+            return;
+        }
+        long span = Math.min(fullTimeSpan, Math.max(MIN_WINDOW, end - start));
+        if (span != end - start) {
+            start += (end - start - span) / 2;
+        }
+        viewStart = Math.max(0, Math.min(fullTimeSpan - span, start));
+        viewEnd = viewStart + span;
+        zoomed = span < fullTimeSpan;
+        setupGraphParameters();
+    }
+
+    /**
+     * Returns to drawing the whole trace.
+     */
+    public void resetTimeWindow() {
+        zoomed = false;
+        if (!defaultGraph) {
+            setupGraphParameters();
+        }
+    }
+
+    /**
+     * Checks whether only part of the trace is being drawn.
+     * @return true if a time window narrower than the trace has been chosen
+     */
+    public boolean isZoomed() {
+        return zoomed;
+    }
+
+    /**
+     * Clamps a horizontal position to the plotting area.
+     * @param x the horizontal position in pixels
+     * @return the nearest position within the plotting area
+     */
+    public int clampToGraph(int x) {
+        return Math.max(graphPoint.x, Math.min(graphPoint.x + WIDTH.intValue(), x));
+    }
+
+    /**
+     * Gets the time drawn at a horizontal position.
+     * @param x the horizontal position in pixels
+     * @return the time in microseconds
+     */
+    public long timeAt(int x) {
+        return viewStart + durationOf(x - graphPoint.x);
+    }
+
+    /**
+     * Gets the length of time drawn across a number of pixels.
+     * @param pixels the number of pixels
+     * @return the duration in microseconds
+     */
+    public long durationOf(int pixels) {
+        return (long) (pixels / relativeSingleMicro);
+    }
+
+    /**
+     * Draws the graph onto a new image.
+     * @param width         the width of the image in pixels
+     * @param height        the height of the image in pixels
+     * @param background    the <code>Color</code> to fill the image with first
+     * @return the drawn <code>BufferedImage</code>
+     */
+    public BufferedImage render(int width, int height, Color background) {
+        BufferedImage image = new BufferedImage(Math.max(1, width), Math.max(1, height), BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2d = image.createGraphics();
+        g2d.setColor(background);
+        g2d.fillRect(0, 0, image.getWidth(), image.getHeight());
+        render(g2d);
+        g2d.dispose();
+        return image;
+    }
+
+    /**
+     * Draws the axes, ticks and series of the graph.
+     * @param g the <code>Graphics</code> to draw with
+     */
+    public void render(Graphics g) {
+        drawAxes(g);
+        drawTicks(g);
+        drawGraph(g);
+    }
+
+    /**
+     * Shades the part of the plotting area between two horizontal positions, such as a time window being selected.
+     * @param g     the <code>Graphics</code> to draw with
+     * @param fromX one edge of the selection in pixels
+     * @param toX   the other edge of the selection in pixels
+     */
+    public void drawSelection(Graphics g, int fromX, int toX) {
+        g.setColor(SELECTION_COLOR);
+        g.fillRect(Math.min(fromX, toX), graphPoint.y - HEIGHT.intValue(), Math.abs(toX - fromX), HEIGHT.intValue());
+    }
+
+    private void drawAxes(Graphics g) {
+        g.setColor(Color.BLACK);
+        if (!defaultGraph && comparedData != null && difference) {
+            g.drawString("Change in volume [bytes per " + formatBinWidth(level.getBinWidth()) + "]", 4, 16);
+        } else if (!defaultGraph) {
+            g.drawString("Volume [bytes per " + formatBinWidth(level.getBinWidth()) + "]", 4, 16);
+        } else {
+            g.drawString("Volume [bytes]", 4, 16);
+        }
+        g.drawString("Time [s]", graphPoint.x + WIDTH.intValue() / 2 - 45, graphPoint.y + 50);
+        g.drawLine(graphPoint.x, graphPoint.y - HEIGHT.intValue(), graphPoint.x, graphPoint.y);
+        g.drawLine(graphPoint.x, graphPoint.y, graphPoint.x + WIDTH.intValue(), graphPoint.y);
+    }
+    
+    private void drawTicks(Graphics g) {
+        String label;
+        double byteIncrement = 0.0;
+        double defaultIncrement = 0.0;
+        if (!defaultGraph) {
+            for (long t = (viewStart + timeIncr - 1) / timeIncr * timeIncr; t <= viewEnd; t += timeIncr) {
+                int x = graphPoint.x + (int) (relativeSingleMicro * (t - viewStart));
+                g.drawLine(x, graphPoint.y, x, graphPoint.y + 5);
+                label = formatSeconds(t);
+                g.drawString(label, x - 10, graphPoint.y + 20);
+            }
+            for (long i = 0; i <= maxByteTicks; i += BYTE_INCR) {
+                g.drawLine(graphPoint.x, graphPoint.y - (int) byteIncrement, graphPoint.x - 5, graphPoint.y - (int) byteIncrement);
+                if (i != 0) {
+                    g.setColor(Color.LIGHT_GRAY);
+                    g.drawLine(graphPoint.x, graphPoint.y - (int) byteIncrement, graphPoint.x + WIDTH.intValue(), graphPoint.y - (int) byteIncrement);
+                    g.setColor(Color.BLACK);
+                }
+                if (i >= 1000000000) {
+                    label = String.format("%.1fG", i / 1000000000.0);
+                } else if (i >= 1000000) {
+                    label = String.format("%.1fM", i / 1000000.0);
+                } else if (i >= 1000 && i % 1000 == 0) {
+                    label = String.format("%dK", i / 1000);
+                } else if (i >= 1000) {
+                    label = String.format("%.1fK", i / 1000.0);
+                } else {
+                    label = String.format("%d", i);
+                }
+                g.drawString(label, graphPoint.x - 45, 5 + graphPoint.y - (int) byteIncrement);
+                byteIncrement += relativeSingleByte * BYTE_INCR;
+            }
+        } else {
+            for (int i = 0; i <= DEFAULT_SECONDS; i += SECOND_INCR) {
+                g.drawLine(graphPoint.x + (int) defaultIncrement, graphPoint.y, graphPoint.x + (int) defaultIncrement, graphPoint.y + 5);
+                label = String.format("%d", i);
+                g.drawString(label, graphPoint.x + (int) defaultIncrement - 10, graphPoint.y + 20);
+                defaultIncrement += (WIDTH / DEFAULT_SECONDS) * SECOND_INCR;
+            }
+        }
+    }
+
+    private void drawGraph(Graphics g) {
+        if (!defaultGraph && comparedData != null) {
+            drawComparison(g);
+        } else if (!defaultGraph) {
+            int columns = WIDTH.intValue() + 1;
+            long[] columnMax = new long[columns];
+            long binWidth = level.getBinWidth();
+            long lastBin = viewEnd / binWidth;
+            for (int i = level.ceilingIndex(viewStart / binWidth); i < level.size() && level.getBin(i) <= lastBin; i++) {
+                long bytes = level.getBytes(i);
+                if (bytes == 0) {
+                    continue;
+                }
+                long start = level.getBin(i) * binWidth - viewStart;
+                int first = Math.max(0, (int) (relativeSingleMicro * start));
+                int last = Math.min(columns - 1, Math.max(first, (int) (relativeSingleMicro * (start + binWidth)) - 1));
+                for (int column = first; column <= last; column++) {
+                    columnMax[column] = Math.max(columnMax[column], bytes);
+                }
+            }
+            g.setColor(Color.BLUE);
+            for (int column = 0; column < columns; column++) {
+                if (columnMax[column] != 0) {
+                    int x = graphPoint.x + column;
+                    g.drawLine(x, graphPoint.y, x, graphPoint.y - (int) (relativeSingleByte * columnMax[column]));
+                }
+            }
+        }
+    }
+
+    private void drawComparison(Graphics g) {
+        int columns = WIDTH.intValue() + 1;
+        int last = comparedLevels.length - 1;
+        int lines = difference ? 2 : comparedLevels.length;
+        long[][] columnMax = new long[lines][columns];
+        long binWidth = level.getBinWidth();
+        SeriesMerge merge = new SeriesMerge(comparedLevels, viewStart / binWidth, viewEnd / binWidth + 1);
+        while (merge.next()) {
+            long start = merge.getBin() * binWidth - viewStart;
+            int first = Math.max(0, (int) (relativeSingleMicro * start));
+            int lastColumn = Math.min(columns - 1, Math.max(first, (int) (relativeSingleMicro * (start + binWidth)) - 1));
+            for (int line = 0; line < lines; line++) {
+                long bytes = merge.getBytes(line);
+                if (difference) {
+                    long change = merge.getBytes(last) - merge.getBytes(0);
+                    bytes = line == 0 ? change : -change;
+                }
+                for (int column = first; column <= lastColumn && bytes > 0; column++) {
+                    columnMax[line][column] = Math.max(columnMax[line][column], bytes);
+                }
+            }
+        }
+        String[] labels = new String[lines];
+        Color[] colors = new Color[lines];
+        for (int line = 0; line < lines; line++) {
+            if (difference) {
+                labels[line] = (line == 0 ? "More" : "Less") + " in " + comparedNames[last] + " than " + comparedNames[0];
+                colors[line] = line == 0 ? INCREASE_COLOR : DECREASE_COLOR;
+            } else {
+                labels[line] = comparedNames[line];
+                colors[line] = COMPARISON_COLORS[line % COMPARISON_COLORS.length];
+            }
+            g.setColor(colors[line]);
+            for (int column = 0; column < columns; column++) {
+                if (columnMax[line][column] != 0) {
+                    int x = graphPoint.x + column;
+                    g.drawLine(x, graphPoint.y, x, graphPoint.y - (int) (relativeSingleByte * columnMax[line][column]));
+                }
+            }
+        }
+        FontMetrics fontMetrics = g.getFontMetrics();
+        int legendWidth = 0;
+        for (String label : labels) {
+            legendWidth = Math.max(legendWidth, fontMetrics.stringWidth(label));
+        }
+        int x = graphPoint.x + WIDTH.intValue() - legendWidth - 20;
+        for (int line = 0; line < lines; line++) {
+            int y = graphPoint.y - HEIGHT.intValue() + (line + 1) * LEGEND_LINE_HEIGHT;
+            g.setColor(colors[line]);
+            g.fillRect(x, y - 9, 10, 10);
+            g.setColor(Color.BLACK);
+            g.drawString(labels[line], x + 15, y);
+        }
+    }
+
+    private String formatSeconds(long micros) {
+        int decimals = 0;
+        for (long unit = MICROS_PER_SECOND; unit > timeIncr; unit /= 10) {
+            decimals++;
+        }
+        return String.format("%." + decimals + "f", micros / (double) MICROS_PER_SECOND);
+    }
+
+    private String formatBinWidth(long binWidth) {
+        if (binWidth < MICROS_PER_SECOND) {
+            return String.format("%d ms", binWidth / 1000);
+        }
+        return String.format("%d s", binWidth / MICROS_PER_SECOND);
+    }
+
+    /**
+     * Gets the <code>Long</code> maximum bytes in any one bin of the visible time window.
+     * @return the maximum number of bytes per bin
+     */
+    public Long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Gets the width of the bins being drawn, which depends on how much time the window spans.
+     * @return the <code>String</code> bin width with its unit, such as <code>"10 ms"</code>
+     */
+    public String getBinWidth() {
+        return formatBinWidth(level.getBinWidth());
+    }
+
+    /**
+     * Gets the total volume of each series being compared within the visible time window.
+     * @return the volume of bytes of each series in the order they were given, or null if series are not being
+     *         compared
+     */
+    public long[] getComparedTotalBytes() {
+        return comparedTotals == null ? null : comparedTotals.clone();
+    }
+
+    /**
+     * Gets the <code>Integer</code> time length in seconds for the transmission in context.
+     * @return the maximum number of seconds
+     */
+    public Integer getMaxSeconds() {
+        return maxSeconds;
+    }
+
+    /**
+     * Gets the total transimission volume within the visible time window.
+     * @return the total volume of bytes
+     */
+    public Long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * Gets the start of the visible time window.
+     * @return the start of the window in microseconds
+     */
+    public long getWindowStart() {
+        return viewStart;
+    }
+
+    /**
+     * Gets the end of the visible time window.
+     * @return the end of the window in microseconds
+     */
+    public long getWindowEnd() {
+        return viewEnd;
+    }
+
+    private void setupGraphParameters() {
+        maxSeconds = graphData.getLastSecond();
+        long lastTime = Math.max(0, graphData.getLastTime());
+        if (comparedData != null) {
+            for (SeriesView series : comparedData) {
+                if (series != null) {
+                    maxSeconds = Math.max(maxSeconds, series.getLastSecond());
+                    lastTime = Math.max(lastTime, series.getLastTime());
+                }
+            }
+        }
+        setTimeIncrement(lastTime, lastTime);
+        fullTimeSpan = Math.max(MIN_TIME_TICKS, (lastTime + timeIncr - 1) / timeIncr) * timeIncr;
+        if (zoomed && viewEnd - viewStart < fullTimeSpan) {
+            long span = viewEnd - viewStart;
+            viewStart = Math.max(0, Math.min(fullTimeSpan - span, viewStart));
+            viewEnd = viewStart + span;
+            setTimeIncrement(span, viewEnd);
+        } else {
+            zoomed = false;
+            viewStart = 0;
+            viewEnd = fullTimeSpan;
+        }
+        relativeSingleMicro = WIDTH / (viewEnd - viewStart);
+        level = graphData.getLevelFor(viewEnd - viewStart, WIDTH.intValue());
+        long binWidth = level.getBinWidth();
+        if (comparedData == null) {
+            maxBytes = level.getMaxBytes(viewStart / binWidth, viewEnd / binWidth + 1);
+            totalBytes = level.getTotalBytes(viewStart / binWidth, viewEnd / binWidth + 1);
+        } else {
+            measureComparison(binWidth);
+        }
+        setIncrement(maxBytes);
+        byteTicks = tickCalc(maxBytes, BYTE_INCR);
+        maxByteTicks = setMaxTicks(byteTicks, BYTE_INCR);
+        relativeSingleByte = setRelativeSingleValue(maxByteTicks, HEIGHT);
+    }
+
+    private void measureComparison(long binWidth) {
+        comparedLevels = new LevelView[comparedData.length];
+        comparedTotals = new long[comparedData.length];
+        long fromBin = viewStart / binWidth;
+        long toBin = viewEnd / binWidth + 1;
+        maxBytes = 0L;
+        totalBytes = 0;
+        for (int i = 0; i < comparedData.length; i++) {
+            if (comparedData[i] != null) {
+                comparedLevels[i] = comparedData[i].getLevelFor(viewEnd - viewStart, WIDTH.intValue());
+                comparedTotals[i] = comparedLevels[i].getTotalBytes(fromBin, toBin);
+                totalBytes += comparedTotals[i];
+                if (!difference) {
+                    maxBytes = Math.max(maxBytes, comparedLevels[i].getMaxBytes(fromBin, toBin));
+                }
+            }
+        }
+        if (difference) {
+            int last = comparedLevels.length - 1;
+            totalBytes = comparedTotals[last] - comparedTotals[0];
+            SeriesMerge merge = new SeriesMerge(comparedLevels, fromBin, toBin);
+            while (merge.next()) {
+                maxBytes = Math.max(maxBytes, Math.abs(merge.getBytes(last) - merge.getBytes(0)));
+            }
+        }
+    }
+
+    private void setTimeIncrement(long span, long end) {
+        long decade = MIN_TIME_INCR;
+        int step = 0;
+        while (true) {
+            timeIncr = decade * TIME_INCR_STEPS[step];
+            long ticks = (span + timeIncr - 1) / timeIncr;
+            if (ticks <= MAX_TIME_TICKS && ticks * (LABEL_CHAR_WIDTH * formatSeconds(end).length() + LABEL_PADDING) <= WIDTH) {
+                return;
+            }
+            if (++step == TIME_INCR_STEPS.length) {
+                step = 0;
+                decade *= 10;
+            }
+        }
+    }
+
+    private Double setMaxTicks(Double tickType, Double incr) {
+        return tickType * incr;
+    }
+
+    private Double tickCalc(long maxVal, double incr) {
+        Double ticks = maxVal / incr;
+        double result = Math.ceil(ticks);
+        if (result < 4.0 && incr == BYTE_INCR) {
+            result = 4.0;
+        } else if (result > MAX_BYTE_TICKS && incr == BYTE_INCR) {
+            result = MAX_BYTE_TICKS;
+        }
+        return result;
+    }
+
+    private Double setRelativeSingleValue(Double maxVal, Double max) {
+        return max / maxVal;
+    }
+
+    /**
+     * Picks the spacing of the byte ticks. Up to the largest fixed spacing the steps are set by hand; beyond it the
+     * spacing grows through 1, 2 and 5 times a power of ten until at most ten ticks reach the highest bin, as the
+     * 10 and 60 second levels of a long trace can hold far more than ten of the largest fixed steps.
+     */
+    private void setIncrement(long maxBytes) {
+        if (maxBytes > MAX_BYTE_TICKS * LARGE_BYTE_INCR) {
+            long decade = LARGE_BYTE_INCR / 2;
+            int step = BYTE_INCR_STEPS.length - 1;
+            while (maxBytes > (double) MAX_BYTE_TICKS * decade * BYTE_INCR_STEPS[step]) {
+                if (++step == BYTE_INCR_STEPS.length) {
+                    step = 0;
+                    decade *= 10;
+                }
+            }
+            BYTE_INCR = (double) (decade * BYTE_INCR_STEPS[step]);
+        } else if (maxBytes >= 800000) {
+            BYTE_INCR = 200000.0;
+		} else if (maxBytes >= 400000) {
+			BYTE_INCR = 100000.0;
+		} else if (maxBytes >= 50000) {
+			BYTE_INCR = 50000.0;
+		} else if (maxBytes >= 20000) {
+            BYTE_INCR = 20000.0;
+        } else if (maxBytes >= 2000) {
+            BYTE_INCR = 2000.0;
+        } else if (maxBytes >= 200) {
+            BYTE_INCR = 200.0;
+        } else if (maxBytes >= 20) {
+            BYTE_INCR = 20.0;
+        } else {
+            BYTE_INCR = 2.0;
+        }
+    }
+}
@@ -0,0 +1,341 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Estimates the hosts that carry the most bytes in a single pass, in memory bounded by a fixed number of
+ * monitored hosts and a fixed size Count-Min sketch however many distinct hosts the trace holds.
+ * <p>
+ * Every host's bytes are added to the sketch, which estimates any host's volume from the smallest of four
+ * counters the host hashes to and never underestimates it. Counters are only raised as far as the new estimate
+ * needs, which keeps estimates of light hosts from inflating heavy ones. The hosts with the highest estimates
+ * are monitored: a host that is not monitored replaces the monitored host with the lowest estimate as soon as
+ * its own estimate is higher. Each monitored host has a <code>HostSeries</code> for its traffic from the time it
+ * was taken in, and an error bounding the bytes it carried before then in the direction the sketch counts. A caller
+ * that also adds the host's traffic in the other direction to the series has no bound on what it missed of that
+ * before the host was taken in, so a series may fall short of the host's traffic even when the error is 0.
+ * @author Michael Johnson
+ */
+public class HeavyHitters {
+    private static final int SKETCH_DEPTH = 4;
+    private static final int SKETCH_WIDTH_BITS = 16;
+    private static final long[] ROW_SEEDS = {0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L, 0xD6E8FEB86659FD93L};
+    private long[][] sketch = new long[SKETCH_DEPTH][1 << SKETCH_WIDTH_BITS];
+    private int[] sketchColumns = new int[SKETCH_DEPTH];
+    private int capacity;
+    private int size;
+    private String[] addrs;
+    private int[] hashes;
+    private long[] counts;
+    private long[] errors;
+    private HostSeries[] series;
+    private int[] index;
+    private int[] heap;
+    private int[] heapPositions;
+    private long totalBytes;
+
+    /**
+     * Constructs a <code>HeavyHitters</code> object that monitors at most the given number of hosts.
+     * @param capacity the number of hosts to monitor
+     */
+    public HeavyHitters(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        addrs = new String[this.capacity];
+        hashes = new int[this.capacity];
+        counts = new long[this.capacity];
+        errors = new long[this.capacity];
+        series = new HostSeries[this.capacity];
+        index = new int[Integer.highestOneBit(this.capacity * 2 - 1) << 1];
+        heap = new int[this.capacity];
+        heapPositions = new int[this.capacity];
+    }
+
+    /**
+     * Counts bytes for a host held as ASCII bytes in a buffer, taking the host into the monitored set if its
+     * estimated volume has become one of the highest. A <code>String</code> is only created for hosts that are
+     * taken in.
+     * @param buf       the buffer holding the address
+     * @param start     the index of the first byte of the address
+     * @param end       the index after the last byte of the address
+     * @param amount    the number of bytes to count
+     * @return the slot of the host, for use with <code>getSeries</code>, or -1 if the host is not monitored
+     */
+    public int add(ByteBuffer buf, int start, int end, long amount) {
+        totalBytes += amount;
+        int hash = hash(buf, start, end);
+        long estimate = addToSketch(hash, amount);
+        int slot = find(buf, start, end, hash);
+        if (slot >= 0) {
+            counts[slot] = estimate;
+            siftDown(heapPositions[slot]);
+        } else if (size < capacity || estimate > counts[heap[0]]) {
+            slot = admit(buf, start, end, hash, estimate);
+            errors[slot] = estimate - amount;
+        }
+        return slot;
+    }
+
+    private long addToSketch(int hash, long amount) {
+        long mixed = hash * 0x9E3779B97F4A7C15L;
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < SKETCH_DEPTH; row++) {
+            sketchColumns[row] = (int) (((mixed ^ (mixed >>> 29)) * ROW_SEEDS[row]) >>> (Long.SIZE - SKETCH_WIDTH_BITS));
+            estimate = Math.min(estimate, sketch[row][sketchColumns[row]]);
+        }
+        estimate += amount;
+        for (int row = 0; row < SKETCH_DEPTH; row++) {
+            if (sketch[row][sketchColumns[row]] < estimate) {
+                sketch[row][sketchColumns[row]] = estimate;
+            }
+        }
+        return estimate;
+    }
+
+    /**
+     * Looks up a host without counting anything.
+     * @param buf   the buffer holding the address
+     * @param start the index of the first byte of the address
+     * @param end   the index after the last byte of the address
+     * @return the slot of the host, or -1 if it is not monitored
+     */
+    public int find(ByteBuffer buf, int start, int end) {
+        return find(buf, start, end, hash(buf, start, end));
+    }
+
+    /**
+     * Gets the series of a monitored host.
+     * @param slot the slot returned by <code>add</code> or <code>find</code>
+     * @return the host's <code>HostSeries</code>
+     */
+    public HostSeries getSeries(int slot) {
+        return series[slot];
+    }
+
+    /**
+     * Gets the number of bytes counted for every host, monitored or not.
+     * @return the total volume of bytes
+     */
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * Gets the number of hosts being monitored.
+     * @return the monitored host count
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets the monitored hosts with the highest estimated volumes.
+     * @param n the number of hosts to return
+     * @return up to <code>n</code> hosts, heaviest first
+     */
+    public List<Hitter> getTop(int n) {
+        Integer[] slots = new Integer[size];
+        for (int slot = 0; slot < size; slot++) {
+            slots[slot] = slot;
+        }
+        Arrays.sort(slots, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Long.compare(counts[b], counts[a]);
+            }
+        });
+        ArrayList<Hitter> top = new ArrayList<Hitter>();
+        for (int rank = 0; rank < Math.min(n, size); rank++) {
+            int slot = slots[rank];
+            top.add(new Hitter(addrs[slot], rank + 1, counts[slot], errors[slot], totalBytes, series[slot]));
+        }
+        return top;
+    }
+
+    private static int hash(ByteBuffer buf, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + (buf.get(i) & 0xff);
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    private int find(ByteBuffer buf, int start, int end, int hash) {
+        int mask = index.length - 1;
+        for (int i = hash & mask; index[i] != 0; i = (i + 1) & mask) {
+            int slot = index[i] - 1;
+            if (hashes[slot] == hash && matches(addrs[slot], buf, start, end)) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean matches(String addr, ByteBuffer buf, int start, int end) {
+        if (addr.length() != end - start) {
+            return false;
+        }
+        for (int i = 0; i < addr.length(); i++) {
+            if (addr.charAt(i) != (buf.get(start + i) & 0xff)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int admit(ByteBuffer buf, int start, int end, int hash, long estimate) {
+        int slot;
+        if (size < capacity) {
+            slot = size++;
+            counts[slot] = estimate;
+            place(slot, slot);
+            siftUp(slot);
+        } else {
+            slot = heap[0];
+            unindex(slot);
+            counts[slot] = estimate;
+            siftDown(0);
+        }
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buf.get(start + i);
+        }
+        addrs[slot] = new String(bytes, StandardCharsets.ISO_8859_1);
+        hashes[slot] = hash;
+        series[slot] = new HostSeries();
+        int mask = index.length - 1;
+        int i = hash & mask;
+        while (index[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        index[i] = slot + 1;
+        return slot;
+    }
+
+    private void unindex(int slot) {
+        int mask = index.length - 1;
+        int gap = hashes[slot] & mask;
+        while (index[gap] != slot + 1) {
+            gap = (gap + 1) & mask;
+        }
+        for (int i = (gap + 1) & mask; index[i] != 0; i = (i + 1) & mask) {
+            int home = hashes[index[i] - 1] & mask;
+            if (((i - home) & mask) >= ((i - gap) & mask)) {
+                index[gap] = index[i];
+                gap = i;
+            }
+        }
+        index[gap] = 0;
+    }
+
+    private void siftUp(int position) {
+        int slot = heap[position];
+        while (position > 0) {
+            int parent = (position - 1) >>> 1;
+            if (counts[heap[parent]] <= counts[slot]) {
+                break;
+            }
+            place(heap[parent], position);
+            position = parent;
+        }
+        place(slot, position);
+    }
+
+    private void siftDown(int position) {
+        int slot = heap[position];
+        while (true) {
+            int child = 2 * position + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && counts[heap[child + 1]] < counts[heap[child]]) {
+                child++;
+            }
+            if (counts[slot] <= counts[heap[child]]) {
+                break;
+            }
+            place(heap[child], position);
+            position = child;
+        }
+        place(slot, position);
+    }
+
+    private void place(int slot, int position) {
+        heap[position] = slot;
+        heapPositions[slot] = position;
+    }
+
+    /**
+     * A monitored host together with its estimated rank and share of the traffic.
+     */
+    public static class Hitter {
+        private final String addr;
+        private final int rank;
+        private final long bytes;
+        private final long error;
+        private final long totalBytes;
+        private final HostSeries series;
+
+        private Hitter(String addr, int rank, long bytes, long error, long totalBytes, HostSeries series) {
+            this.addr = addr;
+            this.rank = rank;
+            this.bytes = bytes;
+            this.error = error;
+            this.totalBytes = totalBytes;
+            this.series = series;
+        }
+
+        /**
+         * Gets the address of the host.
+         * @return the <code>String</code> IP address
+         */
+        public String getAddr() {
+            return addr;
+        }
+
+        /**
+         * Gets the estimated rank of the host by volume.
+         * @return the rank, starting from 1
+         */
+        public int getRank() {
+            return rank;
+        }
+
+        /**
+         * Gets the estimated volume of the host, which is at least its true volume.
+         * @return the estimated number of bytes
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * Gets the most bytes the host can have carried, in the direction that was counted, before it was taken into
+         * the monitored set. Traffic in the other direction before then is not bounded by it, so an error of 0 does
+         * not mean the series holds all of the host's traffic.
+         * @return the error in bytes
+         */
+        public long getError() {
+            return error;
+        }
+
+        /**
+         * Gets the estimated share of all bytes counted that belongs to the host.
+         * @return the share, from 0 to 1
+         */
+        public double getShare() {
+            return totalBytes == 0 ? 0 : (double) bytes / totalBytes;
+        }
+
+        /**
+         * Gets the traffic of the host from the time it was taken into the monitored set. It may be short of the
+         * host's whole traffic by up to the error in the counted direction, and by an unknown amount in the other.
+         * @return the host's <code>HostSeries</code>
+         */
+        public HostSeries getSeries() {
+            return series;
+        }
+    }
+}
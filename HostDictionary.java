@@ -0,0 +1,387 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Interns host addresses to dense <code>int</code> identifiers through an open addressing hash index.
+ * Each host keeps its address packed into a 32-bit IPv4 value for ordering, and the dictionary records
+ * the order in which hosts were first seen as a source and as a destination so that both a first-seen
+ * and a numerically sorted view of each list can be produced without comparing strings.
+ * @author Michael Johnson
+ */
+public class HostDictionary {
+    public static final int SOURCE = 0;
+    public static final int DEST = 1;
+    private static final int INITIAL_CAPACITY = 1024;
+    private String[] addrs = new String[INITIAL_CAPACITY];
+    private int[] hashes = new int[INITIAL_CAPACITY];
+    private int[] ipv4 = new int[INITIAL_CAPACITY];
+    private boolean[] validIpv4 = new boolean[INITIAL_CAPACITY];
+    private int size;
+    private int[] index = new int[INITIAL_CAPACITY * 2];
+    private RoleList[] roles = {new RoleList(), new RoleList()};
+
+    /**
+     * Constructs an empty <code>HostDictionary</code> object.
+     */
+    public HostDictionary() {
+    }
+
+    /**
+     * Interns an address, assigning it the next identifier if it has not been seen before.
+     * @param addr the <code>String</code> IP address
+     * @return the host identifier
+     */
+    public int intern(String addr) {
+        int hash = spread(addr.hashCode());
+        int mask = index.length - 1;
+        int slot = hash & mask;
+        int id;
+        while ((id = index[slot] - 1) >= 0) {
+            if (hashes[id] == hash && addrs[id].equals(addr)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return add(addr, hash, slot);
+    }
+
+    /**
+     * Interns an address held as ASCII bytes in a buffer without creating a <code>String</code> unless
+     * the address has not been seen before.
+     * @param buf   the buffer holding the address
+     * @param start the index of the first byte of the address
+     * @param end   the index after the last byte of the address
+     * @return the host identifier
+     */
+    public int intern(ByteBuffer buf, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + (buf.get(i) & 0xff);
+        }
+        hash = spread(hash);
+        int mask = index.length - 1;
+        int slot = hash & mask;
+        int id;
+        while ((id = index[slot] - 1) >= 0) {
+            if (hashes[id] == hash && matches(addrs[id], buf, start, end)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buf.get(start + i);
+        }
+        return add(new String(bytes, StandardCharsets.ISO_8859_1), hash, slot);
+    }
+
+    /**
+     * Looks up an address without interning it.
+     * @param addr the <code>String</code> IP address
+     * @return the host identifier, or -1 if the address has not been seen
+     */
+    public int find(String addr) {
+        int hash = spread(addr.hashCode());
+        int mask = index.length - 1;
+        int slot = hash & mask;
+        int id;
+        while ((id = index[slot] - 1) >= 0) {
+            if (hashes[id] == hash && addrs[id].equals(addr)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private static boolean matches(String addr, ByteBuffer buf, int start, int end) {
+        if (addr.length() != end - start) {
+            return false;
+        }
+        for (int i = 0; i < addr.length(); i++) {
+            if (addr.charAt(i) != (buf.get(start + i) & 0xff)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private int add(String addr, int hash, int slot) {
+        int id = size++;
+        if (id == addrs.length) {
+            int capacity = id * 2;
+            addrs = Arrays.copyOf(addrs, capacity);
+            hashes = Arrays.copyOf(hashes, capacity);
+            ipv4 = Arrays.copyOf(ipv4, capacity);
+            validIpv4 = Arrays.copyOf(validIpv4, capacity);
+        }
+        addrs[id] = addr;
+        hashes[id] = hash;
+        long packed = parseIpv4(addr);
+        validIpv4[id] = packed >= 0;
+        ipv4[id] = (int) packed;
+        index[slot] = id + 1;
+        if (size * 2 > index.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    private void rehash() {
+        index = new int[index.length * 2];
+        int mask = index.length - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = hashes[id] & mask;
+            while (index[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            index[slot] = id + 1;
+        }
+    }
+
+    /**
+     * Parses a dotted quad IPv4 address into its 32-bit value, most significant octet first.
+     * @param addr the <code>String</code> IP address
+     * @return the unsigned address, or -1 if the address is not a dotted quad
+     */
+    public static long parseIpv4(String addr) {
+        long packed = 0;
+        int octet = 0;
+        int digits = 0;
+        int dots = 0;
+        for (int i = 0; i < addr.length(); i++) {
+            char c = addr.charAt(i);
+            if (c >= '0' && c <= '9' && digits < 3) {
+                octet = octet * 10 + (c - '0');
+                digits++;
+            } else if (c == '.' && digits > 0 && dots < 3) {
+                packed = (packed << 8) | octet;
+                octet = 0;
+                digits = 0;
+                dots++;
+            } else {
+                return -1;
+            }
+            if (octet > 255) {
+                return -1;
+            }
+        }
+        if (dots != 3 || digits == 0) {
+            return -1;
+        }
+        return (packed << 8) | octet;
+    }
+
+    /**
+     * Parses a dotted quad IPv4 address held as ASCII bytes in a buffer without creating a <code>String</code>.
+     * @param buf   the buffer holding the address
+     * @param start the index of the first byte of the address
+     * @param end   the index after the last byte of the address
+     * @return the unsigned address, or -1 if the address is not a dotted quad
+     */
+    public static long parseIpv4(ByteBuffer buf, int start, int end) {
+        long packed = 0;
+        int octet = 0;
+        int digits = 0;
+        int dots = 0;
+        for (int i = start; i < end; i++) {
+            byte c = buf.get(i);
+            if (c >= '0' && c <= '9' && digits < 3) {
+                octet = octet * 10 + (c - '0');
+                digits++;
+            } else if (c == '.' && digits > 0 && dots < 3) {
+                packed = (packed << 8) | octet;
+                octet = 0;
+                digits = 0;
+                dots++;
+            } else {
+                return -1;
+            }
+            if (octet > 255) {
+                return -1;
+            }
+        }
+        if (dots != 3 || digits == 0) {
+            return -1;
+        }
+        return (packed << 8) | octet;
+    }
+
+    /**
+     * Gets the number of hosts in the dictionary.
+     * @return the host count
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets the address of a host.
+     * @param id the host identifier
+     * @return the <code>String</code> IP address
+     */
+    public String getAddr(int id) {
+        return addrs[id];
+    }
+
+    /**
+     * Gets the packed IPv4 value of a host.
+     * @param id the host identifier
+     * @return the packed address, or 0 if the host is not a dotted quad
+     */
+    public int getIpv4(int id) {
+        return ipv4[id];
+    }
+
+    /**
+     * Checks whether a host's address is a dotted quad IPv4 address.
+     * @param id the host identifier
+     * @return true if the address has a packed IPv4 value
+     */
+    public boolean isIpv4(int id) {
+        return validIpv4[id];
+    }
+
+    /**
+     * Records that a host appeared in the given role, remembering the order in which hosts first do so.
+     * @param id    the host identifier
+     * @param role  either <code>SOURCE</code> or <code>DEST</code>
+     * @return true if this is the first time the host appeared in that role
+     */
+    public boolean addRole(int id, int role) {
+        return roles[role].add(id);
+    }
+
+    /**
+     * Checks whether a host has appeared in the given role.
+     * @param id    the host identifier
+     * @param role  either <code>SOURCE</code> or <code>DEST</code>
+     * @return true if the host has appeared in that role
+     */
+    public boolean hasRole(int id, int role) {
+        return roles[role].contains(id);
+    }
+
+    /**
+     * Gets the number of hosts that have appeared in the given role.
+     * @param role either <code>SOURCE</code> or <code>DEST</code>
+     * @return the host count for the role
+     */
+    public int getRoleCount(int role) {
+        return roles[role].size;
+    }
+
+    /**
+     * Gets the hosts of a role in the order in which they first appeared in it.
+     * @param role either <code>SOURCE</code> or <code>DEST</code>
+     * @return a copy of the host identifiers in first-seen order
+     */
+    public int[] getFirstSeen(int role) {
+        return Arrays.copyOf(roles[role].ids, roles[role].size);
+    }
+
+    /**
+     * Gets the hosts of a role ordered numerically by IPv4 address, with any hosts that are not dotted quads
+     * listed first in string order. The order is cached until another host appears in the role.
+     * @param role either <code>SOURCE</code> or <code>DEST</code>
+     * @return the host identifiers in address order
+     */
+    public int[] getSorted(int role) {
+        RoleList list = roles[role];
+        if (list.sorted == null || list.sorted.length != list.size) {
+            list.sorted = sort(list.ids, list.size);
+        }
+        return list.sorted;
+    }
+
+    private int[] sort(int[] ids, int count) {
+        long[] keys = new long[count];
+        int keyCount = 0;
+        ArrayList<String> others = new ArrayList<String>();
+        for (int i = 0; i < count; i++) {
+            int id = ids[i];
+            if (validIpv4[id]) {
+                keys[keyCount++] = (Integer.toUnsignedLong(ipv4[id]) << 31) | id;
+            } else {
+                others.add(addrs[id]);
+            }
+        }
+        Arrays.sort(keys, 0, keyCount);
+        others.sort(null);
+        int[] sorted = new int[count];
+        int next = 0;
+        for (String addr : others) {
+            sorted[next++] = find(addr);
+        }
+        for (int i = 0; i < keyCount; i++) {
+            sorted[next++] = (int) (keys[i] & Integer.MAX_VALUE);
+        }
+        return sorted;
+    }
+
+    /**
+     * Gets the addresses of the given hosts.
+     * @param ids the host identifiers
+     * @return a new list of <code>String</code> IP addresses in the same order
+     */
+    public ArrayList<String> getAddrs(int[] ids) {
+        ArrayList<String> list = new ArrayList<String>(ids.length);
+        for (int id : ids) {
+            list.add(addrs[id]);
+        }
+        return list;
+    }
+
+    /**
+     * Interns every host of another dictionary into this one and appends the roles it recorded after the
+     * roles already recorded here, so that first-seen order is preserved when the other dictionary describes
+     * a later part of the same trace.
+     * @param later the <code>HostDictionary</code> to merge in
+     * @return a table mapping each identifier of <code>later</code> to its identifier in this dictionary
+     */
+    public int[] merge(HostDictionary later) {
+        int[] idMap = new int[later.size];
+        for (int id = 0; id < later.size; id++) {
+            idMap[id] = intern(later.addrs[id]);
+        }
+        for (int role = 0; role < roles.length; role++) {
+            RoleList list = later.roles[role];
+            for (int i = 0; i < list.size; i++) {
+                addRole(idMap[list.ids[i]], role);
+            }
+        }
+        return idMap;
+    }
+
+    private static class RoleList {
+        private int[] ids = new int[INITIAL_CAPACITY];
+        private int size;
+        private boolean[] members = new boolean[INITIAL_CAPACITY];
+        private int[] sorted;
+
+        private boolean add(int id) {
+            if (id >= members.length) {
+                members = Arrays.copyOf(members, Math.max(id + 1, members.length * 2));
+            }
+            if (members[id]) {
+                return false;
+            }
+            members[id] = true;
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = id;
+            return true;
+        }
+
+        private boolean contains(int id) {
+            return id < members.length && members[id];
+        }
+    }
+}
@@ -0,0 +1,132 @@
+import java.util.Arrays;
+
+/**
+ * Records, for every host of a trace, the file offsets of the lines it appears in, so that a host's series can be
+ * built later by reading only those lines. Each host's offsets are kept in ascending order in a block of bytes of
+ * its own, as the variable length encoding of the gap from the previous offset, seven bits to a byte. Lines a
+ * host appears in tend to be close together, so most offsets take one to three bytes instead of eight.
+ * @author Michael Johnson
+ */
+public class HostOffsets {
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int MIN_BLOCK_SIZE = 16;
+    private static final int OBJECT_HEADER = 16;
+    private static final int ARRAY_HEADER = 16;
+    private static final int REFERENCE_BYTES = 4;
+    private byte[][] blocks = new byte[INITIAL_CAPACITY][];
+    private int[] lengths = new int[INITIAL_CAPACITY];
+    private int[] counts = new int[INITIAL_CAPACITY];
+    private long[] lastOffsets = new long[INITIAL_CAPACITY];
+
+    /**
+     * Constructs an empty <code>HostOffsets</code> object.
+     */
+    public HostOffsets() {
+    }
+
+    /**
+     * Records a line a host appears in. Offsets must be added to each host in ascending order.
+     * @param hostId    the host identifier
+     * @param offset    the offset of the first byte of the line
+     */
+    public void add(int hostId, long offset) {
+        if (hostId >= blocks.length) {
+            int capacity = Math.max(hostId + 1, blocks.length * 2);
+            blocks = Arrays.copyOf(blocks, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+            lastOffsets = Arrays.copyOf(lastOffsets, capacity);
+        }
+        byte[] block = blocks[hostId];
+        int length = lengths[hostId];
+        if (block == null || block.length - length < Long.BYTES + 2) {
+            block = block == null ? new byte[MIN_BLOCK_SIZE] : Arrays.copyOf(block, block.length * 2);
+            blocks[hostId] = block;
+        }
+        long gap = offset - lastOffsets[hostId];
+        while ((gap & ~0x7FL) != 0) {
+            block[length++] = (byte) ((gap & 0x7F) | 0x80);
+            gap >>>= 7;
+        }
+        block[length++] = (byte) gap;
+        lengths[hostId] = length;
+        lastOffsets[hostId] = offset;
+        counts[hostId]++;
+    }
+
+    /**
+     * Gets the number of lines recorded for a host.
+     * @param hostId the host identifier
+     * @return the line count, or 0 if the host has none
+     */
+    public int getCount(int hostId) {
+        return hostId < counts.length ? counts[hostId] : 0;
+    }
+
+    /**
+     * Estimates the heap taken by the recorded offsets.
+     * @return the estimated size in bytes
+     */
+    public long estimateHeapBytes() {
+        long size = OBJECT_HEADER + REFERENCE_BYTES * 4 + ARRAY_HEADER * 4L
+                + (long) blocks.length * (REFERENCE_BYTES + Integer.BYTES * 2 + Long.BYTES);
+        for (byte[] block : blocks) {
+            if (block != null) {
+                size += ARRAY_HEADER + block.length;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Creates a cursor positioned before the first line of a host.
+     * @param hostId the host identifier
+     * @return a new <code>Cursor</code>
+     */
+    public Cursor cursor(int hostId) {
+        return new Cursor(hostId);
+    }
+
+    /**
+     * Walks the line offsets of one host in ascending order, decoding them as it goes.
+     */
+    public class Cursor {
+        private final byte[] block;
+        private final int length;
+        private int position;
+        private long offset;
+
+        private Cursor(int hostId) {
+            block = hostId < blocks.length ? blocks[hostId] : null;
+            length = hostId < lengths.length ? lengths[hostId] : 0;
+        }
+
+        /**
+         * Moves the cursor to the next line.
+         * @return true if the cursor is on a line, false once every line has been visited
+         */
+        public boolean next() {
+            if (position >= length) {
+                return false;
+            }
+            long gap = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = block[position++];
+                gap |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            offset += gap;
+            return true;
+        }
+
+        /**
+         * Gets the offset of the current line.
+         * @return the offset of the first byte of the line
+         */
+        public long getOffset() {
+            return offset;
+        }
+    }
+}
@@ -0,0 +1,316 @@
+/**
+ * Holds the number of bytes a host transmitted over the course of a trace as a pyramid of
+ * <code>SeriesLevel</code>s, pre-aggregated into 1 ms, 10 ms, 100 ms, 1 s, 10 s and 60 s bins as
+ * packets are added so that a graph of any time span can be drawn from the level whose bins best
+ * match its pixel width. Packet times are kept to the microsecond, and the per-second methods read
+ * the 1 s level.
+ * @author Michael Johnson
+ */
+public class HostSeries implements SeriesView {
+    private static final long[] BIN_WIDTHS = {1000L, 10000L, 100000L, 1000000L, 10000000L, 60000000L};
+    static final int SECOND_LEVEL = 3;
+    private SeriesLevel[] levels = new SeriesLevel[BIN_WIDTHS.length];
+    private boolean empty = true;
+    private long firstTime;
+    private long lastTime;
+    private long changedFrom = Long.MAX_VALUE;
+
+    /**
+     * Constructs an empty <code>HostSeries</code> object.
+     */
+    public HostSeries() {
+        for (int i = 0; i < levels.length; i++) {
+            levels[i] = new SeriesLevel(BIN_WIDTHS[i]);
+        }
+    }
+
+    /**
+     * Constructs a <code>HostSeries</code> object from levels that were aggregated elsewhere, such as levels read
+     * back from a <code>TraceIndex</code>.
+     * @param levels    one <code>SeriesLevel</code> for each bin width, from finest to coarsest
+     * @param firstTime the time stamp of the earliest packet in microseconds
+     * @param lastTime  the time stamp of the latest packet in microseconds
+     */
+    HostSeries(SeriesLevel[] levels, long firstTime, long lastTime) {
+        this.levels = levels;
+        this.firstTime = firstTime;
+        this.lastTime = lastTime;
+        empty = false;
+    }
+
+    /**
+     * Gets the bin widths of the levels every series is aggregated into.
+     * @return the bin widths in microseconds, from finest to coarsest
+     */
+    public static long[] getBinWidths() {
+        return BIN_WIDTHS.clone();
+    }
+
+    /**
+     * Creates an independent copy of the series, such as for handing a snapshot of a series that is
+     * still being loaded to another thread.
+     * @return a new <code>HostSeries</code> with the same contents
+     */
+    public HostSeries copy() {
+        HostSeries copy = new HostSeries();
+        for (int i = 0; i < levels.length; i++) {
+            copy.levels[i] = levels[i].copy();
+        }
+        copy.empty = empty;
+        copy.firstTime = firstTime;
+        copy.lastTime = lastTime;
+        return copy;
+    }
+
+    /**
+     * Adds a packet's bytes to the bin containing its time stamp at every level.
+     * @param timeMicros    the time stamp in microseconds
+     * @param amount        the number of bytes to add
+     */
+    public void add(long timeMicros, long amount) {
+        for (SeriesLevel level : levels) {
+            level.add(timeMicros / level.getBinWidth(), amount);
+        }
+        if (empty) {
+            firstTime = timeMicros;
+            lastTime = timeMicros;
+            empty = false;
+        }
+        firstTime = Math.min(firstTime, timeMicros);
+        lastTime = Math.max(lastTime, timeMicros);
+        changedFrom = Math.min(changedFrom, timeMicros);
+    }
+
+    /**
+     * Takes back bytes previously added at the given time, such as when a line that was read before it had been
+     * completely written is read again.
+     * @param timeMicros    the time stamp in microseconds
+     * @param amount        the number of bytes to remove
+     */
+    public void remove(long timeMicros, long amount) {
+        for (SeriesLevel level : levels) {
+            level.remove(timeMicros / level.getBinWidth(), amount);
+        }
+        changedFrom = Math.min(changedFrom, timeMicros);
+    }
+
+    /**
+     * Copies every bin that has changed since this was last called, such as for keeping another thread's copy of a
+     * followed series up to date without copying the whole series each time it grows. Changes are only tracked once
+     * per series, so only one copy of a series should be kept up to date this way.
+     * @return a <code>HostSeries</code> holding the current contents of the changed bins, to be passed to
+     *         <code>applyChanges</code>
+     */
+    public HostSeries copyChanges() {
+        HostSeries changes = new HostSeries();
+        if (changedFrom != Long.MAX_VALUE) {
+            for (int i = 0; i < levels.length; i++) {
+                changes.levels[i].addFrom(levels[i], changedFrom / BIN_WIDTHS[i]);
+            }
+        }
+        changes.empty = empty;
+        changes.firstTime = firstTime;
+        changes.lastTime = lastTime;
+        changedFrom = Long.MAX_VALUE;
+        return changes;
+    }
+
+    /**
+     * Brings a copy of a series up to date with bins taken from it by <code>copyChanges</code>. Each changed bin
+     * is set to the contents it was copied with, so changes that overlap ones already applied do no harm.
+     * @param changes the <code>HostSeries</code> returned by <code>copyChanges</code>
+     */
+    public void applyChanges(HostSeries changes) {
+        for (int i = 0; i < levels.length; i++) {
+            levels[i].setAll(changes.levels[i]);
+        }
+        empty = changes.empty;
+        firstTime = changes.firstTime;
+        lastTime = changes.lastTime;
+    }
+
+    /**
+     * Adds every packet of another series to this one, wherever that series is kept.
+     * @param other the <code>SeriesView</code> to merge in
+     */
+    public void addAll(SeriesView other) {
+        if (other.getLevel(levels.length - 1).size() == 0) {
+            return;
+        }
+        for (int i = 0; i < levels.length; i++) {
+            levels[i].addAll(other.getLevel(i));
+        }
+        firstTime = empty ? other.getFirstTime() : Math.min(firstTime, other.getFirstTime());
+        lastTime = empty ? other.getLastTime() : Math.max(lastTime, other.getLastTime());
+        empty = false;
+    }
+
+    /**
+     * Gets the number of levels in the pyramid.
+     * @return the level count
+     */
+    @Override
+    public int getLevelCount() {
+        return levels.length;
+    }
+
+    /**
+     * Gets a level of the pyramid. Levels are ordered from the finest bins to the coarsest.
+     * @param index the level index
+     * @return the <code>SeriesLevel</code> at that index
+     */
+    @Override
+    public SeriesLevel getLevel(int index) {
+        return levels[index];
+    }
+
+    /**
+     * Picks the finest level whose bins are no narrower than a pixel when the given time span is drawn
+     * across the given number of pixels, so that drawing it costs at most about one bin per pixel.
+     * @param spanMicros    the drawn time span in microseconds
+     * @param pixels        the number of pixels the span is drawn across
+     * @return the chosen <code>SeriesLevel</code>, or the coarsest level if none is coarse enough
+     */
+    @Override
+    public SeriesLevel getLevelFor(long spanMicros, int pixels) {
+        for (SeriesLevel level : levels) {
+            if (level.getBinWidth() * Math.max(1, pixels) >= spanMicros) {
+                return level;
+            }
+        }
+        return levels[levels.length - 1];
+    }
+
+    /**
+     * Gets the time stamp of the earliest packet in the series.
+     * @return the first time stamp in microseconds
+     */
+    @Override
+    public long getFirstTime() {
+        return firstTime;
+    }
+
+    /**
+     * Gets the time stamp of the latest packet in the series.
+     * @return the last time stamp in microseconds
+     */
+    @Override
+    public long getLastTime() {
+        return lastTime;
+    }
+
+    /**
+     * Gets the number of one second slots in the series. Slots are in ascending order of second, and
+     * may include seconds in which the host sent nothing.
+     * @return the number of slots
+     */
+    @Override
+    public int size() {
+        return levels[SECOND_LEVEL].size();
+    }
+
+    /**
+     * Gets the second of a slot.
+     * @param index the slot index
+     * @return the time stamp in seconds
+     */
+    @Override
+    public int getSecond(int index) {
+        return toSecond(levels[SECOND_LEVEL].getBin(index));
+    }
+
+    /**
+     * Gets the number of bytes in a slot.
+     * @param index the slot index
+     * @return the number of bytes
+     */
+    @Override
+    public long getBytes(int index) {
+        return levels[SECOND_LEVEL].getBytes(index);
+    }
+
+    /**
+     * Gets the number of bytes transmitted in the given second.
+     * @param second the time stamp in seconds
+     * @return the number of bytes, or 0 if the host sent nothing in that second
+     */
+    @Override
+    public long getBytesAt(int second) {
+        return levels[SECOND_LEVEL].getBytesAt(second);
+    }
+
+    /**
+     * Gets the earliest second in the series.
+     * @return the first time stamp in seconds
+     */
+    @Override
+    public int getFirstSecond() {
+        return toSecond(levels[SECOND_LEVEL].getFirstBin());
+    }
+
+    /**
+     * Gets the latest second in the series.
+     * @return the last time stamp in seconds
+     */
+    @Override
+    public int getLastSecond() {
+        return toSecond(levels[SECOND_LEVEL].getLastBin());
+    }
+
+    private static int toSecond(long bin) {
+        return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, bin));
+    }
+
+    /**
+     * Gets the highest number of bytes transmitted in any one second.
+     * @return the maximum bytes per second
+     */
+    @Override
+    public long getMaxBytes() {
+        return levels[SECOND_LEVEL].getMaxBytes();
+    }
+
+    /**
+     * Gets the total number of bytes in the series.
+     * @return the total volume of bytes
+     */
+    @Override
+    public long getTotalBytes() {
+        return levels[SECOND_LEVEL].getTotalBytes();
+    }
+
+    /**
+     * Estimates the heap taken by the series and all of its levels.
+     * @return the estimated size in bytes
+     */
+    public long estimateHeapBytes() {
+        long size = 0;
+        for (SeriesLevel level : levels) {
+            size += level.estimateHeapBytes();
+        }
+        return size;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof HostSeries)) {
+            return false;
+        }
+        HostSeries other = (HostSeries) obj;
+        for (int i = 0; i < levels.length; i++) {
+            if (!levels[i].equals(other.levels[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 1;
+        for (SeriesLevel level : levels) {
+            hash = 31 * hash + level.hashCode();
+        }
+        return hash;
+    }
+}
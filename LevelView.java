@@ -0,0 +1,93 @@
+/**
+ * A read-only view of one level of a host's series, holding the bytes the host transmitted in each fixed width
+ * time bin. Slots are in ascending order of bin, and a level may have slots for empty bins. Implemented on the
+ * heap by <code>SeriesLevel</code> and off it by <code>OffHeapLevel</code>.
+ * @author Michael Johnson
+ */
+public interface LevelView {
+    /**
+     * Gets the width of each bin of the level.
+     * @return the bin width in microseconds
+     */
+    long getBinWidth();
+
+    /**
+     * Gets the number of slots in the level.
+     * @return the number of slots
+     */
+    int size();
+
+    /**
+     * Gets the bin of a slot.
+     * @param index the slot index
+     * @return the bin number
+     */
+    long getBin(int index);
+
+    /**
+     * Gets the number of bytes in a slot.
+     * @param index the slot index
+     * @return the number of bytes
+     */
+    long getBytes(int index);
+
+    /**
+     * Gets the number of bytes transmitted in the given bin.
+     * @param bin the bin number
+     * @return the number of bytes, or 0 if the host sent nothing in that bin
+     */
+    long getBytesAt(long bin);
+
+    /**
+     * Finds the first slot whose bin is not before the given bin.
+     * @param bin the bin number
+     * @return the slot index, which is <code>size()</code> if every bin is before the given bin
+     */
+    int ceilingIndex(long bin);
+
+    /**
+     * Gets the total number of bytes in the bins <code>[fromBin, toBin)</code>.
+     * @param fromBin   the first bin of the range
+     * @param toBin     the end of the range, exclusive
+     * @return the total volume of bytes in the range
+     */
+    long getTotalBytes(long fromBin, long toBin);
+
+    /**
+     * Gets the highest number of bytes in any one of the bins <code>[fromBin, toBin)</code>.
+     * @param fromBin   the first bin of the range
+     * @param toBin     the end of the range, exclusive
+     * @return the maximum bytes per bin in the range, or 0 if the range is empty
+     */
+    long getMaxBytes(long fromBin, long toBin);
+
+    /**
+     * Gets the earliest bin in the level.
+     * @return the first bin number
+     */
+    long getFirstBin();
+
+    /**
+     * Gets the latest bin in the level.
+     * @return the last bin number
+     */
+    long getLastBin();
+
+    /**
+     * Gets the highest number of bytes transmitted in any one bin.
+     * @return the maximum bytes per bin
+     */
+    long getMaxBytes();
+
+    /**
+     * Gets the total number of bytes in the level.
+     * @return the total volume of bytes
+     */
+    long getTotalBytes();
+
+    /**
+     * Checks whether the level only has slots for the bins the host sent something in.
+     * @return true if the level is stored sparsely
+     */
+    boolean isSparse();
+}
@@ -0,0 +1,589 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads a tab separated trace file through a memory-mapped view of the file and decodes the
+ * time stamp, source address, destination address and packet size columns directly from the
+ * mapped bytes. Numeric columns are decoded in place and addresses are interned straight from the
+ * mapped bytes into a <code>HostDictionary</code>, so each distinct address is turned into a
+ * <code>String</code> only once and parsing a line allocates nothing.
+ * <p>
+ * Empty fields follow the same rule as <code>TraceFile</code>'s line parser, where every pair
+ * of adjacent tabs is read as <code>"\t0\t"</code>.
+ * @author Michael Johnson
+ */
+public class MappedTraceParser {
+    private static final long MAP_WINDOW = 256L * 1024 * 1024;
+    private static final int TIME_COLUMN = 1;
+    private static final int SOURCE_COLUMN = 2;
+    private static final int DEST_COLUMN = 4;
+    private static final int SIZE_COLUMN = 7;
+    private static final int MAX_WHOLE_DIGITS = 18;
+    private static final int MICRO_DIGITS = 6;
+    private static final long MICROS_PER_SECOND = 1000000L;
+    private ByteBuffer buffer;
+    private long windowOffset;
+    private int currentLineStart;
+    private int timeStamp;
+    private long timeMicros;
+    private int pktSize;
+    private int sourceStart;
+    private int sourceEnd;
+    private boolean sourceZero;
+    private int destStart;
+    private int destEnd;
+    private boolean destZero;
+    private long malformedLines;
+    private long filteredLines;
+    private TraceFilter filter;
+    private ProgressHandler progress;
+    private long progressInterval;
+    private HostDictionary hosts;
+
+    /**
+     * Receives each decoded line of a trace file. The parser's getters describe the current line
+     * only for the duration of the call.
+     */
+    public interface RecordHandler {
+        void handleRecord(MappedTraceParser parser);
+    }
+
+    /**
+     * Receives the progress of a parse through a file channel, in file offsets after the last line parsed. A handler
+     * may stop the parse by throwing an unchecked exception, which is passed on to the caller.
+     */
+    public interface ProgressHandler {
+        void progressMade(long position);
+    }
+
+    /**
+     * Constructs a <code>MappedTraceParser</code> object with an empty host dictionary.
+     */
+    public MappedTraceParser() {
+        this(new HostDictionary());
+    }
+
+    /**
+     * Constructs a <code>MappedTraceParser</code> object that interns addresses into the given dictionary.
+     * @param hosts the <code>HostDictionary</code> to intern addresses into
+     */
+    public MappedTraceParser(HostDictionary hosts) {
+        this.hosts = hosts;
+    }
+
+    /**
+     * Sets a filter that every decoded line must pass before it is handed to the handler. Lines are tested on
+     * their decoded time stamp and size and the raw bytes of their addresses, so a rejected line's addresses are
+     * never interned.
+     * @param filter the <code>TraceFilter</code> to apply, or null to pass every line
+     */
+    public void setFilter(TraceFilter filter) {
+        this.filter = filter;
+    }
+
+    /**
+     * Sets a handler that is told how far a parse through a file channel has got each time roughly the given number
+     * of bytes have been parsed. Progress is reported from within each mapped window, so the window size does not
+     * depend on how often progress is wanted.
+     * @param progress  the <code>ProgressHandler</code> to report to, or null to report nothing
+     * @param interval  the number of bytes between reports
+     */
+    public void setProgressHandler(ProgressHandler progress, long interval) {
+        this.progress = progress;
+        this.progressInterval = Math.max(1, interval);
+    }
+
+    /**
+     * Maps the given file window by window and passes every well formed line to the handler.
+     * @param file      the trace file to read
+     * @param handler   the <code>RecordHandler</code> that receives each line
+     * @throws IOException if the file cannot be mapped
+     */
+    public void parse(File file, RecordHandler handler) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            parse(channel, 0, channel.size(), handler);
+        }
+    }
+
+    /**
+     * Parses the lines of the channel that start within the byte range <code>[start, end)</code>.
+     * The start of the range must be the first byte of a line.
+     * @param channel   the open trace file channel
+     * @param start     the first byte of the range
+     * @param end       the end of the range, exclusive
+     * @param handler   the <code>RecordHandler</code> that receives each line
+     * @return the offset after the last line parsed, which is where the next range should start
+     * @throws IOException if the range cannot be mapped
+     */
+    public long parse(FileChannel channel, long start, long end, RecordHandler handler) throws IOException {
+        return parse(channel, start, end, true, handler);
+    }
+
+    /**
+     * Parses the lines of the channel that start within the byte range <code>[start, end)</code>, optionally
+     * leaving a final line that has no terminator yet unparsed, as it may still be being written.
+     * @param channel               the open trace file channel
+     * @param start                 the first byte of the range
+     * @param end                   the end of the range, exclusive
+     * @param parseUnterminated     whether a final line without a terminator should be parsed
+     * @param handler               the <code>RecordHandler</code> that receives each line
+     * @return the offset after the last line parsed, which is where the next range should start
+     * @throws IOException if the range cannot be mapped
+     */
+    public long parse(FileChannel channel, long start, long end, boolean parseUnterminated, RecordHandler handler) throws IOException {
+        return parse(channel, start, end, channel.size(), parseUnterminated, handler);
+    }
+
+    /**
+     * Parses the lines of the channel that start within the byte range <code>[start, end)</code> as though the
+     * file ended at <code>end</code>, so that a line running past it is cut off there rather than read up to its
+     * terminator. This reads the lines exactly as they were when the file was only <code>end</code> bytes long,
+     * even if it has grown since.
+     * @param channel               the open trace file channel
+     * @param start                 the first byte of the range
+     * @param end                   the end of the range and of the data, exclusive, no larger than the file
+     * @param parseUnterminated     whether a final line cut off at <code>end</code> should be parsed
+     * @param handler               the <code>RecordHandler</code> that receives each line
+     * @return the offset after the last line parsed
+     * @throws IOException if the range cannot be mapped
+     */
+    public long parseBounded(FileChannel channel, long start, long end, boolean parseUnterminated, RecordHandler handler) throws IOException {
+        return parseBounded(channel, start, end, end, parseUnterminated, handler);
+    }
+
+    /**
+     * Parses the lines of the channel that start within the byte range <code>[start, end)</code> as though the
+     * file ended at <code>dataEnd</code>. A line that starts within the range is read up to its terminator, but
+     * never past <code>dataEnd</code>, so a range can be read in steps without seeing bytes written after the
+     * file's size was taken.
+     * @param channel               the open trace file channel
+     * @param start                 the first byte of the range
+     * @param end                   the end of the range, exclusive
+     * @param dataEnd               the end of the data, no smaller than <code>end</code>
+     * @param parseUnterminated     whether a final line cut off at <code>dataEnd</code> should be parsed
+     * @param handler               the <code>RecordHandler</code> that receives each line
+     * @return the offset after the last line parsed, which is where the next range should start
+     * @throws IOException if the range cannot be mapped
+     */
+    public long parseBounded(FileChannel channel, long start, long end, long dataEnd, boolean parseUnterminated, RecordHandler handler) throws IOException {
+        return parse(channel, start, end, Math.min(dataEnd, channel.size()), parseUnterminated, handler);
+    }
+
+    private long parse(FileChannel channel, long start, long end, long fileSize, boolean parseUnterminated, RecordHandler handler) throws IOException {
+        long position = start;
+        while (position < end) {
+            long length = Math.min(MAP_WINDOW, fileSize - position);
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            boolean lastWindow = position + length >= fileSize;
+            int limit = (int) Math.min(length, end - position);
+            windowOffset = position;
+            int consumed = 0;
+            while (consumed < limit) {
+                int to = progress == null ? limit : (int) Math.min(limit, consumed + progressInterval);
+                int step = parse(window, consumed, to, lastWindow && parseUnterminated, handler);
+                if (step == 0) {
+                    break;
+                }
+                consumed += step;
+                if (progress != null) {
+                    progress.progressMade(position + consumed);
+                }
+            }
+            if (consumed == 0) {
+                if (lastWindow) {
+                    break;
+                }
+                throw new IOException("Trace line at offset " + position + " is longer than the map window");
+            }
+            position += consumed;
+        }
+        windowOffset = 0;
+        return position;
+    }
+
+    /**
+     * Parses the lines of the buffer that start within <code>[from, to)</code>. A line that starts
+     * before <code>to</code> is read up to its terminator even when that lies beyond <code>to</code>.
+     * @param buf       the buffer holding trace text
+     * @param from      the index of the first byte of a line
+     * @param to        the end of the range, exclusive
+     * @param complete  whether the buffer ends on a line boundary, so that an unterminated final line may be parsed
+     * @param handler   the <code>RecordHandler</code> that receives each line
+     * @return the number of bytes consumed, which stops short of an unterminated final line when <code>complete</code> is false
+     */
+    public int parse(ByteBuffer buf, int from, int to, boolean complete, RecordHandler handler) {
+        buffer = buf;
+        int capacity = buf.limit();
+        int lineStart = from;
+        while (lineStart < to) {
+            int lineEnd = lineStart;
+            while (lineEnd < capacity) {
+                byte b = buf.get(lineEnd);
+                if (b == '\n' || b == '\r') {
+                    break;
+                }
+                lineEnd++;
+            }
+            if (lineEnd == capacity && !complete) {
+                break;
+            }
+            if (lineEnd > lineStart) {
+                currentLineStart = lineStart;
+                if (decodeLine(lineStart, lineEnd)) {
+                    if (filter == null || filter.accept(this)) {
+                        handler.handleRecord(this);
+                    } else {
+                        filteredLines++;
+                    }
+                } else {
+                    malformedLines++;
+                }
+            }
+            int next = lineEnd + 1;
+            if (lineEnd < capacity && buf.get(lineEnd) == '\r' && next < capacity && buf.get(next) == '\n') {
+                next++;
+            }
+            lineStart = Math.min(next, capacity);
+        }
+        buffer = null;
+        return lineStart - from;
+    }
+
+    private boolean decodeLine(int lineStart, int lineEnd) {
+        int column = 0;
+        int fieldStart = lineStart;
+        int lastTab = -2;
+        boolean lastTabPaired = false;
+        boolean haveTime = false;
+        boolean haveSource = false;
+        boolean haveDest = false;
+        for (int i = lineStart; i <= lineEnd && column <= SIZE_COLUMN; i++) {
+            if (i < lineEnd && buffer.get(i) != '\t') {
+                continue;
+            }
+            boolean zero = false;
+            if (i < lineEnd) {
+                zero = i == lastTab + 1 && !lastTabPaired;
+                lastTabPaired = zero;
+                lastTab = i;
+            } else if (i == fieldStart) {
+                // split() drops trailing empty fields
+                return false;
+            }
+            switch (column) {
+                case TIME_COLUMN:
+                    haveTime = zero ? setTimeStampZero() : decodeTimeStamp(fieldStart, i);
+                    if (!haveTime) {
+                        return false;
+                    }
+                    break;
+                case SOURCE_COLUMN:
+                    sourceStart = fieldStart;
+                    sourceEnd = i;
+                    sourceZero = zero || (i - fieldStart == 1 && buffer.get(fieldStart) == '0');
+                    haveSource = true;
+                    break;
+                case DEST_COLUMN:
+                    destStart = fieldStart;
+                    destEnd = i;
+                    destZero = zero || (i - fieldStart == 1 && buffer.get(fieldStart) == '0');
+                    haveDest = true;
+                    break;
+                case SIZE_COLUMN:
+                    if (zero) {
+                        pktSize = 0;
+                        return haveTime && haveSource && haveDest;
+                    }
+                    return haveTime && haveSource && haveDest && decodePacketSize(fieldStart, i);
+                default:
+                    break;
+            }
+            column++;
+            fieldStart = i + 1;
+        }
+        return false;
+    }
+
+    private boolean setTimeStampZero() {
+        timeStamp = 0;
+        timeMicros = 0;
+        return true;
+    }
+
+    /**
+     * Decodes a time stamp of whole seconds and up to six decimal places exactly, however many digits it has in
+     * all, which covers microsecond epoch times. Only an exponent, a finer fraction, which has to be truncated as
+     * its <code>double</code> value would be, or a value out of range falls back to parsing the text as a
+     * <code>double</code>.
+     */
+    private boolean decodeTimeStamp(int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+            negative = buffer.get(i) == '-';
+            i++;
+        }
+        int digitStart = i;
+        long whole = 0;
+        int wholeDigits = 0;
+        while (i < end && isDigit(buffer.get(i)) && wholeDigits <= MAX_WHOLE_DIGITS) {
+            whole = whole * 10 + (buffer.get(i) - '0');
+            if (whole != 0) {
+                wholeDigits++;
+            }
+            i++;
+        }
+        boolean anyDigit = i > digitStart;
+        long fraction = 0;
+        int fractionDigits = 0;
+        if (i < end && buffer.get(i) == '.') {
+            i++;
+            while (i < end && isDigit(buffer.get(i)) && fractionDigits <= MICRO_DIGITS) {
+                fraction = fraction * 10 + (buffer.get(i) - '0');
+                fractionDigits++;
+                anyDigit = true;
+                i++;
+            }
+        }
+        if (i != end || !anyDigit || wholeDigits > MAX_WHOLE_DIGITS || fractionDigits > MICRO_DIGITS || whole > Long.MAX_VALUE / MICROS_PER_SECOND) {
+            return decodeTimeStampSlowly(start, end);
+        }
+        for (; fractionDigits < MICRO_DIGITS; fractionDigits++) {
+            fraction *= 10;
+        }
+        timeMicros = whole * MICROS_PER_SECOND + fraction;
+        whole = negative ? -whole : whole;
+        timeMicros = negative ? -timeMicros : timeMicros;
+        timeStamp = (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, whole));
+        return true;
+    }
+
+    private boolean decodeTimeStampSlowly(int start, int end) {
+        try {
+            double seconds = Double.parseDouble(decodeAscii(start, end));
+            timeStamp = Double.valueOf(seconds).intValue();
+            timeMicros = toMicros(seconds);
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Converts a time stamp in seconds to whole microseconds, truncating towards zero in the same way as
+     * the decimal text the value was parsed from would be truncated, and clamping values out of range.
+     * @param seconds the time stamp in seconds
+     * @return the time stamp in microseconds
+     */
+    public static long toMicros(double seconds) {
+        if (Double.isNaN(seconds)) {
+            return 0;
+        }
+        if (Math.abs(seconds) >= Long.MAX_VALUE / MICROS_PER_SECOND) {
+            return seconds < 0 ? Long.MIN_VALUE : Long.MAX_VALUE;
+        }
+        return new BigDecimal(Double.toString(seconds)).movePointRight(MICRO_DIGITS).longValue();
+    }
+
+    private boolean decodePacketSize(int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+            negative = buffer.get(i) == '-';
+            i++;
+        }
+        if (i == end) {
+            return false;
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            byte b = buffer.get(i);
+            if (!isDigit(b)) {
+                return false;
+            }
+            value = value * 10 + (b - '0');
+            if (value > Integer.MAX_VALUE + 1L) {
+                return false;
+            }
+        }
+        value = negative ? -value : value;
+        if (value > Integer.MAX_VALUE) {
+            return false;
+        }
+        pktSize = (int) value;
+        return true;
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    private String decodeAscii(int start, int end) {
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(start + i);
+        }
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Gets the time stamp of the current line truncated to whole seconds.
+     * @return the time stamp in seconds
+     */
+    public int getTimeStamp() {
+        return timeStamp;
+    }
+
+    /**
+     * Gets the full precision time stamp of the current line.
+     * @return the time stamp in microseconds, truncated to whole microseconds
+     */
+    public long getTimeMicros() {
+        return timeMicros;
+    }
+
+    /**
+     * Gets the offset of the first byte of the current line. When parsing a file this is the offset within the
+     * file, otherwise it is the index within the buffer being parsed.
+     * @return the offset of the current line
+     */
+    public long getLineOffset() {
+        return windowOffset + currentLineStart;
+    }
+
+    /**
+     * Gets the packet size of the current line.
+     * @return the packet size in bytes
+     */
+    public int getPacketSize() {
+        return pktSize;
+    }
+
+    /**
+     * Checks whether the source address of the current line reads as <code>"0"</code>.
+     * @return true if the source address is zero or empty
+     */
+    public boolean isSourceZero() {
+        return sourceZero;
+    }
+
+    /**
+     * Checks whether the destination address of the current line reads as <code>"0"</code>.
+     * @return true if the destination address is zero or empty
+     */
+    public boolean isDestZero() {
+        return destZero;
+    }
+
+    /**
+     * Gets the buffer holding the current line, so that its addresses can be read without interning them.
+     * @return the buffer being parsed
+     */
+    public ByteBuffer getLineBuffer() {
+        return buffer;
+    }
+
+    /**
+     * Gets the index of the first byte of the source address of the current line within the line buffer.
+     * @return the start of the source address
+     */
+    public int getSourceStart() {
+        return sourceStart;
+    }
+
+    /**
+     * Gets the index after the last byte of the source address of the current line within the line buffer.
+     * @return the end of the source address
+     */
+    public int getSourceEnd() {
+        return sourceEnd;
+    }
+
+    /**
+     * Gets the index of the first byte of the destination address of the current line within the line buffer.
+     * @return the start of the destination address
+     */
+    public int getDestStart() {
+        return destStart;
+    }
+
+    /**
+     * Gets the index after the last byte of the destination address of the current line within the line buffer.
+     * @return the end of the destination address
+     */
+    public int getDestEnd() {
+        return destEnd;
+    }
+
+    /**
+     * Reads the source address of the current line as an IPv4 address without interning it.
+     * @return the unsigned address, or -1 if the address is not a dotted quad
+     */
+    public long getSourceIpv4() {
+        return sourceZero ? -1 : HostDictionary.parseIpv4(buffer, sourceStart, sourceEnd);
+    }
+
+    /**
+     * Reads the destination address of the current line as an IPv4 address without interning it.
+     * @return the unsigned address, or -1 if the address is not a dotted quad
+     */
+    public long getDestIpv4() {
+        return destZero ? -1 : HostDictionary.parseIpv4(buffer, destStart, destEnd);
+    }
+
+    /**
+     * Interns the source address of the current line.
+     * @return the source host identifier
+     */
+    public int getSourceId() {
+        return sourceZero ? hosts.intern("0") : hosts.intern(buffer, sourceStart, sourceEnd);
+    }
+
+    /**
+     * Interns the destination address of the current line.
+     * @return the destination host identifier
+     */
+    public int getDestId() {
+        return destZero ? hosts.intern("0") : hosts.intern(buffer, destStart, destEnd);
+    }
+
+    /**
+     * Gets the source address of the current line. The same <code>String</code> instance is
+     * returned every time an address is seen.
+     * @return the source host IP address
+     */
+    public String getSourceAddr() {
+        return hosts.getAddr(getSourceId());
+    }
+
+    /**
+     * Gets the destination address of the current line. The same <code>String</code> instance is
+     * returned every time an address is seen.
+     * @return the destination host IP address
+     */
+    public String getDestAddr() {
+        return hosts.getAddr(getDestId());
+    }
+
+    /**
+     * Gets the number of non-empty lines that could not be decoded and were skipped.
+     * @return the number of malformed lines
+     */
+    public long getMalformedLines() {
+        return malformedLines;
+    }
+
+    /**
+     * Gets the number of well formed lines that the filter rejected.
+     * @return the number of filtered lines
+     */
+    public long getFilteredLines() {
+        return filteredLines;
+    }
+}
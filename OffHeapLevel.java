@@ -0,0 +1,254 @@
+/**
+ * Reads a finished <code>SeriesLevel</code> that has been written into a <code>SeriesStore</code>. The level's
+ * bins and bytes stay in the store, along with the sum of every block of 64 slots and a sparse table of block
+ * maxima, so totals and maxima over a range of bins are answered by scanning at most two partial blocks. The
+ * <code>OffHeapLevel</code> itself is only a handle holding the level's address and shape.
+ * @author Michael Johnson
+ */
+public class OffHeapLevel implements LevelView {
+    private static final int BLOCK_SHIFT = 6;
+    private static final int BIN_WIDTH = 0;
+    private static final int SIZE = 8;
+    private static final int SPARSE = 16;
+    private static final int BASE = 24;
+    private static final int FIRST_BIN = 32;
+    private static final int LAST_BIN = 40;
+    private static final int MAX_BYTES = 48;
+    private static final int TOTAL_BYTES = 56;
+    private static final int HEADER_SIZE = 64;
+    private final SeriesStore store;
+    private final long address;
+    private final long binWidth;
+    private final int size;
+    private final boolean sparse;
+    private final long base;
+    private final long binsAt;
+    private final long bytesAt;
+    private final long blockSumsAt;
+    private final long blockMaxAt;
+
+    /**
+     * Constructs an <code>OffHeapLevel</code> object for a level already written into a store.
+     * @param store     the <code>SeriesStore</code> holding the level
+     * @param address   the address returned by <code>write</code>
+     */
+    public OffHeapLevel(SeriesStore store, long address) {
+        this.store = store;
+        this.address = address;
+        binWidth = store.getLong(address + BIN_WIDTH);
+        size = (int) store.getLong(address + SIZE);
+        sparse = store.getLong(address + SPARSE) != 0;
+        base = store.getLong(address + BASE);
+        binsAt = address + HEADER_SIZE;
+        bytesAt = binsAt + (sparse ? (long) Long.BYTES * size : 0);
+        blockSumsAt = bytesAt + (long) Long.BYTES * size;
+        blockMaxAt = blockSumsAt + (long) Long.BYTES * (blockCount(size) + 1);
+    }
+
+    /**
+     * Writes a level into a store, along with the block sums and maxima that range queries are answered from.
+     * @param store the <code>SeriesStore</code> to write into
+     * @param level the <code>LevelView</code> to copy
+     * @return the address of the written level
+     */
+    public static long write(SeriesStore store, LevelView level) {
+        int n = level.size();
+        boolean sparse = level.isSparse();
+        int blocks = blockCount(n);
+        int rows = rowCount(blocks);
+        long longs = HEADER_SIZE / Long.BYTES + (sparse ? 2L : 1L) * n + blocks + 1 + rowStart(rows, blocks);
+        long address = store.allocate(Long.BYTES * longs);
+        store.putLong(address + BIN_WIDTH, level.getBinWidth());
+        store.putLong(address + SIZE, n);
+        store.putLong(address + SPARSE, sparse ? 1 : 0);
+        store.putLong(address + BASE, n == 0 ? 0 : level.getBin(0));
+        store.putLong(address + FIRST_BIN, level.getFirstBin());
+        store.putLong(address + LAST_BIN, level.getLastBin());
+        store.putLong(address + MAX_BYTES, level.getMaxBytes());
+        store.putLong(address + TOTAL_BYTES, level.getTotalBytes());
+        long at = address + HEADER_SIZE;
+        if (sparse) {
+            for (int i = 0; i < n; i++, at += Long.BYTES) {
+                store.putLong(at, level.getBin(i));
+            }
+        }
+        long sumsAt = at + (long) Long.BYTES * n;
+        long maxAt = sumsAt + (long) Long.BYTES * (blocks + 1);
+        long blockSum = 0;
+        long blockMax = 0;
+        long sum = 0;
+        for (int i = 0; i < n; i++, at += Long.BYTES) {
+            long amount = level.getBytes(i);
+            store.putLong(at, amount);
+            blockSum += amount;
+            blockMax = Math.max(blockMax, amount);
+            if (((i + 1) & ((1 << BLOCK_SHIFT) - 1)) == 0 || i == n - 1) {
+                int block = i >> BLOCK_SHIFT;
+                store.putLong(sumsAt + (long) Long.BYTES * block, sum);
+                store.putLong(maxAt + (long) Long.BYTES * block, blockMax);
+                sum += blockSum;
+                blockSum = 0;
+                blockMax = 0;
+            }
+        }
+        store.putLong(sumsAt + (long) Long.BYTES * blocks, sum);
+        for (int k = 1; k < rows; k++) {
+            long previous = maxAt + (long) Long.BYTES * rowStart(k - 1, blocks);
+            long row = maxAt + (long) Long.BYTES * rowStart(k, blocks);
+            int half = 1 << (k - 1);
+            for (int b = 0; b < blocks - (1 << k) + 1; b++) {
+                store.putLong(row + (long) Long.BYTES * b, Math.max(store.getLong(previous + (long) Long.BYTES * b),
+                        store.getLong(previous + (long) Long.BYTES * (b + half))));
+            }
+        }
+        return address;
+    }
+
+    private static int blockCount(int n) {
+        return (n + (1 << BLOCK_SHIFT) - 1) >> BLOCK_SHIFT;
+    }
+
+    private static int rowCount(int blocks) {
+        return Math.max(1, 32 - Integer.numberOfLeadingZeros(blocks));
+    }
+
+    /**
+     * Gets the offset of a row of the block maxima table, whose row <code>k</code> holds the maximum of each run of
+     * <code>2^k</code> blocks and so is <code>2^k - 1</code> entries shorter than the number of blocks.
+     */
+    private static long rowStart(int k, int blocks) {
+        return (long) k * (blocks + 1) - ((1L << k) - 1);
+    }
+
+    /**
+     * Gets the address the level was written at.
+     * @return the address within its <code>SeriesStore</code>
+     */
+    public long getAddress() {
+        return address;
+    }
+
+    @Override
+    public long getBinWidth() {
+        return binWidth;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public long getBin(int index) {
+        return sparse ? store.getLong(binsAt + (long) Long.BYTES * index) : base + index;
+    }
+
+    @Override
+    public long getBytes(int index) {
+        return store.getLong(bytesAt + (long) Long.BYTES * index);
+    }
+
+    @Override
+    public long getBytesAt(long bin) {
+        int index = ceilingIndex(bin);
+        return index < size && getBin(index) == bin ? getBytes(index) : 0;
+    }
+
+    @Override
+    public int ceilingIndex(long bin) {
+        if (!sparse) {
+            return (int) Math.max(0, Math.min(size, bin - base));
+        }
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (store.getLong(binsAt + (long) Long.BYTES * mid) < bin) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    @Override
+    public long getTotalBytes(long fromBin, long toBin) {
+        int from = ceilingIndex(fromBin);
+        int to = ceilingIndex(toBin);
+        if (from >= to) {
+            return 0;
+        }
+        int firstBlock = from >> BLOCK_SHIFT;
+        int lastBlock = (to - 1) >> BLOCK_SHIFT;
+        if (firstBlock == lastBlock) {
+            return scanSum(from, to);
+        }
+        long middle = store.getLong(blockSumsAt + (long) Long.BYTES * lastBlock) - store.getLong(blockSumsAt + (long) Long.BYTES * (firstBlock + 1));
+        return scanSum(from, (firstBlock + 1) << BLOCK_SHIFT) + middle + scanSum(lastBlock << BLOCK_SHIFT, to);
+    }
+
+    @Override
+    public long getMaxBytes(long fromBin, long toBin) {
+        int from = ceilingIndex(fromBin);
+        int to = ceilingIndex(toBin);
+        if (from >= to) {
+            return 0;
+        }
+        int firstBlock = from >> BLOCK_SHIFT;
+        int lastBlock = (to - 1) >> BLOCK_SHIFT;
+        if (firstBlock == lastBlock) {
+            return scanMax(from, to);
+        }
+        long max = Math.max(scanMax(from, (firstBlock + 1) << BLOCK_SHIFT), scanMax(lastBlock << BLOCK_SHIFT, to));
+        if (lastBlock - firstBlock > 1) {
+            int blocks = lastBlock - firstBlock - 1;
+            int k = 31 - Integer.numberOfLeadingZeros(blocks);
+            long row = blockMaxAt + (long) Long.BYTES * rowStart(k, blockCount(size));
+            max = Math.max(max, Math.max(store.getLong(row + (long) Long.BYTES * (firstBlock + 1)),
+                    store.getLong(row + (long) Long.BYTES * (lastBlock - (1 << k)))));
+        }
+        return max;
+    }
+
+    private long scanSum(int from, int to) {
+        long sum = 0;
+        for (int i = from; i < to; i++) {
+            sum += getBytes(i);
+        }
+        return sum;
+    }
+
+    private long scanMax(int from, int to) {
+        long max = 0;
+        for (int i = from; i < to; i++) {
+            max = Math.max(max, getBytes(i));
+        }
+        return max;
+    }
+
+    @Override
+    public long getFirstBin() {
+        return store.getLong(address + FIRST_BIN);
+    }
+
+    @Override
+    public long getLastBin() {
+        return store.getLong(address + LAST_BIN);
+    }
+
+    @Override
+    public long getMaxBytes() {
+        return store.getLong(address + MAX_BYTES);
+    }
+
+    @Override
+    public long getTotalBytes() {
+        return store.getLong(address + TOTAL_BYTES);
+    }
+
+    @Override
+    public boolean isSparse() {
+        return sparse;
+    }
+}
@@ -0,0 +1,135 @@
+/**
+ * Reads a finished host series that has been written into a <code>SeriesStore</code>, so that its levels and
+ * summary stats are kept off the heap and the garbage collector never has to look at them. An
+ * <code>OffHeapSeries</code> is only a handle holding the series' address, and its levels are read through
+ * <code>OffHeapLevel</code> handles made when they are asked for. The series cannot be changed once written.
+ * @author Michael Johnson
+ */
+public class OffHeapSeries implements SeriesView {
+    private static final int FIRST_TIME = 0;
+    private static final int LAST_TIME = 8;
+    private static final int LEVEL_COUNT = 16;
+    private static final int LEVELS = 24;
+    private final SeriesStore store;
+    private final long address;
+    private OffHeapLevel secondLevel;
+
+    /**
+     * Constructs an <code>OffHeapSeries</code> object for a series already written into a store.
+     * @param store     the <code>SeriesStore</code> holding the series
+     * @param address   the address returned by <code>write</code>
+     */
+    public OffHeapSeries(SeriesStore store, long address) {
+        this.store = store;
+        this.address = address;
+    }
+
+    /**
+     * Writes every level of a series into a store.
+     * @param store     the <code>SeriesStore</code> to write into
+     * @param series    the <code>SeriesView</code> to copy, usually a <code>HostSeries</code> that is finished
+     * @return the address of the written series
+     */
+    public static long write(SeriesStore store, SeriesView series) {
+        int levelCount = series.getLevelCount();
+        long address = store.allocate(LEVELS + (long) Long.BYTES * levelCount);
+        store.putLong(address + FIRST_TIME, series.getFirstTime());
+        store.putLong(address + LAST_TIME, series.getLastTime());
+        store.putLong(address + LEVEL_COUNT, levelCount);
+        for (int i = 0; i < levelCount; i++) {
+            store.putLong(address + LEVELS + (long) Long.BYTES * i, OffHeapLevel.write(store, series.getLevel(i)));
+        }
+        return address;
+    }
+
+    /**
+     * Gets the address the series was written at.
+     * @return the address within its <code>SeriesStore</code>
+     */
+    public long getAddress() {
+        return address;
+    }
+
+    @Override
+    public int getLevelCount() {
+        return (int) store.getLong(address + LEVEL_COUNT);
+    }
+
+    @Override
+    public OffHeapLevel getLevel(int index) {
+        return new OffHeapLevel(store, store.getLong(address + LEVELS + (long) Long.BYTES * index));
+    }
+
+    @Override
+    public OffHeapLevel getLevelFor(long spanMicros, int pixels) {
+        int levelCount = getLevelCount();
+        for (int i = 0; i < levelCount - 1; i++) {
+            long levelAddress = store.getLong(address + LEVELS + (long) Long.BYTES * i);
+            if (store.getLong(levelAddress) * Math.max(1, pixels) >= spanMicros) {
+                return new OffHeapLevel(store, levelAddress);
+            }
+        }
+        return getLevel(levelCount - 1);
+    }
+
+    private OffHeapLevel secondLevel() {
+        if (secondLevel == null) {
+            secondLevel = getLevel(HostSeries.SECOND_LEVEL);
+        }
+        return secondLevel;
+    }
+
+    @Override
+    public long getFirstTime() {
+        return store.getLong(address + FIRST_TIME);
+    }
+
+    @Override
+    public long getLastTime() {
+        return store.getLong(address + LAST_TIME);
+    }
+
+    @Override
+    public int size() {
+        return secondLevel().size();
+    }
+
+    @Override
+    public int getSecond(int index) {
+        return toSecond(secondLevel().getBin(index));
+    }
+
+    @Override
+    public long getBytes(int index) {
+        return secondLevel().getBytes(index);
+    }
+
+    @Override
+    public long getBytesAt(int second) {
+        return secondLevel().getBytesAt(second);
+    }
+
+    @Override
+    public int getFirstSecond() {
+        return toSecond(secondLevel().getFirstBin());
+    }
+
+    @Override
+    public int getLastSecond() {
+        return toSecond(secondLevel().getLastBin());
+    }
+
+    private static int toSecond(long bin) {
+        return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, bin));
+    }
+
+    @Override
+    public long getMaxBytes() {
+        return secondLevel().getMaxBytes();
+    }
+
+    @Override
+    public long getTotalBytes() {
+        return secondLevel().getTotalBytes();
+    }
+}
@@ -0,0 +1,273 @@
+/**
+ * Describes how a host's traffic is spread, as a <code>PacketHistogram</code> of its packet sizes and another of
+ * the bytes it moved in each second it was active, filled as packets are added so that percentiles of either can
+ * be read at any time without scanning the host's series. Seconds in which the host moved nothing are not
+ * counted.
+ * <p>
+ * A second's bytes are only counted once a packet from a later second arrives, so the earliest and latest
+ * seconds are held open and folded in when a percentile is read. Holding the earliest second open as well lets a
+ * distribution filled from one part of a trace be merged with one filled from the next part, even when a second
+ * spans the boundary between them. A packet that arrives for a second that has already been counted leaves the
+ * throughput counts inexact until <code>rebuildRates</code> is given the host's per-second bins; the packet size
+ * counts are always exact.
+ * @author Michael Johnson
+ */
+public class PacketDistribution {
+    private static final long MICROS_PER_SECOND = 1000000L;
+    private static final long NO_SECOND = Long.MIN_VALUE;
+    private static final int OBJECT_HEADER = 16;
+    private static final int REFERENCE_BYTES = 4;
+    private PacketHistogram sizes = new PacketHistogram();
+    private PacketHistogram rates = new PacketHistogram();
+    private long headSecond = NO_SECOND;
+    private long headBytes;
+    private long tailSecond = NO_SECOND;
+    private long tailBytes;
+    private boolean exact = true;
+
+    /**
+     * Constructs an empty <code>PacketDistribution</code> object.
+     */
+    public PacketDistribution() {
+    }
+
+    /**
+     * Constructs a <code>PacketDistribution</code> object from counts kept elsewhere, such as in a
+     * <code>TraceIndex</code>.
+     * @param sizes         the <code>PacketHistogram</code> of packet sizes
+     * @param rates         the <code>PacketHistogram</code> of bytes per second, without the open seconds
+     * @param headSecond    the earliest second, held open, or <code>Long.MIN_VALUE</code> if there is none
+     * @param headBytes     the bytes of the earliest second
+     * @param tailSecond    the latest second if it is not the earliest, or <code>Long.MIN_VALUE</code>
+     * @param tailBytes     the bytes of the latest second
+     * @param exact         false if the throughput counts need rebuilding
+     */
+    PacketDistribution(PacketHistogram sizes, PacketHistogram rates, long headSecond, long headBytes, long tailSecond, long tailBytes, boolean exact) {
+        this.sizes = sizes;
+        this.rates = rates;
+        this.headSecond = headSecond;
+        this.headBytes = headBytes;
+        this.tailSecond = tailSecond;
+        this.tailBytes = tailBytes;
+        this.exact = exact;
+    }
+
+    /**
+     * Creates an independent copy of the distribution, such as for handing to another thread.
+     * @return a new <code>PacketDistribution</code> with the same counts
+     */
+    public PacketDistribution copy() {
+        return new PacketDistribution(sizes.copy(), rates.copy(), headSecond, headBytes, tailSecond, tailBytes, exact);
+    }
+
+    /**
+     * Counts a packet.
+     * @param timeMicros    the time stamp in microseconds
+     * @param amount        the size of the packet in bytes
+     */
+    public void add(long timeMicros, long amount) {
+        sizes.record(amount);
+        long second = timeMicros / MICROS_PER_SECOND;
+        if (headSecond == NO_SECOND) {
+            headSecond = second;
+            headBytes = amount;
+        } else if (second == headSecond) {
+            headBytes += amount;
+        } else if (second == tailSecond) {
+            tailBytes += amount;
+        } else if (second > tailSecond && second > headSecond) {
+            if (tailSecond != NO_SECOND) {
+                rates.record(tailBytes);
+            }
+            tailSecond = second;
+            tailBytes = amount;
+        } else {
+            exact = false;
+        }
+    }
+
+    /**
+     * Takes back a packet counted before, such as the last line of a trace that was read before it had been
+     * completely written.
+     * @param timeMicros    the time stamp in microseconds
+     * @param amount        the size of the packet in bytes
+     */
+    public void remove(long timeMicros, long amount) {
+        sizes.remove(amount);
+        long second = timeMicros / MICROS_PER_SECOND;
+        if (second == tailSecond) {
+            tailBytes -= amount;
+        } else if (second == headSecond) {
+            headBytes -= amount;
+        } else {
+            exact = false;
+        }
+    }
+
+    /**
+     * Adds every packet of a distribution filled from a later part of the same trace, such as by another thread.
+     * If the later part overlaps this one in time, the throughput counts become inexact.
+     * @param later the <code>PacketDistribution</code> to merge in
+     */
+    public void addAll(PacketDistribution later) {
+        sizes.addAll(later.sizes);
+        exact &= later.exact;
+        if (later.headSecond == NO_SECOND) {
+            return;
+        }
+        if (headSecond == NO_SECOND) {
+            rates.addAll(later.rates);
+            headSecond = later.headSecond;
+            headBytes = later.headBytes;
+            tailSecond = later.tailSecond;
+            tailBytes = later.tailBytes;
+            return;
+        }
+        long lastSecond = tailSecond == NO_SECOND ? headSecond : tailSecond;
+        long laterFirstBytes = later.headBytes;
+        boolean intoHead = false;
+        if (later.headSecond == lastSecond) {
+            if (tailSecond == NO_SECOND) {
+                headBytes += laterFirstBytes;
+                intoHead = true;
+            } else {
+                laterFirstBytes += tailBytes;
+                tailSecond = NO_SECOND;
+            }
+        } else if (later.headSecond < lastSecond) {
+            exact = false;
+        }
+        rates.addAll(later.rates);
+        if (!intoHead) {
+            closeTail();
+            if (later.tailSecond == NO_SECOND) {
+                tailSecond = later.headSecond;
+                tailBytes = laterFirstBytes;
+                return;
+            }
+            rates.record(laterFirstBytes);
+        }
+        if (later.tailSecond != NO_SECOND) {
+            tailSecond = later.tailSecond;
+            tailBytes = later.tailBytes;
+        }
+    }
+
+    private void closeTail() {
+        if (tailSecond != NO_SECOND) {
+            rates.record(tailBytes);
+            tailSecond = NO_SECOND;
+        }
+    }
+
+    /**
+     * Checks whether the throughput counts describe every second exactly.
+     * @return false if packets arrived out of order and <code>rebuildRates</code> should be called
+     */
+    public boolean isExact() {
+        return exact;
+    }
+
+    /**
+     * Counts the bytes per second again from the host's finished one second bins, which makes the throughput
+     * counts exact whatever order the packets arrived in.
+     * @param secondLevel the host's <code>LevelView</code> of one second bins
+     */
+    public void rebuildRates(LevelView secondLevel) {
+        rates = new PacketHistogram();
+        headSecond = NO_SECOND;
+        tailSecond = NO_SECOND;
+        for (int i = 0; i < secondLevel.size(); i++) {
+            long amount = secondLevel.getBytes(i);
+            if (amount == 0) {
+                continue;
+            }
+            if (headSecond == NO_SECOND) {
+                headSecond = secondLevel.getBin(i);
+                headBytes = amount;
+            } else {
+                closeTail();
+                tailSecond = secondLevel.getBin(i);
+                tailBytes = amount;
+            }
+        }
+        exact = true;
+    }
+
+    /**
+     * Gets the distribution of the host's packet sizes.
+     * @return a copy of the <code>PacketHistogram</code> of packet sizes in bytes
+     */
+    public PacketHistogram getSizes() {
+        return sizes.copy();
+    }
+
+    /**
+     * Gets the distribution of the bytes the host moved in each second it was active, including the open seconds.
+     * @return a new <code>PacketHistogram</code> of bytes per second
+     */
+    public PacketHistogram getRates() {
+        PacketHistogram all = rates.copy();
+        if (headSecond != NO_SECOND) {
+            all.record(headBytes);
+        }
+        if (tailSecond != NO_SECOND) {
+            all.record(tailBytes);
+        }
+        return all;
+    }
+
+    /**
+     * Gets a percentile of the host's packet sizes.
+     * @param percentile the percentile, from 0 to 100
+     * @return the packet size in bytes, or 0 if no packets have been counted
+     */
+    public long getSizePercentile(double percentile) {
+        return sizes.getPercentile(percentile);
+    }
+
+    /**
+     * Gets a percentile of the bytes the host moved in each second it was active.
+     * @param percentile the percentile, from 0 to 100
+     * @return the throughput in bytes per second, or 0 if no packets have been counted
+     */
+    public long getRatePercentile(double percentile) {
+        return getRates().getPercentile(percentile);
+    }
+
+    /**
+     * Gets the number of packets counted.
+     * @return the packet count
+     */
+    public long getPacketCount() {
+        return sizes.getCount();
+    }
+
+    PacketHistogram getClosedRates() {
+        return rates;
+    }
+
+    long getHeadSecond() {
+        return headSecond;
+    }
+
+    long getHeadBytes() {
+        return headBytes;
+    }
+
+    long getTailSecond() {
+        return tailSecond;
+    }
+
+    long getTailBytes() {
+        return tailBytes;
+    }
+
+    /**
+     * Estimates the heap taken by the distribution and its histograms.
+     * @return the estimated size in bytes
+     */
+    public long estimateHeapBytes() {
+        return OBJECT_HEADER + REFERENCE_BYTES * 2 + Long.BYTES * 4 + 1 + sizes.estimateHeapBytes() + rates.estimateHeapBytes();
+    }
+}
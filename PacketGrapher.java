@@ -1,221 +1,371 @@
-import javax.imageio.ImageIO;
-import javax.swing.*;
-import java.awt.*;
-import java.awt.image.BufferedImage;
-import java.io.File;
-import java.io.IOException;
-import java.util.Collections;
-import java.util.LinkedHashMap;
-import java.util.Map;
-
-/**
- * @author Michael Johnson
- */
-public class PacketGrapher extends JPanel {
-    private static final long serialVersionUID = 1L;
-    private Double WIDTH = 900.0;
-    private Double HEIGHT = 250.0;
-    private Point graphPoint = new Point(50, 275);
-    private Double BYTE_INCR = 200000.0;
-    private Double SECOND_INCR = 50.0;
-    private Double byteTicks;
-    private Double secondTicks;
-    private Double maxByteTicks;
-    private Double maxSecondTicks;
-    private Double relativeSingleByte;
-    private Double relativeSingleSecond;
-    private Integer maxBytes;
-    private Integer maxSeconds;
-    private LinkedHashMap<Integer, Integer> graphData;
-    private boolean defaultGraph = true;
-
-    /**
-     * Constructs a <code>PacketGrapher</code> object with default values.
-     * @author Michael Johnson
-     */
-    public PacketGrapher() {
-    }
-
-    /**
-     * Replaces the current graphing data <code>graphData</code> with the given data set.
-     * @param graphData the <code>LinkedHashMap</code> that is to be used to draw the graph
-     */
-    public void updateData(LinkedHashMap<Integer, Integer> graphData) {
-        this.graphData = graphData;
-        defaultGraph = false;
-        setupGraphParameters();
-        repaint();
-    }
-
-    /**
-     * Saves the current graph to PNG format in the current file directory
-     * @param parentPath the <code>String</code> parent path of the last opened text file
-     * @param hostAddr the <code>String</code> currently selected host IP address
-     */
-    public String saveGraph(String parentPath, String hostAddr) {
-        BufferedImage graphImage = new BufferedImage(this.getWidth(), this.getHeight(), BufferedImage.TYPE_INT_RGB);
-        Graphics2D g2d = graphImage.createGraphics();
-        paintComponent(g2d);
-        try {
-            ImageIO.write(graphImage, "png", new File(parentPath + "\\" + hostAddr + ".png"));
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        return parentPath + "\\" + hostAddr + ".png";
-    }
-
-    private void drawAxes(Graphics g) {
-        g.setColor(Color.BLACK);
-        g.drawString("Volume [bytes]", 4, 16);
-        g.drawString("Time [s]", 455, 325);
-        g.drawLine(50, 25, 50, 275);
-        g.drawLine(50, 275, 950, 275);
-    }
-    
-    private void drawTicks(Graphics g) {
-        String label;
-        double secondIncrement = 0.0;
-        double byteIncrement = 0.0;
-        double defaultIncrement = 0.0;
-        if (!defaultGraph) {
-            for (int i = 0; i <= maxSecondTicks; i += SECOND_INCR) {
-                g.drawLine(graphPoint.x + (int) secondIncrement, graphPoint.y, graphPoint.x + (int) secondIncrement, graphPoint.y + 5);
-                label = String.format("%d", i);
-                g.drawString(label, graphPoint.x + (int) secondIncrement - 10, graphPoint.y + 20);
-                secondIncrement += relativeSingleSecond * SECOND_INCR;
-            }
-            for (int i = 0; i <= maxByteTicks; i += BYTE_INCR) {
-                g.drawLine(graphPoint.x, graphPoint.y - (int) byteIncrement, graphPoint.x - 5, graphPoint.y - (int) byteIncrement);
-                if (i != 0) {
-                    g.setColor(Color.LIGHT_GRAY);
-                    g.drawLine(graphPoint.x, graphPoint.y - (int) byteIncrement, graphPoint.x + 900, graphPoint.y - (int) byteIncrement);
-                    g.setColor(Color.BLACK);
-                }
-                if (i >= 1000000) {
-                    label = String.format("%.1fM", i / 1000000.0);
-                } else if(i >= 1000) {
-                    label = String.format("%dK", i / 1000);
-                } else {
-                    label = String.format("%d", i);
-                }
-                g.drawString(label, graphPoint.x - 45, 5 + graphPoint.y - (int) byteIncrement);
-                byteIncrement += relativeSingleByte * BYTE_INCR;
-            }
-        } else {
-            for (int i = 0; i <= 650; i += SECOND_INCR) {
-                g.drawLine(graphPoint.x + (int) defaultIncrement, graphPoint.y, graphPoint.x + (int) defaultIncrement, graphPoint.y + 5);
-                label = String.format("%d", i);
-                g.drawString(label, graphPoint.x + (int) defaultIncrement - 10, graphPoint.y + 20);
-                defaultIncrement += (900.0 / 650.0) * SECOND_INCR;
-            }
-        }
-    }
-
-    private void drawGraph(Graphics g) {
-        if (!defaultGraph) {
-            g.setColor(Color.BLUE);
-            for (Map.Entry<Integer, Integer> entry: graphData.entrySet()) {
-                Integer seconds = entry.getKey();
-                Integer bytes = entry.getValue();
-                g.drawLine((int) (graphPoint.x + (relativeSingleSecond * seconds)), graphPoint.y, (int) (graphPoint.x + (relativeSingleSecond * seconds)), (graphPoint.y - (int) (relativeSingleByte * bytes)));
-            }
-        }
-    }
-
-    @Override
-    public void paintComponent(Graphics g) {
-        super.paintComponent(g);
-        drawAxes(g);
-        drawTicks(g);
-        drawGraph(g);
-    }
-
-    /**
-     * Gets the <code>Integer</code> maximum bytes for the transmission in context.
-     * @return the maximum number of bytes
-     */
-    public Integer getMaxBytes() {
-        return maxBytes;
-    }
-
-    /**
-     * Gets the <code>Integer</code> time length in seconds for the transmission in context.
-     * @return the maximum number of seconds
-     */
-    public Integer getMaxSeconds() {
-        return maxSeconds;
-    }
-
-    /**
-     * Gets the total transimission volume for the transmission in context. 
-     * @return the total volume of bytes
-     */
-    public Integer getTotalBytes() {
-        return graphData.values().stream().reduce(0, Integer::sum);
-    }
-
-    private void setupGraphParameters() {
-        maxBytes = getMaxValue(1);
-        setIncrement();
-        maxSeconds = getMaxValue(-1);
-        byteTicks = tickCalc(maxBytes, BYTE_INCR);
-        secondTicks = tickCalc(maxSeconds, SECOND_INCR);
-        maxByteTicks = setMaxTicks(byteTicks, BYTE_INCR);
-        maxSecondTicks = setMaxTicks(secondTicks, SECOND_INCR);
-        relativeSingleByte = setRelativeSingleValue(maxByteTicks, HEIGHT);
-        relativeSingleSecond = setRelativeSingleValue(maxSecondTicks, WIDTH);
-    }
-
-    private Integer getMaxValue(Integer option) {
-        Integer result = 0;
-        if (option.equals(1)) {
-            result = Collections.max(graphData.entrySet(), Map.Entry.comparingByValue()).getValue();
-        } else if (option.equals(-1)) {
-            result = Collections.max(graphData.entrySet(), Map.Entry.comparingByKey()).getKey();
-        }
-        return result;
-    }
-
-    private Double setMaxTicks(Double tickType, Double incr) {
-        return tickType * incr;
-    }
-
-    private Double tickCalc(int maxVal, double incr) {
-        Double ticks = maxVal / incr;
-        double result = Math.ceil(ticks);
-        if (result < 4.0 && incr == BYTE_INCR) {
-            result = 4.0;
-        } else if (result > 10.0 && incr == BYTE_INCR) {
-            result = 10.0;
-        } else if (result < 8.0 && incr == SECOND_INCR) {
-            result = 8.0;
-        } else if (result > 24.0 && incr == SECOND_INCR) {
-            result = 24.0;
-        }
-        return result;
-    }
-
-    private Double setRelativeSingleValue(Double maxVal, Double max) {
-        return max / maxVal;
-    }
-
-    private void setIncrement() {
-        if (maxBytes >= 800000) {
-            BYTE_INCR = 200000.0;
-		} else if (maxBytes >= 400000) {
-			BYTE_INCR = 100000.0;
-		} else if (maxBytes >= 50000) {
-			BYTE_INCR = 50000.0;
-		} else if (maxBytes >= 20000) {
-            BYTE_INCR = 20000.0;
-        } else if (maxBytes >= 2000) {
-            BYTE_INCR = 2000.0;
-        } else if (maxBytes >= 200) {
-            BYTE_INCR = 200.0;
-        } else if (maxBytes >= 20) {
-            BYTE_INCR = 20.0;
-        } else {
-            BYTE_INCR = 2.0;
-        }
-    }
-}
+import javax.imageio.ImageIO;
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * @author Michael Johnson
+ */
+public class PacketGrapher extends JPanel {
+    private static final long serialVersionUID = 1L;
+    private static final int FRAME_INTERVAL = 100;
+    private static final double WHEEL_ZOOM = 1.25;
+    private static final int MIN_SELECTION = 4;
+    private static final Color OVERLAY_COLOR = new Color(255, 255, 224, 220);
+    private static final int OVERLAY_LINE_HEIGHT = 14;
+    private static final int OVERLAY_MARGIN = 6;
+    private GraphRenderer renderer = new GraphRenderer();
+    private BufferedImage graphImage;
+    private SeriesView graphData;
+    private SeriesView pendingData;
+    private long lastFrame;
+    private Timer frameTimer;
+    private Integer selectionStart;
+    private int selectionEnd;
+    private Integer panStart;
+    private long panViewStart;
+    private boolean statsVisible;
+    private String placeholder;
+
+    /**
+     * Constructs a <code>PacketGrapher</code> object with default values. Dragging across the graph zooms into
+     * the selected time window, dragging with the right button or with shift held pans, the mouse wheel zooms
+     * around the pointer and a double click returns to the whole trace.
+     * @author Michael Johnson
+     */
+    public PacketGrapher() {
+        MouseAdapter mouseHandler = new MouseAdapter() {
+            @Override
+            public void mousePressed(MouseEvent e) {
+                if (!renderer.hasData()) {
+                    return;
+                }
+                if (SwingUtilities.isLeftMouseButton(e) && !e.isShiftDown()) {
+                    selectionStart = renderer.clampToGraph(e.getX());
+                    selectionEnd = selectionStart;
+                } else {
+                    panStart = e.getX();
+                    panViewStart = renderer.getWindowStart();
+                }
+            }
+
+            @Override
+            public void mouseDragged(MouseEvent e) {
+                if (selectionStart != null) {
+                    selectionEnd = renderer.clampToGraph(e.getX());
+                    repaint();
+                } else if (panStart != null && renderer.isZoomed()) {
+                    long shift = renderer.durationOf(panStart - e.getX());
+                    setTimeWindow(panViewStart + shift, panViewStart + shift + (renderer.getWindowEnd() - renderer.getWindowStart()));
+                }
+            }
+
+            @Override
+            public void mouseReleased(MouseEvent e) {
+                if (selectionStart != null && Math.abs(selectionEnd - selectionStart) >= MIN_SELECTION) {
+                    setTimeWindow(renderer.timeAt(Math.min(selectionStart, selectionEnd)), renderer.timeAt(Math.max(selectionStart, selectionEnd)));
+                }
+                selectionStart = null;
+                panStart = null;
+                repaint();
+            }
+
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                if (renderer.hasData() && e.getClickCount() == 2) {
+                    resetTimeWindow();
+                }
+            }
+
+            @Override
+            public void mouseWheelMoved(MouseWheelEvent e) {
+                if (!renderer.hasData()) {
+                    return;
+                }
+                double factor = Math.pow(WHEEL_ZOOM, e.getPreciseWheelRotation());
+                long anchor = renderer.timeAt(renderer.clampToGraph(e.getX()));
+                setTimeWindow(anchor - (long) ((anchor - renderer.getWindowStart()) * factor), anchor + (long) ((renderer.getWindowEnd() - anchor) * factor));
+            }
+        };
+        addMouseListener(mouseHandler);
+        addMouseMotionListener(mouseHandler);
+        addMouseWheelListener(mouseHandler);
+    }
+
+    /**
+     * Replaces the current graphing data <code>graphData</code> with the given data set.
+     * @param graphData the <code>SeriesView</code> that is to be used to draw the graph, whether it is kept on the
+     *                  heap or off it
+     */
+    public void updateData(SeriesView graphData) {
+        TraceMetrics metrics = TraceMetrics.get();
+        long start = metrics.isEnabled() ? System.nanoTime() : 0;
+        pendingData = null;
+        placeholder = null;
+        this.graphData = graphData;
+        renderer.setData(graphData);
+        graphImage = null;
+        repaint();
+        if (start != 0) {
+            metrics.recordUpdate(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Replaces the current graphing data with the same host's series from several traces, drawn over one another
+     * in their own colours or as the difference between the last trace and the first.
+     * @param series        one <code>SeriesView</code> per trace, null where a trace has no series for the host
+     * @param names         the <code>String</code> names of the traces, shown in the graph's legend
+     * @param difference    true to draw the difference instead of the series themselves
+     */
+    public void compareData(SeriesView[] series, String[] names, boolean difference) {
+        pendingData = null;
+        placeholder = null;
+        graphData = null;
+        renderer.setComparison(series, names, difference);
+        graphImage = null;
+        repaint();
+    }
+
+    /**
+     * Replaces the current graphing data with a newer version of a series that keeps changing, such as a trace that is
+     * being followed. Updates that arrive faster than the frame rate cap are coalesced so that only the latest is drawn,
+     * and a <code>"graphData"</code> property change is fired whenever the drawn data changes.
+     * @param graphData the <code>SeriesView</code> that is to be used to draw the graph
+     */
+    public void streamData(SeriesView graphData) {
+        pendingData = graphData;
+        if (frameTimer == null) {
+            frameTimer = new Timer(FRAME_INTERVAL, new ActionListener() {
+                @Override
+                public void actionPerformed(ActionEvent e) {
+                    showPendingData();
+                }
+            });
+            frameTimer.setRepeats(false);
+        }
+        long wait = FRAME_INTERVAL - (System.currentTimeMillis() - lastFrame);
+        if (wait <= 0) {
+            frameTimer.stop();
+            showPendingData();
+        } else if (!frameTimer.isRunning()) {
+            frameTimer.setInitialDelay((int) wait);
+            frameTimer.start();
+        }
+    }
+
+    private void showPendingData() {
+        SeriesView newData = pendingData;
+        if (newData == null) {
+            return;
+        }
+        SeriesView oldData = graphData;
+        lastFrame = System.currentTimeMillis();
+        updateData(newData);
+        // A followed series is brought up to date in place, and an unchanged value would not be announced
+        firePropertyChange("graphData", oldData == newData ? null : oldData, newData);
+    }
+
+    /**
+     * Discards the current graphing data and returns to drawing the empty default graph.
+     */
+    public void clearData() {
+        pendingData = null;
+        placeholder = null;
+        graphData = null;
+        renderer.setData(null);
+        graphImage = null;
+        repaint();
+    }
+
+    /**
+     * Discards the current graphing data and draws the empty default graph with a message over it, for use while
+     * the data to be shown next is still being read.
+     * @param message the <code>String</code> to show in the middle of the graph
+     */
+    public void showPlaceholder(String message) {
+        clearData();
+        placeholder = message;
+    }
+
+    /**
+     * Shows only the given time window of the graph, which is kept while the graphing data changes until
+     * the window is reset. The window is widened to at least a few milliseconds and kept within the trace.
+     * A <code>"timeWindow"</code> property change is fired once the window has changed.
+     * @param start the start of the window in microseconds
+     * @param end   the end of the window in microseconds
+     */
+    public void setTimeWindow(long start, long end) {
+        if (!renderer.hasData()) {
+            return;
+        }
+        renderer.setTimeWindow(start, end);
+        graphImage = null;
+        repaint();
+        firePropertyChange("timeWindow", null, renderer.getWindowStart());
+    }
+
+    /**
+     * Returns to showing the whole trace.
+     */
+    public void resetTimeWindow() {
+        if (!renderer.hasData()) {
+            return;
+        }
+        renderer.resetTimeWindow();
+        graphImage = null;
+        repaint();
+        firePropertyChange("timeWindow", null, renderer.getWindowStart());
+    }
+
+    /**
+     * Saves the current graph to PNG format in the current file directory
+     * @param parentPath the <code>String</code> parent path of the last opened text file
+     * @param hostAddr the <code>String</code> currently selected host IP address
+     */
+    public String saveGraph(String parentPath, String hostAddr) {
+        File imageFile = new File(parentPath, hostAddr + ".png");
+        try {
+            ImageIO.write(getGraphImage(), "png", imageFile);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return imageFile.getPath();
+    }
+
+    private BufferedImage getGraphImage() {
+        int width = Math.max(1, getWidth());
+        int height = Math.max(1, getHeight());
+        if (graphImage == null || graphImage.getWidth() != width || graphImage.getHeight() != height) {
+            graphImage = renderer.render(width, height, getBackground());
+        }
+        return graphImage;
+    }
+
+    @Override
+    public void setBackground(Color bg) {
+        super.setBackground(bg);
+        graphImage = null;
+    }
+
+    /**
+     * Shows or hides a box of load and repaint statistics from <code>TraceMetrics</code> over the graph.
+     * @param statsVisible true to show the statistics
+     */
+    public void setStatsVisible(boolean statsVisible) {
+        this.statsVisible = statsVisible;
+        repaint();
+    }
+
+    @Override
+    public void paintComponent(Graphics g) {
+        TraceMetrics metrics = TraceMetrics.get();
+        long start = metrics.isEnabled() ? System.nanoTime() : 0;
+        super.paintComponent(g);
+        g.drawImage(getGraphImage(), 0, 0, null);
+        if (placeholder != null) {
+            FontMetrics fontMetrics = g.getFontMetrics();
+            g.setColor(Color.DARK_GRAY);
+            g.drawString(placeholder, (getWidth() - fontMetrics.stringWidth(placeholder)) / 2, getHeight() / 2);
+        }
+        if (selectionStart != null) {
+            renderer.drawSelection(g, selectionStart, selectionEnd);
+        }
+        if (start != 0) {
+            metrics.recordRepaint(System.nanoTime() - start);
+        }
+        if (statsVisible) {
+            drawStats(g, metrics);
+        }
+    }
+
+    private void drawStats(Graphics g, TraceMetrics metrics) {
+        String[] lines = {
+                String.format("Load: %,d lines in %,.0f ms (%,.0f lines/s, %.1f MB/s)", metrics.getLinesRead(), metrics.getLoadMillis(),
+                        metrics.getLinesPerSecond(), metrics.getBytesPerSecond() / (1024 * 1024)),
+                metrics.getParseMillis() == 0
+                        ? String.format("Read and parse %,.0f ms, aggregate %,.0f ms", metrics.getReadMillis(), metrics.getAggregateMillis())
+                        : String.format("Read %,.0f ms, parse %,.0f ms, aggregate %,.0f ms", metrics.getReadMillis(), metrics.getParseMillis(),
+                        metrics.getAggregateMillis()),
+                String.format("Skipped: %,d  Malformed: %,d  Hosts: %,d  Series: %.1f MB", metrics.getSkippedLines(),
+                        metrics.getMalformedLines(), metrics.getHostCount(), metrics.getHostPacketsHeapBytes() / (1024.0 * 1024.0)),
+                String.format("Repaint: last %.2f ms, p50 %.2f ms, p99 %.2f ms", metrics.getLastRepaintMicros() / 1e3,
+                        metrics.getRepaintP50Micros() / 1e3, metrics.getRepaintP99Micros() / 1e3)
+        };
+        FontMetrics fontMetrics = g.getFontMetrics();
+        int width = 0;
+        for (String line : lines) {
+            width = Math.max(width, fontMetrics.stringWidth(line));
+        }
+        int x = getWidth() - width - 3 * OVERLAY_MARGIN;
+        g.setColor(OVERLAY_COLOR);
+        g.fillRect(x, OVERLAY_MARGIN, width + 2 * OVERLAY_MARGIN, lines.length * OVERLAY_LINE_HEIGHT + OVERLAY_MARGIN);
+        g.setColor(Color.DARK_GRAY);
+        for (int i = 0; i < lines.length; i++) {
+            g.drawString(lines[i], x + OVERLAY_MARGIN, OVERLAY_MARGIN + (i + 1) * OVERLAY_LINE_HEIGHT);
+        }
+    }
+
+    /**
+     * Gets the <code>Long</code> maximum bytes in any one bin of the visible time window.
+     * @return the maximum number of bytes per bin
+     */
+    public Long getMaxBytes() {
+        return renderer.getMaxBytes();
+    }
+
+    /**
+     * Gets the width of the bins currently drawn, which depends on how much time the graph spans.
+     * @return the <code>String</code> bin width with its unit, such as <code>"10 ms"</code>
+     */
+    public String getBinWidth() {
+        return renderer.getBinWidth();
+    }
+
+    /**
+     * Gets the <code>Integer</code> time length in seconds for the transmission in context.
+     * @return the maximum number of seconds
+     */
+    public Integer getMaxSeconds() {
+        return renderer.getMaxSeconds();
+    }
+
+    /**
+     * Gets the total transimission volume within the visible time window.
+     * @return the total volume of bytes
+     */
+    public Long getTotalBytes() {
+        return renderer.getTotalBytes();
+    }
+
+    /**
+     * Gets the total volume of each trace being compared within the visible time window.
+     * @return the volume of bytes of each trace, or null if traces are not being compared
+     */
+    public long[] getComparedTotalBytes() {
+        return renderer.getComparedTotalBytes();
+    }
+
+    /**
+     * Gets the start of the visible time window.
+     * @return the start of the window in microseconds
+     */
+    public long getWindowStart() {
+        return renderer.getWindowStart();
+    }
+
+    /**
+     * Gets the end of the visible time window.
+     * @return the end of the window in microseconds
+     */
+    public long getWindowEnd() {
+        return renderer.getWindowEnd();
+    }
+}
@@ -0,0 +1,279 @@
+/**
+ * Counts non-negative values, such as packet sizes, in the same buckets as a <code>LogHistogram</code>, so any
+ * percentile can be read back to within about three percent. Unlike a <code>LogHistogram</code> it is meant to
+ * be kept for every host of a trace, so it is not safe for use by several threads at once and only holds counts
+ * for the run of buckets between the lowest and highest values it has seen. Its size depends on how widely the
+ * values are spread, never on how many there are. Counts are held in a byte per bucket until one of them passes
+ * 255, and only then widened to an <code>int</code> per bucket, so the many hosts of a trace that send only a
+ * few packets each take a quarter of the space. Histograms filled on different threads are combined with
+ * <code>addAll</code>.
+ * @author Michael Johnson
+ */
+public class PacketHistogram {
+    private static final byte[] NO_COUNTS = new byte[0];
+    private static final int MAX_NARROW_COUNT = 0xff;
+    private static final int GROWTH_SLACK = 4;
+    private static final int OBJECT_HEADER = 16;
+    private static final int ARRAY_HEADER = 16;
+    private static final int REFERENCE_BYTES = 4;
+    private byte[] narrowCounts = NO_COUNTS;
+    private int[] counts;
+    private int firstBucket;
+    private long count;
+    private long sum;
+    private long max;
+
+    /**
+     * Constructs an empty <code>PacketHistogram</code> object.
+     */
+    public PacketHistogram() {
+    }
+
+    /**
+     * Constructs a <code>PacketHistogram</code> object from counts kept elsewhere, such as in a
+     * <code>TraceIndex</code>.
+     * @param firstBucket   the bucket the first count belongs to
+     * @param counts        the count of each bucket from the first on
+     * @param sum           the sum of every value counted
+     * @param max           the largest value counted
+     */
+    PacketHistogram(int firstBucket, int[] counts, long sum, long max) {
+        this.firstBucket = firstBucket;
+        this.sum = sum;
+        this.max = max;
+        int highest = 0;
+        for (int bucketCount : counts) {
+            count += bucketCount;
+            highest = Math.max(highest, bucketCount);
+        }
+        if (highest > MAX_NARROW_COUNT) {
+            this.counts = counts;
+        } else if (counts.length > 0) {
+            narrowCounts = new byte[counts.length];
+            for (int i = 0; i < counts.length; i++) {
+                narrowCounts[i] = (byte) counts[i];
+            }
+        }
+    }
+
+    /**
+     * Creates an independent copy of the histogram.
+     * @return a new <code>PacketHistogram</code> with the same counts
+     */
+    public PacketHistogram copy() {
+        PacketHistogram copy = new PacketHistogram();
+        copy.firstBucket = firstBucket;
+        copy.narrowCounts = narrowCounts.length == 0 ? NO_COUNTS : narrowCounts.clone();
+        copy.counts = counts == null ? null : counts.clone();
+        copy.count = count;
+        copy.sum = sum;
+        copy.max = max;
+        return copy;
+    }
+
+    /**
+     * Counts a value. Negative values are counted as 0.
+     * @param value the value to record
+     */
+    public void record(long value) {
+        value = Math.max(0, value);
+        int bucket = LogHistogram.bucketOf(value);
+        cover(bucket, bucket);
+        addCount(bucket - firstBucket, 1);
+        count++;
+        sum += value;
+        max = Math.max(max, value);
+    }
+
+    /**
+     * Takes back a value counted before, such as a packet whose line is read again. The largest value is kept
+     * as it was, so percentiles may read slightly high until it is counted again.
+     * @param value the value to take back
+     */
+    public void remove(long value) {
+        value = Math.max(0, value);
+        int index = LogHistogram.bucketOf(value) - firstBucket;
+        if (countIn(firstBucket + index) > 0) {
+            addCount(index, -1);
+            count--;
+            sum -= value;
+        }
+    }
+
+    /**
+     * Adds every value counted by another histogram to this one.
+     * @param other the <code>PacketHistogram</code> to merge in
+     */
+    public void addAll(PacketHistogram other) {
+        int otherLength = other.length();
+        if (otherLength == 0) {
+            return;
+        }
+        cover(other.firstBucket, other.firstBucket + otherLength - 1);
+        for (int i = 0; i < otherLength; i++) {
+            addCount(other.firstBucket + i - firstBucket, other.countAt(i));
+        }
+        count += other.count;
+        sum += other.sum;
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * Widens the run of buckets held to include the given buckets, leaving a little room on the side it grew
+     * towards so that values spreading slowly do not copy the counts every time.
+     */
+    private void cover(int fromBucket, int toBucket) {
+        int length = length();
+        if (length == 0) {
+            firstBucket = fromBucket;
+            narrowCounts = new byte[toBucket - fromBucket + 1];
+            return;
+        }
+        int lastBucket = firstBucket + length - 1;
+        if (fromBucket >= firstBucket && toBucket <= lastBucket) {
+            return;
+        }
+        int newFirst = fromBucket < firstBucket ? Math.max(0, fromBucket - GROWTH_SLACK) : firstBucket;
+        int newLast = toBucket > lastBucket ? toBucket + GROWTH_SLACK : lastBucket;
+        if (counts == null) {
+            byte[] grown = new byte[newLast - newFirst + 1];
+            System.arraycopy(narrowCounts, 0, grown, firstBucket - newFirst, length);
+            narrowCounts = grown;
+        } else {
+            int[] grown = new int[newLast - newFirst + 1];
+            System.arraycopy(counts, 0, grown, firstBucket - newFirst, length);
+            counts = grown;
+        }
+        firstBucket = newFirst;
+    }
+
+    private int length() {
+        return counts == null ? narrowCounts.length : counts.length;
+    }
+
+    private int countAt(int index) {
+        return counts == null ? narrowCounts[index] & MAX_NARROW_COUNT : counts[index];
+    }
+
+    /**
+     * Changes the count at an index into the held buckets, widening the counts to an <code>int</code> per bucket
+     * the first time one would no longer fit in a byte.
+     */
+    private void addCount(int index, int delta) {
+        if (counts == null) {
+            int updated = (narrowCounts[index] & MAX_NARROW_COUNT) + delta;
+            if (updated <= MAX_NARROW_COUNT) {
+                narrowCounts[index] = (byte) updated;
+                return;
+            }
+            counts = getCounts();
+            narrowCounts = NO_COUNTS;
+        }
+        counts[index] += delta;
+    }
+
+    /**
+     * Gets the number of values counted.
+     * @return the value count
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Gets the largest value counted.
+     * @return the maximum value, or 0 if nothing has been counted
+     */
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * Gets the mean of the values counted.
+     * @return the mean value, or 0 if nothing has been counted
+     */
+    public double getMean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    /**
+     * Gets the value below which the given percentage of counted values fall.
+     * @param percentile the percentile, from 0 to 100
+     * @return the highest value that shares a bucket with the percentile, or 0 if nothing has been counted
+     */
+    public long getPercentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(count * Math.min(100.0, percentile) / 100.0));
+        long seen = 0;
+        for (int i = 0; i < length(); i++) {
+            seen += countAt(i);
+            if (seen >= rank) {
+                return Math.min(LogHistogram.highestValueIn(firstBucket + i), max);
+            }
+        }
+        return max;
+    }
+
+    int getFirstBucket() {
+        return firstBucket;
+    }
+
+    /**
+     * Gets the count of each held bucket, from the first on.
+     * @return the counts as <code>int</code>s, which must not be changed
+     */
+    int[] getCounts() {
+        if (counts != null) {
+            return counts;
+        }
+        int[] wide = new int[narrowCounts.length];
+        for (int i = 0; i < wide.length; i++) {
+            wide[i] = narrowCounts[i] & MAX_NARROW_COUNT;
+        }
+        return wide;
+    }
+
+    long getSum() {
+        return sum;
+    }
+
+    /**
+     * Estimates the heap taken by the histogram.
+     * @return the estimated size in bytes
+     */
+    public long estimateHeapBytes() {
+        long countBytes = counts == null ? narrowCounts.length : (long) Integer.BYTES * counts.length;
+        return OBJECT_HEADER + REFERENCE_BYTES * 2 + Integer.BYTES + Long.BYTES * 3 + (length() == 0 ? 0 : ARRAY_HEADER + countBytes);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof PacketHistogram)) {
+            return false;
+        }
+        PacketHistogram other = (PacketHistogram) obj;
+        if (count != other.count || sum != other.sum || max != other.max) {
+            return false;
+        }
+        int from = Math.min(firstBucket, other.firstBucket);
+        int to = Math.max(firstBucket + length(), other.firstBucket + other.length());
+        for (int bucket = from; bucket < to; bucket++) {
+            if (countIn(bucket) != other.countIn(bucket)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int countIn(int bucket) {
+        int index = bucket - firstBucket;
+        return index >= 0 && index < length() ? countAt(index) : 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * Long.hashCode(count) + Long.hashCode(sum)) + Long.hashCode(max);
+    }
+}
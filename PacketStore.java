@@ -0,0 +1,249 @@
+import java.util.Arrays;
+
+/**
+ * Holds every packet of a trace in primitive columns rather than as one object per packet.
+ * Time stamps are kept to the microsecond, and host addresses are stored as the dense <code>int</code>
+ * identifiers of a <code>HostDictionary</code>, which also keeps the IPv4 form of each host packed into
+ * an <code>int</code> so that later passes can compare addresses numerically.
+ * <p>
+ * A store given a <code>SeriesStore</code> keeps its columns there instead, in blocks of 65,536 packets, so that
+ * the packets of a very large trace take no heap at all.
+ * @author Michael Johnson
+ */
+public class PacketStore {
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int BLOCK_SHIFT = 16;
+    private static final int BLOCK_MASK = (1 << BLOCK_SHIFT) - 1;
+    private static final long SIZES = (long) Long.BYTES << BLOCK_SHIFT;
+    private static final long SOURCES = SIZES + ((long) Integer.BYTES << BLOCK_SHIFT);
+    private static final long DESTS = SOURCES + ((long) Integer.BYTES << BLOCK_SHIFT);
+    private static final long BLOCK_SIZE = DESTS + ((long) Integer.BYTES << BLOCK_SHIFT);
+    private long[] timeStamps = new long[INITIAL_CAPACITY];
+    private int[] pktSizes = new int[INITIAL_CAPACITY];
+    private int[] sourceIds = new int[INITIAL_CAPACITY];
+    private int[] destIds = new int[INITIAL_CAPACITY];
+    private int size;
+    private HostDictionary hosts;
+    private SeriesStore store;
+    private long[] blocks;
+
+    /**
+     * Constructs an empty <code>PacketStore</code> object whose host identifiers belong to the given dictionary.
+     * @param hosts the <code>HostDictionary</code> the stored host identifiers refer to
+     */
+    public PacketStore(HostDictionary hosts) {
+        this.hosts = hosts;
+    }
+
+    /**
+     * Constructs an empty <code>PacketStore</code> object that keeps its columns off the heap.
+     * @param hosts the <code>HostDictionary</code> the stored host identifiers refer to
+     * @param store the <code>SeriesStore</code> to keep the columns in
+     */
+    public PacketStore(HostDictionary hosts, SeriesStore store) {
+        this.hosts = hosts;
+        this.store = store;
+        timeStamps = null;
+        pktSizes = null;
+        sourceIds = null;
+        destIds = null;
+        blocks = new long[16];
+    }
+
+    /**
+     * Appends a packet to the end of the store.
+     * @param timeMicros    the time stamp in microseconds
+     * @param sourceId      the source host identifier
+     * @param destId        the destination host identifier
+     * @param pktSize       the packet size in bytes
+     */
+    public void add(long timeMicros, int sourceId, int destId, int pktSize) {
+        if (store != null) {
+            addOffHeap(timeMicros, sourceId, destId, pktSize);
+            return;
+        }
+        if (size == timeStamps.length) {
+            int capacity = size + (size >> 1);
+            timeStamps = Arrays.copyOf(timeStamps, capacity);
+            pktSizes = Arrays.copyOf(pktSizes, capacity);
+            sourceIds = Arrays.copyOf(sourceIds, capacity);
+            destIds = Arrays.copyOf(destIds, capacity);
+        }
+        timeStamps[size] = timeMicros;
+        pktSizes[size] = pktSize;
+        sourceIds[size] = sourceId;
+        destIds[size] = destId;
+        size++;
+    }
+
+    private void addOffHeap(long timeMicros, int sourceId, int destId, int pktSize) {
+        int block = size >>> BLOCK_SHIFT;
+        if ((size & BLOCK_MASK) == 0) {
+            if (block == blocks.length) {
+                blocks = Arrays.copyOf(blocks, block * 2);
+            }
+            blocks[block] = store.allocate(BLOCK_SIZE);
+        }
+        long at = blocks[block];
+        int slot = size & BLOCK_MASK;
+        store.putLong(at + (long) Long.BYTES * slot, timeMicros);
+        store.putInt(at + SIZES + (long) Integer.BYTES * slot, pktSize);
+        store.putInt(at + SOURCES + (long) Integer.BYTES * slot, sourceId);
+        store.putInt(at + DESTS + (long) Integer.BYTES * slot, destId);
+        size++;
+    }
+
+    private long timeAt(int index) {
+        if (store == null) {
+            return timeStamps[index];
+        }
+        return store.getLong(blocks[index >>> BLOCK_SHIFT] + (long) Long.BYTES * (index & BLOCK_MASK));
+    }
+
+    private int columnAt(int[] column, long offset, int index) {
+        if (store == null) {
+            return column[index];
+        }
+        return store.getInt(blocks[index >>> BLOCK_SHIFT] + offset + (long) Integer.BYTES * (index & BLOCK_MASK));
+    }
+
+    /**
+     * Removes the most recently added packet.
+     */
+    public void removeLast() {
+        if (size > 0) {
+            size--;
+        }
+    }
+
+    /**
+     * Appends every packet of another store to the end of this one, translating its host identifiers.
+     * @param later     the <code>PacketStore</code> holding the packets that follow this store's packets
+     * @param hostMap   the identifier in this store's dictionary of each host in the later store's dictionary
+     */
+    public void addAll(PacketStore later, int[] hostMap) {
+        if (store != null || later.store != null) {
+            for (int i = 0; i < later.size; i++) {
+                add(later.timeAt(i), hostMap[later.columnAt(later.sourceIds, SOURCES, i)],
+                        hostMap[later.columnAt(later.destIds, DESTS, i)], later.columnAt(later.pktSizes, SIZES, i));
+            }
+            return;
+        }
+        int total = size + later.size;
+        if (total > timeStamps.length) {
+            timeStamps = Arrays.copyOf(timeStamps, total);
+            pktSizes = Arrays.copyOf(pktSizes, total);
+            sourceIds = Arrays.copyOf(sourceIds, total);
+            destIds = Arrays.copyOf(destIds, total);
+        }
+        System.arraycopy(later.timeStamps, 0, timeStamps, size, later.size);
+        System.arraycopy(later.pktSizes, 0, pktSizes, size, later.size);
+        for (int i = 0; i < later.size; i++) {
+            sourceIds[size + i] = hostMap[later.sourceIds[i]];
+            destIds[size + i] = hostMap[later.destIds[i]];
+        }
+        size = total;
+    }
+
+    /**
+     * Gets the number of packets held in the store.
+     * @return the packet count
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets the dictionary the stored host identifiers refer to.
+     * @return the <code>HostDictionary</code> of the trace
+     */
+    public HostDictionary getHosts() {
+        return hosts;
+    }
+
+    /**
+     * Creates a cursor positioned before the first packet of the store.
+     * @return a new <code>Cursor</code>
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Walks the packets of a <code>PacketStore</code> in the order they were added without boxing any column.
+     */
+    public class Cursor {
+        private int index = -1;
+
+        private Cursor() {
+        }
+
+        /**
+         * Moves the cursor to the next packet.
+         * @return true if the cursor is on a packet, false once every packet has been visited
+         */
+        public boolean next() {
+            if (index < size) {
+                index++;
+            }
+            return index < size;
+        }
+
+        /**
+         * Gets the time stamp of the current packet truncated to whole seconds.
+         * @return the time stamp in seconds
+         */
+        public int getTimeStamp() {
+            long seconds = timeAt(index) / 1000000L;
+            return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, seconds));
+        }
+
+        /**
+         * Gets the full precision time stamp of the current packet.
+         * @return the time stamp in microseconds
+         */
+        public long getTimeMicros() {
+            return timeAt(index);
+        }
+
+        /**
+         * Gets the size of the current packet.
+         * @return the packet size in bytes
+         */
+        public int getPacketSize() {
+            return columnAt(pktSizes, SIZES, index);
+        }
+
+        /**
+         * Gets the interned source host of the current packet.
+         * @return the source host identifier
+         */
+        public int getSourceId() {
+            return columnAt(sourceIds, SOURCES, index);
+        }
+
+        /**
+         * Gets the interned destination host of the current packet.
+         * @return the destination host identifier
+         */
+        public int getDestId() {
+            return columnAt(destIds, DESTS, index);
+        }
+
+        /**
+         * Gets the source address of the current packet.
+         * @return the source host IP address
+         */
+        public String getSourceAddr() {
+            return hosts.getAddr(columnAt(sourceIds, SOURCES, index));
+        }
+
+        /**
+         * Gets the destination address of the current packet.
+         * @return the destination host IP address
+         */
+        public String getDestAddr() {
+            return hosts.getAddr(columnAt(destIds, DESTS, index));
+        }
+    }
+}
@@ -1,227 +1,1141 @@
-import javax.swing.*;
-import javax.swing.filechooser.FileNameExtensionFilter;
-import java.awt.*;
-import java.awt.event.*;
-import java.io.File;
-import java.util.*;
-
-/**
- * @author Michael Johnson
- */
-public class PacketVisualiser extends JFrame {
-    private static final long serialVersionUID = 1L;
-    private TraceFile currentFile;
-    private JPanel comboBoxPanel;
-    private JPanel summaryPanel;
-    private PacketGrapher graphPanel;
-    private JMenuItem openFile = new JMenuItem("Open Trace File");
-    private JMenuItem quit = new JMenuItem("Quit");
-    private JMenuItem savePDF = new JMenuItem("Save Graph to PNG");
-    private JFileChooser fileChooser = new JFileChooser();
-    private File newFile;
-    private JRadioButton destHosts = new JRadioButton("Destination Hosts");
-    private JRadioButton sourceHosts = new JRadioButton("Source Hosts");
-    private JComboBox<Object> hostSelector = new JComboBox<Object>();
-    private ArrayList<String> sourceHostList = new ArrayList<String>();
-    private ArrayList<String> destHostList = new ArrayList<String>();
-    private DefaultComboBoxModel<Object> model = new DefaultComboBoxModel<Object>();
-    private JLabel volumeMax = new JLabel();
-    private JLabel volumeTotal = new JLabel();
-    private JLabel lengthTotal = new JLabel();
-
-    /**
-     * Creates an instance of a PacketVisualiser object on the EDT.
-     * @param args command line arguments not used
-     */
-    public static void main(String[] args) {
-        javax.swing.SwingUtilities.invokeLater(new Runnable() {
-            public void run() {
-                 new PacketVisualiser();
-            }
-        });
-    }
-
-    /**
-     * Constructs a <code>PacketVisualiser</code> object with default values.
-     * @author Michael Johnson
-     */
-    private PacketVisualiser() {
-        super("Network Packet Transmission Visualiser");
-        setSize(1000, 500);
-        setupActionListeners();
-        setJMenuBar(setupMenuBar());
-        add(setupMainPanel());
-        fileChooser.setFileFilter(new FileNameExtensionFilter("*.txt", "txt"));
-        setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-        setVisible(true);
-        setResizable(false);
-    }
-
-    private JPanel setupMainPanel() {
-        JPanel mainPanel = new JPanel();
-        mainPanel.setLayout(new FlowLayout(FlowLayout.LEFT, 0, 0));
-        mainPanel.add(setupRadioButtons());
-        mainPanel.add(setupComboBox());
-        mainPanel.add(setupSummaryPanel());
-        mainPanel.add(setupGraph());
-        return mainPanel;
-    }
-
-    private void setupActionListeners() {
-        sourceHosts.addActionListener(new ActionListener() {
-            @Override
-            public void actionPerformed(ActionEvent e) {
-                hostSelector.setModel(new DefaultComboBoxModel<Object>(sourceHostList.toArray()));
-                if (comboBoxPanel.isVisible()) {
-                    graphPanel.updateData(currentFile.hostPackets.get((String) hostSelector.getSelectedItem()));
-                    updateSummaryPanel();
-                }
-            }
-        });
-        destHosts.addActionListener(new ActionListener() {
-            @Override
-            public void actionPerformed(ActionEvent e) {
-                hostSelector.setModel(new DefaultComboBoxModel<Object>(destHostList.toArray()));
-                if (comboBoxPanel.isVisible()) {
-                    graphPanel.updateData(currentFile.hostPackets.get((String) hostSelector.getSelectedItem()));
-                    updateSummaryPanel();
-                }
-            }
-        });
-        openFile.addActionListener(new ActionListener() {
-            @Override
-            public void actionPerformed(ActionEvent e) {
-                sourceHostList.clear();
-                destHostList.clear();
-                hostSelector.removeAllItems();
-                int returnVal = fileChooser.showOpenDialog(PacketVisualiser.this);
-                if (returnVal == JFileChooser.APPROVE_OPTION) {
-                    newFile = fileChooser.getSelectedFile();
-                    currentFile = new TraceFile(newFile);
-                    sourceHostList = currentFile.getSourceHostList();
-                    destHostList = currentFile.getDestHostList();
-                    setupComboLists();
-                    graphPanel.updateData(currentFile.hostPackets.get((String) hostSelector.getSelectedItem()));
-                    updateSummaryPanel();
-                }
-            }
-        });
-        hostSelector.addActionListener(new ActionListener() {
-            @Override
-            public void actionPerformed(ActionEvent e) {
-                String addr = (String) hostSelector.getSelectedItem();
-                if (addr != null) {
-                    graphPanel.updateData(currentFile.hostPackets.get((String) hostSelector.getSelectedItem()));
-                    updateSummaryPanel();
-                }
-            }
-            @Override
-            public void actionPerformed(ActionEvent a) {
-                String addr = (String) hostSelector.getSelectedItem();
-                if (addr != null) {
-                    graphPanel.updateData(currentFile.hostPackets.get((String) hostSelector.getSelectedItem()));
-                    updateSummaryPanel();
-                }
-            }
-        });
-        savePDF.addActionListener(new ActionListener() {
-            @Override
-            public void actionPerformed(ActionEvent e) {
-                if (comboBoxPanel.isVisible()) {
-                    String imagePath = graphPanel.saveGraph(newFile.getParent(), (String) hostSelector.getSelectedItem());
-                    String message = "Your graph has been saved here: \n" + imagePath;
-                    JOptionPane.showMessageDialog(PacketVisualiser.this, message);
-                } else {
-                    JOptionPane.showMessageDialog(PacketVisualiser.this, "You must open a file first", "No Graph Available", JOptionPane.WARNING_MESSAGE);
-                }
-            }
-        });
-        quit.addActionListener(new ActionListener() {
-            @Override
-            public void actionPerformed(ActionEvent e) {
-                System.exit(0);
-            }
-        });
-    }
-
-    private JPanel setupRadioButtons() {
-        ButtonGroup radioButtonGroup = new ButtonGroup();
-        radioButtonGroup.add(sourceHosts);
-        radioButtonGroup.add(destHosts);
-        JPanel radioButtonPanel = new JPanel();
-        radioButtonPanel.add(sourceHosts);
-        radioButtonPanel.add(destHosts);
-        radioButtonPanel.setPreferredSize(new Dimension(175, 100));
-        radioButtonPanel.setLayout(new FlowLayout(FlowLayout.LEFT, 15, 15));
-        sourceHosts.setSelected(true);
-        return radioButtonPanel;
-    }
-
-    private JMenuBar setupMenuBar() {
-        JMenuBar menu = new JMenuBar();
-        JMenu file = new JMenu("File");
-        file.setMnemonic(KeyEvent.VK_F);
-        file.add(openFile);
-        file.add(savePDF);
-        file.add(quit);
-        menu.add(file);
-        return menu;
-    }
-
-    private JPanel setupComboBox() {
-        comboBoxPanel = new JPanel();
-        comboBoxPanel.add(hostSelector);
-        comboBoxPanel.setVisible(false);
-        hostSelector.setPreferredSize(new Dimension(250, 25));
-        comboBoxPanel.setAlignmentX(Component.LEFT_ALIGNMENT);
-        return comboBoxPanel;
-    }
-
-    private JPanel setupGraph() {
-        graphPanel = new PacketGrapher();
-        graphPanel.setPreferredSize(new Dimension(995, 350));
-        graphPanel.setBackground(Color.WHITE);
-        return graphPanel;
-    }
-
-    private JPanel setupSummaryPanel() {
-        summaryPanel = new JPanel();
-        summaryPanel.setPreferredSize(new Dimension(400, 100));
-        summaryPanel.setVisible(false);
-        summaryPanel.setAlignmentX(Component.RIGHT_ALIGNMENT);
-        return summaryPanel;
-    }
-
-    private void updateSummaryPanel() {
-        volumeMax.setText(String.format("Highest Transmission Volume:     %,d bytes", graphPanel.getMaxBytes()));
-        lengthTotal.setText(String.format("Total Transmission Time:               %d seconds (%.2f minutes)", graphPanel.getMaxSeconds(), graphPanel.getMaxSeconds() / 60.0));
-        volumeTotal.setText(String.format("Total Transmission Volume:          %,d bytes", graphPanel.getTotalBytes()));
-        summaryPanel.setLayout(new FlowLayout(FlowLayout.LEFT, 35, 12));
-        summaryPanel.add(volumeMax);
-        summaryPanel.add(lengthTotal);
-        summaryPanel.add(volumeTotal);
-        summaryPanel.setVisible(true);
-    }
-
-    private void setupComboLists() {
-        Comparator<String> ipAddr = new Comparator<String>() {
-            @Override
-            public int compare(String o1, String o2) {
-                String[] addr1 = o1.split("\\.");
-                String fAddr1 = String.format("%3s.%3s.%3s.%3s", addr1[0], addr1[1], addr1[2], addr1[3]);
-                String[] addr2 = o2.split("\\.");
-                String fAddr2 = String.format("%3s.%3s.%3s.%3s", addr2[0], addr2[1], addr2[2], addr2[3]);
-                return fAddr1.compareTo(fAddr2);
-            }
-        };
-        sourceHostList.sort(ipAddr);
-        destHostList.sort(ipAddr);
-        if (sourceHosts.isSelected()) {
-            model = new DefaultComboBoxModel<Object>(sourceHostList.toArray());
-        } else if (destHosts.isSelected()) {
-            model = new DefaultComboBoxModel<Object>(destHostList.toArray());
-        }
-        hostSelector.setModel(model);
-        comboBoxPanel.setVisible(true);
-    }
+import javax.swing.*;
+import javax.swing.event.TreeModelListener;
+import javax.swing.event.TreeSelectionEvent;
+import javax.swing.event.TreeSelectionListener;
+import javax.swing.filechooser.FileNameExtensionFilter;
+import javax.swing.tree.DefaultTreeCellRenderer;
+import javax.swing.tree.TreeModel;
+import javax.swing.tree.TreePath;
+import java.awt.*;
+import java.awt.event.*;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.io.File;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * @author Michael Johnson
+ */
+public class PacketVisualiser extends JFrame {
+    private static final long serialVersionUID = 1L;
+    private static final long SNAPSHOT_INTERVAL = 32L * 1024 * 1024;
+    private static final long FOLLOW_INTERVAL = 250;
+    private static final int TOP_PEERS = 20;
+    private static final String ALL_PEERS = "All Traffic";
+    private TraceFile currentFile;
+    private TraceSet currentSet;
+    private SwingWorker<?, LoadSnapshot> loader;
+    private SwingWorker<List<ConversationMatrix.Conversation>, Void> peerFinder;
+    private SwingWorker<PrefixTrie, Void> trieFinder;
+    private SwingWorker<HostGraph, Void> graphFinder;
+    private PacketDistribution shownDistribution;
+    private TraceFollower follower;
+    private volatile String watchedHost;
+    private volatile PrefixTrie.Prefix shownPrefix;
+    private volatile boolean watchSourceHosts = true;
+    private JPanel comboBoxPanel;
+    private JPanel summaryPanel;
+    private JPanel loadingPanel;
+    private JProgressBar loadingProgress = new JProgressBar(0, 1000);
+    private JLabel loadingRate = new JLabel();
+    private JButton cancelLoading = new JButton("Cancel");
+    private PacketGrapher graphPanel;
+    private JMenuItem openFile = new JMenuItem("Open Trace File");
+    private JMenuItem compareFiles = new JMenuItem("Compare Trace Files...");
+    private JMenuItem quit = new JMenuItem("Quit");
+    private JMenuItem savePDF = new JMenuItem("Save Graph to PNG");
+    private JCheckBoxMenuItem followFile = new JCheckBoxMenuItem("Follow File");
+    private JCheckBoxMenuItem keepIndex = new JCheckBoxMenuItem("Keep Index Files", true);
+    private JMenuItem indexDirectory = new JMenuItem("Set Index Directory...");
+    private JCheckBoxMenuItem showStats = new JCheckBoxMenuItem("Show Statistics");
+    private JCheckBoxMenuItem showDifference = new JCheckBoxMenuItem("Show Difference Between Traces");
+    private JMenuItem browsePrefixes = new JMenuItem("Browse by Network Prefix...");
+    private JDialog prefixBrowser;
+    private JTree prefixTree = new JTree((TreeModel) null);
+    private JMenuItem topHosts = new JMenuItem("Top Talkers Only...");
+    private JMenuItem loadFilter = new JMenuItem("Filter Packets...");
+    private JCheckBoxMenuItem offHeap = new JCheckBoxMenuItem("Keep Series Off-Heap");
+    private JCheckBoxMenuItem lazySeries = new JCheckBoxMenuItem("Fast Open (Build Series on Demand)");
+    private JMenuItem offHeapDirectory = new JMenuItem("Set Off-Heap Directory...");
+    private TraceOptions traceOptions = new TraceOptions();
+    private JFileChooser fileChooser = new JFileChooser();
+    private File newFile;
+    private JRadioButton destHosts = new JRadioButton("Destination Hosts");
+    private JRadioButton sourceHosts = new JRadioButton("Source Hosts");
+    private JComboBox<Object> hostSelector = new JComboBox<Object>();
+    private JComboBox<Object> peerSelector = new JComboBox<Object>();
+    private ArrayList<String> sourceHostList = new ArrayList<String>();
+    private ArrayList<String> destHostList = new ArrayList<String>();
+    private DefaultComboBoxModel<Object> model = new DefaultComboBoxModel<Object>();
+    private JLabel volumeMax = new JLabel();
+    private JLabel volumeTotal = new JLabel();
+    private JLabel lengthTotal = new JLabel();
+    private JLabel sizePercentiles = new JLabel();
+    private JLabel ratePercentiles = new JLabel();
+
+    /**
+     * Creates an instance of a PacketVisualiser object on the EDT.
+     * @param args command line arguments not used
+     */
+    public static void main(String[] args) {
+        javax.swing.SwingUtilities.invokeLater(new Runnable() {
+            public void run() {
+                 new PacketVisualiser();
+            }
+        });
+    }
+
+    /**
+     * Constructs a <code>PacketVisualiser</code> object with default values.
+     * @author Michael Johnson
+     */
+    private PacketVisualiser() {
+        super("Network Packet Transmission Visualiser");
+        setSize(1000, 500);
+        setupActionListeners();
+        setJMenuBar(setupMenuBar());
+        add(setupMainPanel());
+        fileChooser.setFileFilter(new FileNameExtensionFilter("*.txt", "txt"));
+        setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        setVisible(true);
+        setResizable(false);
+    }
+
+    private JPanel setupMainPanel() {
+        JPanel mainPanel = new JPanel();
+        mainPanel.setLayout(new FlowLayout(FlowLayout.LEFT, 0, 0));
+        mainPanel.add(setupRadioButtons());
+        mainPanel.add(setupComboBox());
+        mainPanel.add(setupSummaryPanel());
+        mainPanel.add(setupLoadingPanel());
+        mainPanel.add(setupGraph());
+        return mainPanel;
+    }
+
+    private void setupActionListeners() {
+        sourceHosts.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                watchSourceHosts = true;
+                hostSelector.setModel(new DefaultComboBoxModel<Object>(sourceHostList.toArray()));
+                if (comboBoxPanel.isVisible()) {
+                    showSelectedHost();
+                }
+            }
+        });
+        destHosts.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                watchSourceHosts = false;
+                hostSelector.setModel(new DefaultComboBoxModel<Object>(destHostList.toArray()));
+                if (comboBoxPanel.isVisible()) {
+                    showSelectedHost();
+                }
+            }
+        });
+        openFile.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                int returnVal = fileChooser.showOpenDialog(PacketVisualiser.this);
+                if (returnVal == JFileChooser.APPROVE_OPTION) {
+                    cancelLoad();
+                    newFile = fileChooser.getSelectedFile();
+                    loader = new TraceLoader(newFile, traceOptions);
+                    loadingProgress.setValue(0);
+                    loadingProgress.setString("Opening " + newFile.getName());
+                    loadingRate.setText(" ");
+                    loadingPanel.setVisible(true);
+                    loader.execute();
+                }
+            }
+        });
+        compareFiles.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                JFileChooser compareChooser = new JFileChooser(fileChooser.getCurrentDirectory());
+                compareChooser.setFileFilter(fileChooser.getFileFilter());
+                compareChooser.setMultiSelectionEnabled(true);
+                compareChooser.setDialogTitle("Choose two or more trace files to compare");
+                if (compareChooser.showOpenDialog(PacketVisualiser.this) != JFileChooser.APPROVE_OPTION) {
+                    return;
+                }
+                File[] files = compareChooser.getSelectedFiles();
+                if (files.length < 2) {
+                    JOptionPane.showMessageDialog(PacketVisualiser.this, "Please choose at least two trace files", "Compare Trace Files", JOptionPane.WARNING_MESSAGE);
+                    return;
+                }
+                Arrays.sort(files);
+                cancelLoad();
+                newFile = files[0];
+                loader = new TraceSetLoader(Arrays.asList(files), traceOptions);
+                loadingProgress.setValue(0);
+                loadingProgress.setString("Opening " + files.length + " traces");
+                loadingRate.setText(" ");
+                loadingPanel.setVisible(true);
+                loader.execute();
+            }
+        });
+        hostSelector.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                String addr = (String) hostSelector.getSelectedItem();
+                if (addr != null) {
+                    showSelectedHost();
+                }
+            }
+        });
+        peerSelector.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                showSelectedPeer();
+            }
+        });
+        savePDF.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                if (comboBoxPanel.isVisible()) {
+                    String imageName = (String) hostSelector.getSelectedItem();
+                    if (shownPrefix != null) {
+                        imageName = shownPrefix.toString().replace('/', '_');
+                    } else if (peerSelector.getSelectedItem() instanceof ConversationMatrix.Conversation) {
+                        ConversationMatrix.Conversation conversation = (ConversationMatrix.Conversation) peerSelector.getSelectedItem();
+                        imageName = conversation.getSourceAddr() + "_to_" + conversation.getDestAddr();
+                    }
+                    String imagePath = graphPanel.saveGraph(newFile.getParent(), imageName);
+                    String message = "Your graph has been saved here: \n" + imagePath;
+                    JOptionPane.showMessageDialog(PacketVisualiser.this, message);
+                } else {
+                    JOptionPane.showMessageDialog(PacketVisualiser.this, "You must open a file first", "No Graph Available", JOptionPane.WARNING_MESSAGE);
+                }
+            }
+        });
+        followFile.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                if (followFile.isSelected() && currentFile != null) {
+                    startFollowing();
+                } else {
+                    stopFollowing();
+                }
+            }
+        });
+        keepIndex.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                traceOptions.setIndexEnabled(keepIndex.isSelected());
+            }
+        });
+        indexDirectory.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                JFileChooser directoryChooser = new JFileChooser(traceOptions.getIndexDirectory());
+                directoryChooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+                directoryChooser.setDialogTitle("Keep index files in (cancel to keep them next to each trace)");
+                if (directoryChooser.showOpenDialog(PacketVisualiser.this) == JFileChooser.APPROVE_OPTION) {
+                    traceOptions.setIndexDirectory(directoryChooser.getSelectedFile());
+                } else {
+                    traceOptions.setIndexDirectory(null);
+                }
+            }
+        });
+        topHosts.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                String message = "Keep series only for this many of the heaviest source and destination hosts\n"
+                        + "when opening a trace (0 keeps every host):";
+                Object input = JOptionPane.showInputDialog(PacketVisualiser.this, message, "Top Talkers",
+                        JOptionPane.QUESTION_MESSAGE, null, null, traceOptions.getTopHosts());
+                if (input != null) {
+                    try {
+                        traceOptions.setTopHosts(Integer.parseInt(input.toString().trim()));
+                    } catch (NumberFormatException ex) {
+                        JOptionPane.showMessageDialog(PacketVisualiser.this, "Please enter a whole number", "Top Talkers", JOptionPane.WARNING_MESSAGE);
+                    }
+                }
+            }
+        });
+        loadFilter.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                String message = "Only load packets matching this filter when opening a trace (empty loads every packet),\n"
+                        + "for example: src in 10.1.0.0/16 and size > 1000 and t between 100 and 400";
+                TraceFilter current = traceOptions.getFilter();
+                Object input = JOptionPane.showInputDialog(PacketVisualiser.this, message, "Filter Packets",
+                        JOptionPane.QUESTION_MESSAGE, null, null, current == null ? "" : current.getExpression());
+                if (input == null) {
+                    return;
+                }
+                if (input.toString().trim().isEmpty()) {
+                    traceOptions.setFilter(null);
+                    return;
+                }
+                try {
+                    traceOptions.setFilter(TraceFilter.compile(input.toString()));
+                } catch (IllegalArgumentException ex) {
+                    JOptionPane.showMessageDialog(PacketVisualiser.this, ex.getMessage(), "Filter Packets", JOptionPane.WARNING_MESSAGE);
+                }
+            }
+        });
+        lazySeries.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                traceOptions.setLazySeries(lazySeries.isSelected());
+            }
+        });
+        offHeap.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                traceOptions.setOffHeap(offHeap.isSelected());
+            }
+        });
+        offHeapDirectory.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                JFileChooser directoryChooser = new JFileChooser(traceOptions.getOffHeapDirectory());
+                directoryChooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+                directoryChooser.setDialogTitle("Map off-heap series from a file in (cancel to keep them in memory)");
+                if (directoryChooser.showOpenDialog(PacketVisualiser.this) == JFileChooser.APPROVE_OPTION) {
+                    traceOptions.setOffHeapDirectory(directoryChooser.getSelectedFile());
+                } else {
+                    traceOptions.setOffHeapDirectory(null);
+                }
+            }
+        });
+        showDifference.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                if (currentSet != null && comboBoxPanel.isVisible()) {
+                    showSelectedHost();
+                }
+            }
+        });
+        browsePrefixes.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                if (currentFile == null) {
+                    JOptionPane.showMessageDialog(PacketVisualiser.this, "You must open a single trace file first", "No Prefixes Available", JOptionPane.WARNING_MESSAGE);
+                    return;
+                }
+                findPrefixTrie(currentFile, null);
+            }
+        });
+        showStats.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                TraceMetrics.get().setEnabled(showStats.isSelected());
+                graphPanel.setStatsVisible(showStats.isSelected());
+            }
+        });
+        cancelLoading.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                cancelLoad();
+            }
+        });
+        quit.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                System.exit(0);
+            }
+        });
+    }
+
+    private JPanel setupRadioButtons() {
+        ButtonGroup radioButtonGroup = new ButtonGroup();
+        radioButtonGroup.add(sourceHosts);
+        radioButtonGroup.add(destHosts);
+        JPanel radioButtonPanel = new JPanel();
+        radioButtonPanel.add(sourceHosts);
+        radioButtonPanel.add(destHosts);
+        radioButtonPanel.setPreferredSize(new Dimension(175, 100));
+        radioButtonPanel.setLayout(new FlowLayout(FlowLayout.LEFT, 15, 15));
+        sourceHosts.setSelected(true);
+        return radioButtonPanel;
+    }
+
+    private JMenuBar setupMenuBar() {
+        JMenuBar menu = new JMenuBar();
+        JMenu file = new JMenu("File");
+        file.setMnemonic(KeyEvent.VK_F);
+        file.add(openFile);
+        file.add(compareFiles);
+        file.add(savePDF);
+        file.add(followFile);
+        file.addSeparator();
+        file.add(keepIndex);
+        file.add(indexDirectory);
+        file.add(topHosts);
+        file.add(loadFilter);
+        file.add(lazySeries);
+        file.add(offHeap);
+        file.add(offHeapDirectory);
+        file.addSeparator();
+        file.add(quit);
+        menu.add(file);
+        JMenu view = new JMenu("View");
+        view.setMnemonic(KeyEvent.VK_V);
+        view.add(showStats);
+        view.add(showDifference);
+        view.add(browsePrefixes);
+        menu.add(view);
+        return menu;
+    }
+
+    private JPanel setupComboBox() {
+        comboBoxPanel = new JPanel();
+        comboBoxPanel.add(hostSelector);
+        comboBoxPanel.add(peerSelector);
+        comboBoxPanel.setPreferredSize(new Dimension(260, 100));
+        comboBoxPanel.setVisible(false);
+        hostSelector.setPreferredSize(new Dimension(250, 25));
+        peerSelector.setPreferredSize(new Dimension(250, 25));
+        peerSelector.setRenderer(new DefaultListCellRenderer() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean isSelected, boolean cellHasFocus) {
+                if (value instanceof ConversationMatrix.Conversation) {
+                    ConversationMatrix.Conversation conversation = (ConversationMatrix.Conversation) value;
+                    boolean sent = conversation.getSourceAddr().equals(hostSelector.getSelectedItem());
+                    value = String.format("%s %s  %s, %,d packets", sent ? "\u2192" : "\u2190",
+                            sent ? conversation.getDestAddr() : conversation.getSourceAddr(),
+                            formatBytes(conversation.getBytes()), conversation.getPackets());
+                }
+                return super.getListCellRendererComponent(list, value, index, isSelected, cellHasFocus);
+            }
+        });
+        hostSelector.setRenderer(new DefaultListCellRenderer() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean isSelected, boolean cellHasFocus) {
+                HeavyHitters.Hitter hitter = null;
+                if (currentFile != null && value instanceof String) {
+                    hitter = currentFile.getTopHost((String) value, sourceHosts.isSelected() ? HostDictionary.SOURCE : HostDictionary.DEST);
+                }
+                if (hitter != null) {
+                    value = String.format("#%d  %s  ~%.1f%%", hitter.getRank(), value, 100 * hitter.getShare());
+                }
+                return super.getListCellRendererComponent(list, value, index, isSelected, cellHasFocus);
+            }
+        });
+        comboBoxPanel.setAlignmentX(Component.LEFT_ALIGNMENT);
+        return comboBoxPanel;
+    }
+
+    private JPanel setupGraph() {
+        graphPanel = new PacketGrapher();
+        graphPanel.setPreferredSize(new Dimension(995, 350));
+        graphPanel.setBackground(Color.WHITE);
+        PropertyChangeListener summaryUpdater = new PropertyChangeListener() {
+            @Override
+            public void propertyChange(PropertyChangeEvent evt) {
+                if (currentFile != null || currentSet != null) {
+                    updateSummaryPanel();
+                }
+            }
+        };
+        graphPanel.addPropertyChangeListener("graphData", summaryUpdater);
+        graphPanel.addPropertyChangeListener("timeWindow", summaryUpdater);
+        return graphPanel;
+    }
+
+    private JPanel setupSummaryPanel() {
+        summaryPanel = new JPanel();
+        summaryPanel.setPreferredSize(new Dimension(400, 100));
+        summaryPanel.setVisible(false);
+        summaryPanel.setAlignmentX(Component.RIGHT_ALIGNMENT);
+        return summaryPanel;
+    }
+
+    private JPanel setupLoadingPanel() {
+        loadingPanel = new JPanel();
+        loadingPanel.setPreferredSize(new Dimension(400, 100));
+        loadingPanel.setLayout(new FlowLayout(FlowLayout.LEFT, 15, 10));
+        loadingProgress.setPreferredSize(new Dimension(260, 20));
+        loadingProgress.setStringPainted(true);
+        loadingPanel.add(loadingProgress);
+        loadingPanel.add(cancelLoading);
+        loadingPanel.add(loadingRate);
+        loadingPanel.setVisible(false);
+        return loadingPanel;
+    }
+
+    private void showSelectedHost() {
+        String addr = (String) hostSelector.getSelectedItem();
+        watchedHost = addr;
+        shownPrefix = null;
+        if (currentSet != null && addr != null) {
+            DefaultComboBoxModel<Object> peers = new DefaultComboBoxModel<Object>();
+            peers.addElement(ALL_PEERS);
+            peerSelector.setModel(peers);
+            graphPanel.compareData(currentSet.getSeries(addr), currentSet.getNames(), showDifference.isSelected());
+            updateSummaryPanel();
+        } else if (currentFile != null && addr != null) {
+            DefaultComboBoxModel<Object> peers = new DefaultComboBoxModel<Object>();
+            peers.addElement(ALL_PEERS);
+            peerSelector.setModel(peers);
+            findTopPeers(currentFile, addr, watchSourceHosts ? HostDictionary.SOURCE : HostDictionary.DEST, peers);
+            findGraphData(currentFile, addr, null);
+        }
+    }
+
+    /**
+     * Reads the graphing data of a host, or of one of its conversations, off the EDT and shows it once it is ready
+     * if the host is still the one selected, with a placeholder in the graph meanwhile. A trace whose series are
+     * built on demand reads all of a host's lines from the trace file to build it, and a trace reopened from its
+     * index reads its packets to build a conversation, so either could otherwise freeze the window.
+     */
+    private void findGraphData(final TraceFile trace, final String addr, final ConversationMatrix.Conversation conversation) {
+        if (graphFinder != null) {
+            graphFinder.cancel(false);
+        }
+        final boolean copy = follower != null;
+        shownDistribution = null;
+        graphPanel.showPlaceholder("Reading " + (conversation == null ? addr : conversation.getSourceAddr() + " \u2192 " + conversation.getDestAddr()) + "...");
+        graphFinder = new SwingWorker<HostGraph, Void>() {
+            @Override
+            protected HostGraph doInBackground() {
+                if (conversation != null) {
+                    return new HostGraph(trace.getConversationSeries(conversation.getSourceAddr(), conversation.getDestAddr()), null);
+                }
+                SeriesView graphData = copy ? trace.copyGraphData(addr) : trace.hostPackets.get(addr);
+                return new HostGraph(graphData, trace.getDistribution(addr));
+            }
+
+            @Override
+            protected void done() {
+                if (isCancelled() || graphFinder != this || currentFile != trace || shownPrefix != null || !addr.equals(hostSelector.getSelectedItem())) {
+                    return;
+                }
+                HostGraph graph;
+                try {
+                    graph = get();
+                } catch (InterruptedException | ExecutionException e) {
+                    e.printStackTrace();
+                    return;
+                }
+                shownDistribution = graph.distribution;
+                graphPanel.updateData(graph.graphData);
+                updateSummaryPanel();
+            }
+        };
+        graphFinder.execute();
+    }
+
+    /**
+     * Finds a host's heaviest peers off the EDT, since the trace may be locked while a followed trace reads new
+     * lines, and adds them to the peer list once they are found if the host is still the one shown.
+     */
+    private void findTopPeers(final TraceFile trace, final String addr, final int role, final DefaultComboBoxModel<Object> peers) {
+        if (peerFinder != null) {
+            peerFinder.cancel(false);
+        }
+        peerFinder = new SwingWorker<List<ConversationMatrix.Conversation>, Void>() {
+            @Override
+            protected List<ConversationMatrix.Conversation> doInBackground() {
+                return trace.getTopPeers(addr, role, TOP_PEERS);
+            }
+
+            @Override
+            protected void done() {
+                if (isCancelled() || peerFinder != this || currentFile != trace || peerSelector.getModel() != peers) {
+                    return;
+                }
+                try {
+                    for (ConversationMatrix.Conversation conversation : get()) {
+                        peers.addElement(conversation);
+                    }
+                } catch (InterruptedException | ExecutionException e) {
+                    e.printStackTrace();
+                }
+            }
+        };
+        peerFinder.execute();
+    }
+
+    private void showSelectedPeer() {
+        Object peer = peerSelector.getSelectedItem();
+        if (currentFile == null || peer == null) {
+            return;
+        }
+        shownPrefix = null;
+        String addr = (String) hostSelector.getSelectedItem();
+        if (addr != null) {
+            findGraphData(currentFile, addr, peer instanceof ConversationMatrix.Conversation ? (ConversationMatrix.Conversation) peer : null);
+        }
+    }
+
+    private void startFollowing() {
+        stopFollowing();
+        final TraceFile trace = currentFile;
+        final long startTime = System.nanoTime();
+        final int hostCount = trace.getHosts().size();
+        follower = new TraceFollower(trace, FOLLOW_INTERVAL, new TraceFile.LoadListener() {
+            private int lastHostCount = hostCount;
+            private String publishedHost;
+            private HostSeries followedSeries;
+
+            @Override
+            public void loadProgress(TraceFile partial, long bytesRead, long totalBytes) {
+                boolean newHosts = partial.getHosts().size() != lastHostCount;
+                lastHostCount = partial.getHosts().size();
+                final LoadSnapshot snapshot = takeSnapshot(partial, newHosts, true, publishedHost, bytesRead, totalBytes, System.nanoTime() - startTime);
+                publishedHost = snapshot.graphData instanceof HostSeries || snapshot.graphChanges != null ? snapshot.hostAddr : null;
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (snapshot.graphChanges != null) {
+                            followedSeries.applyChanges(snapshot.graphChanges);
+                            snapshot.graphData = followedSeries;
+                        } else {
+                            followedSeries = snapshot.graphData instanceof HostSeries ? (HostSeries) snapshot.graphData : null;
+                        }
+                        if (currentFile == trace && follower != null) {
+                            showSnapshot(snapshot, true);
+                        }
+                    }
+                });
+            }
+        }, new TraceFollower.ErrorListener() {
+            @Override
+            public void followFailed(final TraceFollower failed, final RuntimeException e) {
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (follower == failed) {
+                            follower = null;
+                            followFile.setSelected(false);
+                            JOptionPane.showMessageDialog(PacketVisualiser.this, "Stopped following the file: " + e,
+                                    "Follow File", JOptionPane.ERROR_MESSAGE);
+                        }
+                    }
+                });
+            }
+        });
+        follower.start();
+    }
+
+    private void stopFollowing() {
+        if (follower != null) {
+            follower.stop();
+            follower = null;
+        }
+    }
+
+    private void cancelLoad() {
+        stopFollowing();
+        if (loader != null && !loader.isDone()) {
+            loader.cancel(true);
+        }
+        TraceFile closing = currentFile;
+        TraceSet closingSet = currentSet;
+        if (peerFinder != null) {
+            peerFinder.cancel(false);
+            peerFinder = null;
+        }
+        if (trieFinder != null) {
+            trieFinder.cancel(false);
+            trieFinder = null;
+        }
+        if (graphFinder != null) {
+            graphFinder.cancel(false);
+            graphFinder = null;
+        }
+        shownDistribution = null;
+        loader = null;
+        currentFile = null;
+        currentSet = null;
+        watchedHost = null;
+        shownPrefix = null;
+        if (prefixBrowser != null) {
+            prefixBrowser.setVisible(false);
+            prefixTree.setModel(null);
+        }
+        sourceHostList.clear();
+        destHostList.clear();
+        hostSelector.removeAllItems();
+        peerSelector.removeAllItems();
+        comboBoxPanel.setVisible(false);
+        summaryPanel.setVisible(false);
+        loadingPanel.setVisible(false);
+        graphPanel.clearData();
+        if (closing != null) {
+            closing.close();
+        }
+        if (closingSet != null) {
+            closingSet.close();
+        }
+    }
+
+    private void updateSummaryPanel() {
+        double windowStart = graphPanel.getWindowStart() / 1000000.0;
+        double windowEnd = graphPanel.getWindowEnd() / 1000000.0;
+        long[] comparedTotals = graphPanel.getComparedTotalBytes();
+        if (comparedTotals != null && showDifference.isSelected()) {
+            volumeMax.setText(String.format("Largest Change in Volume:     %,d bytes per %s", graphPanel.getMaxBytes(), graphPanel.getBinWidth()));
+        } else {
+            volumeMax.setText(String.format("Highest Transmission Volume:     %,d bytes per %s", graphPanel.getMaxBytes(), graphPanel.getBinWidth()));
+        }
+        lengthTotal.setText(String.format("Time Window:               %.3f to %.3f seconds (%.2f minutes)", windowStart, windowEnd, (windowEnd - windowStart) / 60.0));
+        if (comparedTotals != null) {
+            StringBuilder totals = new StringBuilder();
+            for (long total : comparedTotals) {
+                totals.append(totals.length() == 0 ? "" : " / ").append(String.format("%,d", total));
+            }
+            volumeTotal.setText("Total Transmission Volume:          " + totals + " bytes");
+        } else {
+            volumeTotal.setText(String.format("Total Transmission Volume:          %,d bytes", graphPanel.getTotalBytes()));
+        }
+        summaryPanel.setLayout(new FlowLayout(FlowLayout.LEFT, 35, 3));
+        summaryPanel.add(volumeMax);
+        summaryPanel.add(lengthTotal);
+        summaryPanel.add(volumeTotal);
+        PacketDistribution distribution = getSelectedDistribution();
+        if (distribution != null && distribution.getPacketCount() > 0) {
+            sizePercentiles.setText(String.format("Packet Size p50 / p95 / p99:        %,d / %,d / %,d bytes",
+                    distribution.getSizePercentile(50), distribution.getSizePercentile(95), distribution.getSizePercentile(99)));
+            ratePercentiles.setText("Throughput p50 / p95 / p99:          " + formatBytes(distribution.getRatePercentile(50)) + "/s / "
+                    + formatBytes(distribution.getRatePercentile(95)) + "/s / " + formatBytes(distribution.getRatePercentile(99)) + "/s");
+            summaryPanel.add(sizePercentiles);
+            summaryPanel.add(ratePercentiles);
+        } else {
+            summaryPanel.remove(sizePercentiles);
+            summaryPanel.remove(ratePercentiles);
+        }
+        summaryPanel.revalidate();
+        summaryPanel.setVisible(true);
+    }
+
+    /**
+     * Gets the distribution of the selected host's packet sizes and throughput over the whole trace, as it was read
+     * along with the host's graphing data, so the summary never has to wait on the trace.
+     * @return the <code>PacketDistribution</code>, or null when traces are compared, a prefix or conversation is
+     * shown or the trace keeps no distributions
+     */
+    private PacketDistribution getSelectedDistribution() {
+        String addr = (String) hostSelector.getSelectedItem();
+        if (currentFile == null || currentSet != null || addr == null || shownPrefix != null || peerSelector.getSelectedItem() instanceof ConversationMatrix.Conversation) {
+            return null;
+        }
+        return shownDistribution;
+    }
+
+    /**
+     * Shows the hosts of the current trace grouped by /8, /16 and /24 network prefix in a tree beside the main
+     * window. Choosing a prefix graphs the combined traffic of its hosts, which the trace has already summed, and
+     * choosing a host selects it as if it had been picked from the host list.
+     */
+    private void showPrefixBrowser(PrefixTrie trie) {
+        if (prefixBrowser == null) {
+            prefixBrowser = new JDialog(this, "Network Prefixes", false);
+            prefixTree.setRootVisible(true);
+            prefixTree.setCellRenderer(new DefaultTreeCellRenderer() {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                public Component getTreeCellRendererComponent(JTree tree, Object value, boolean selected, boolean expanded, boolean leaf, int row, boolean hasFocus) {
+                    if (value instanceof PrefixTrie.Prefix) {
+                        PrefixTrie.Prefix prefix = (PrefixTrie.Prefix) value;
+                        value = String.format("%s  %s, %,d hosts", prefix, formatBytes(prefix.getTotalBytes()), prefix.getHostCount());
+                    }
+                    return super.getTreeCellRendererComponent(tree, value, selected, expanded, leaf, row, hasFocus);
+                }
+            });
+            prefixTree.addTreeSelectionListener(new TreeSelectionListener() {
+                @Override
+                public void valueChanged(TreeSelectionEvent e) {
+                    TreePath path = e.getNewLeadSelectionPath();
+                    if (path == null || currentFile == null) {
+                        return;
+                    }
+                    Object node = path.getLastPathComponent();
+                    if (node instanceof PrefixTrie.Prefix) {
+                        findPrefixTrie(currentFile, (PrefixTrie.Prefix) node);
+                    } else {
+                        showHostFromTree((String) node);
+                    }
+                }
+            });
+            JScrollPane scroller = new JScrollPane(prefixTree);
+            scroller.setPreferredSize(new Dimension(340, 450));
+            prefixBrowser.add(scroller);
+            prefixBrowser.pack();
+            prefixBrowser.setLocation(getX() + getWidth(), getY());
+        }
+        if (prefixTree.getModel() == null || prefixTree.getModel().getRoot() != trie.getRoot()) {
+            prefixTree.setModel(createPrefixTreeModel(trie));
+        }
+        prefixBrowser.setVisible(true);
+    }
+
+    private TreeModel createPrefixTreeModel(final PrefixTrie trie) {
+        return new TreeModel() {
+            @Override
+            public Object getRoot() {
+                return trie.getRoot();
+            }
+
+            @Override
+            public Object getChild(Object parent, int index) {
+                PrefixTrie.Prefix prefix = (PrefixTrie.Prefix) parent;
+                return prefix.holdsHosts() ? prefix.getHostAddr(index) : prefix.getChild(index);
+            }
+
+            @Override
+            public int getChildCount(Object parent) {
+                return parent instanceof PrefixTrie.Prefix ? ((PrefixTrie.Prefix) parent).getChildCount() : 0;
+            }
+
+            @Override
+            public boolean isLeaf(Object node) {
+                return !(node instanceof PrefixTrie.Prefix);
+            }
+
+            @Override
+            public int getIndexOfChild(Object parent, Object child) {
+                if (!(parent instanceof PrefixTrie.Prefix)) {
+                    return -1;
+                }
+                for (int i = 0; i < getChildCount(parent); i++) {
+                    if (getChild(parent, i).equals(child)) {
+                        return i;
+                    }
+                }
+                return -1;
+            }
+
+            @Override
+            public void valueForPathChanged(TreePath path, Object newValue) {
+            }
+
+            @Override
+            public void addTreeModelListener(TreeModelListener l) {
+            }
+
+            @Override
+            public void removeTreeModelListener(TreeModelListener l) {
+            }
+        };
+    }
+
+    /**
+     * Fetches a trace's prefix trie off the EDT, since the trie is built from every host's series the first time the
+     * browser is opened and again after a followed trace reads new lines. Once it is ready, and if the trace is still
+     * the one shown, either the browser is opened or, when a prefix was chosen in the tree, that prefix is graphed.
+     */
+    private void findPrefixTrie(final TraceFile trace, final PrefixTrie.Prefix chosen) {
+        if (trieFinder != null) {
+            trieFinder.cancel(false);
+        }
+        trieFinder = new SwingWorker<PrefixTrie, Void>() {
+            @Override
+            protected PrefixTrie doInBackground() {
+                return trace.getPrefixTrie();
+            }
+
+            @Override
+            protected void done() {
+                if (isCancelled() || trieFinder != this || currentFile != trace) {
+                    return;
+                }
+                PrefixTrie trie;
+                try {
+                    trie = get();
+                } catch (InterruptedException | ExecutionException e) {
+                    e.printStackTrace();
+                    return;
+                }
+                if (trie == null) {
+                    JOptionPane.showMessageDialog(PacketVisualiser.this, "Network prefixes need every host's series, so are not available\n"
+                            + "for traces opened with Fast Open or Top Talkers Only", "No Prefixes Available", JOptionPane.WARNING_MESSAGE);
+                } else if (chosen == null) {
+                    showPrefixBrowser(trie);
+                } else {
+                    showPrefix(trie, chosen);
+                }
+            }
+        };
+        trieFinder.execute();
+    }
+
+    /**
+     * Graphs a prefix chosen in the tree from the current trie, which may have been rebuilt if lines have been
+     * appended to a followed trace since the tree was shown.
+     */
+    private void showPrefix(PrefixTrie trie, PrefixTrie.Prefix prefix) {
+        PrefixTrie.Prefix current = trie.find(prefix.getAddress(), prefix.getLength());
+        if (current == null) {
+            return;
+        }
+        shownPrefix = current;
+        graphPanel.updateData(current.getSeries());
+        updateSummaryPanel();
+    }
+
+    private void showHostFromTree(String addr) {
+        if (sourceHosts.isSelected() && !sourceHostList.contains(addr)) {
+            destHosts.doClick();
+        } else if (destHosts.isSelected() && !destHostList.contains(addr)) {
+            sourceHosts.doClick();
+        }
+        selectHost(addr);
+        if (shownPrefix != null) {
+            showSelectedHost();
+        }
+    }
+
+    private void setupComboLists() {
+        if (sourceHosts.isSelected()) {
+            model = new DefaultComboBoxModel<Object>(sourceHostList.toArray());
+        } else if (destHosts.isSelected()) {
+            model = new DefaultComboBoxModel<Object>(destHostList.toArray());
+        }
+        hostSelector.setModel(model);
+        comboBoxPanel.setVisible(true);
+    }
+
+    /**
+     * Copies what the EDT needs to show a trace that is being loaded or followed. The watched host's series is
+     * copied whole unless the same host's series was published by the previous snapshot of a followed trace, in
+     * which case only the bins that have changed since are copied.
+     */
+    private LoadSnapshot takeSnapshot(TraceFile partial, boolean withHostLists, boolean withDistribution, String publishedHost, long bytesRead, long totalBytes, long nanosElapsed) {
+        ArrayList<String> sources = withHostLists ? partial.getSourceHostList() : null;
+        ArrayList<String> dests = withHostLists ? partial.getDestHostList() : null;
+        String host = watchedHost;
+        if ((host == null || !partial.hostPackets.containsKey(host)) && withHostLists) {
+            ArrayList<String> shown = watchSourceHosts ? sources : dests;
+            host = shown.isEmpty() ? null : shown.get(0);
+        }
+        HostSeries graphChanges = host != null && host.equals(publishedHost) ? partial.copyGraphChanges(host) : null;
+        SeriesView graphData = host == null || graphChanges != null ? null : partial.copyGraphData(host);
+        PacketDistribution distribution = host != null && withDistribution ? partial.getDistribution(host) : null;
+        return new LoadSnapshot(sources, dests, host, graphData, graphChanges, distribution, bytesRead, totalBytes, nanosElapsed);
+    }
+
+    private void showSnapshot(LoadSnapshot snapshot, boolean streamed) {
+        if (snapshot.sourceHostList != null) {
+            String selected = watchedHost != null ? watchedHost : snapshot.hostAddr;
+            sourceHostList = snapshot.sourceHostList;
+            destHostList = snapshot.destHostList;
+            setupComboLists();
+            selectHost(selected);
+        }
+        if (snapshot.graphData != null && snapshot.hostAddr.equals(hostSelector.getSelectedItem()) && shownPrefix == null
+                && !(peerSelector.getSelectedItem() instanceof ConversationMatrix.Conversation)) {
+            if (streamed) {
+                shownDistribution = snapshot.distribution;
+                graphPanel.streamData(snapshot.graphData);
+            } else {
+                graphPanel.updateData(snapshot.graphData);
+            }
+        }
+    }
+
+    private void selectHost(String hostAddr) {
+        if (hostAddr != null && ((DefaultComboBoxModel<Object>) hostSelector.getModel()).getIndexOf(hostAddr) >= 0) {
+            hostSelector.setSelectedItem(hostAddr);
+        }
+    }
+
+    private void showLoadProgress(LoadSnapshot latest) {
+        double seconds = Math.max(1e-9, latest.nanosElapsed / 1e9);
+        loadingProgress.setValue((int) (1000 * latest.bytesRead / Math.max(1, latest.totalBytes)));
+        loadingProgress.setString(formatBytes(latest.bytesRead) + " of " + formatBytes(latest.totalBytes));
+        loadingRate.setText(formatBytes(latest.bytesRead / seconds) + "/s");
+    }
+
+    private static String formatBytes(double bytes) {
+        if (bytes >= 1024 * 1024 * 1024) {
+            return String.format("%.1f GB", bytes / (1024 * 1024 * 1024));
+        } else if (bytes >= 1024 * 1024) {
+            return String.format("%.1f MB", bytes / (1024 * 1024));
+        } else if (bytes >= 1024) {
+            return String.format("%.1f KB", bytes / 1024);
+        }
+        return String.format("%.0f bytes", bytes);
+    }
+
+    private static class LoadSnapshot {
+        private ArrayList<String> sourceHostList;
+        private ArrayList<String> destHostList;
+        private String hostAddr;
+        private SeriesView graphData;
+        private HostSeries graphChanges;
+        private PacketDistribution distribution;
+        private long bytesRead;
+        private long totalBytes;
+        private long nanosElapsed;
+
+        /**
+         * Constructs a <code>LoadSnapshot</code> object for the given parameters.
+         * @param sourceHostList    the sorted source host IP addresses seen so far
+         * @param destHostList      the sorted destination host IP addresses seen so far
+         * @param hostAddr          the host whose graphing data was copied, or null
+         * @param graphData         a copy of the host's graphing data, or null
+         * @param graphChanges      the bins of the host's graphing data changed since the last snapshot, or null
+         * @param distribution      a copy of the host's distribution, or null if it was not taken
+         * @param bytesRead         the number of bytes parsed so far
+         * @param totalBytes        the size of the file in bytes
+         * @param nanosElapsed      the time spent loading so far in nanoseconds
+         */
+        private LoadSnapshot(ArrayList<String> sourceHostList, ArrayList<String> destHostList, String hostAddr, SeriesView graphData, HostSeries graphChanges, PacketDistribution distribution, long bytesRead, long totalBytes, long nanosElapsed) {
+            this.sourceHostList = sourceHostList;
+            this.destHostList = destHostList;
+            this.hostAddr = hostAddr;
+            this.graphData = graphData;
+            this.graphChanges = graphChanges;
+            this.distribution = distribution;
+            this.bytesRead = bytesRead;
+            this.totalBytes = totalBytes;
+            this.nanosElapsed = nanosElapsed;
+        }
+    }
+
+    private static class HostGraph {
+        private SeriesView graphData;
+        private PacketDistribution distribution;
+
+        /**
+         * Constructs a <code>HostGraph</code> object for the given parameters.
+         * @param graphData     the graphing data of the host or conversation, or null if it has none
+         * @param distribution  a copy of the host's distribution, or null for a conversation or a host without one
+         */
+        private HostGraph(SeriesView graphData, PacketDistribution distribution) {
+            this.graphData = graphData;
+            this.distribution = distribution;
+        }
+    }
+
+    private class TraceLoader extends SwingWorker<TraceFile, LoadSnapshot> {
+        private File traceFile;
+        private TraceOptions options;
+        private long startTime;
+        private long lastSnapshot;
+
+        /**
+         * Constructs a <code>TraceLoader</code> object that loads the given file off the EDT.
+         * @param traceFile   the file to load
+         * @param options     the <code>TraceOptions</code> to load it with
+         */
+        private TraceLoader(File traceFile, TraceOptions options) {
+            this.traceFile = traceFile;
+            this.options = options;
+        }
+
+        @Override
+        protected TraceFile doInBackground() {
+            startTime = System.nanoTime();
+            lastSnapshot = -SNAPSHOT_INTERVAL;
+            TraceFile trace = new TraceFile(traceFile, new TraceFile.LoadListener() {
+                @Override
+                public void loadProgress(TraceFile partial, long bytesRead, long totalBytes) {
+                    setProgress((int) (100 * bytesRead / Math.max(1, totalBytes)));
+                    if (bytesRead - lastSnapshot >= SNAPSHOT_INTERVAL) {
+                        lastSnapshot = bytesRead;
+                        publish(takeSnapshot(partial, true, false, null, bytesRead, totalBytes, System.nanoTime() - startTime));
+                    } else {
+                        publish(new LoadSnapshot(null, null, null, null, null, null, bytesRead, totalBytes, System.nanoTime() - startTime));
+                    }
+                }
+            }, options);
+            return trace;
+        }
+
+        @Override
+        protected void process(List<LoadSnapshot> snapshots) {
+            if (isCancelled() || loader != this) {
+                return;
+            }
+            for (LoadSnapshot snapshot : snapshots) {
+                if (snapshot.sourceHostList != null) {
+                    showSnapshot(snapshot, false);
+                }
+            }
+            showLoadProgress(snapshots.get(snapshots.size() - 1));
+        }
+
+        @Override
+        protected void done() {
+            if (isCancelled() || loader != this) {
+                return;
+            }
+            loadingPanel.setVisible(false);
+            try {
+                currentFile = get();
+            } catch (InterruptedException | ExecutionException e) {
+                cancelLoad();
+                JOptionPane.showMessageDialog(PacketVisualiser.this, "The trace file could not be loaded: \n" + e.getCause(), "Loading Failed", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            String selected = watchedHost;
+            sourceHostList = currentFile.getSourceHostList();
+            destHostList = currentFile.getDestHostList();
+            setupComboLists();
+            selectHost(selected);
+            if (followFile.isSelected()) {
+                startFollowing();
+            }
+            showSelectedHost();
+        }
+    }
+
+    private class TraceSetLoader extends SwingWorker<TraceSet, LoadSnapshot> {
+        private List<File> traceFiles;
+        private TraceOptions options;
+        private long startTime;
+
+        /**
+         * Constructs a <code>TraceSetLoader</code> object that loads the given files together off the EDT.
+         * @param traceFiles    the files to load and compare
+         * @param options       the <code>TraceOptions</code> to load them with
+         */
+        private TraceSetLoader(List<File> traceFiles, TraceOptions options) {
+            this.traceFiles = traceFiles;
+            this.options = options;
+        }
+
+        @Override
+        protected TraceSet doInBackground() {
+            startTime = System.nanoTime();
+            return new TraceSet(traceFiles, new TraceFile.LoadListener() {
+                @Override
+                public void loadProgress(TraceFile partial, long bytesRead, long totalBytes) {
+                    setProgress((int) (100 * bytesRead / Math.max(1, totalBytes)));
+                    publish(new LoadSnapshot(null, null, null, null, null, null, bytesRead, totalBytes, System.nanoTime() - startTime));
+                }
+            }, options);
+        }
+
+        @Override
+        protected void process(List<LoadSnapshot> snapshots) {
+            if (!isCancelled() && loader == this) {
+                showLoadProgress(snapshots.get(snapshots.size() - 1));
+            }
+        }
+
+        @Override
+        protected void done() {
+            if (isCancelled() || loader != this) {
+                return;
+            }
+            loadingPanel.setVisible(false);
+            try {
+                currentSet = get();
+            } catch (InterruptedException | ExecutionException e) {
+                cancelLoad();
+                JOptionPane.showMessageDialog(PacketVisualiser.this, "The trace files could not be loaded: \n" + e.getCause(), "Loading Failed", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            String selected = watchedHost;
+            sourceHostList = currentSet.getSourceHostList();
+            destHostList = currentSet.getDestHostList();
+            setupComboLists();
+            selectHost(selected);
+            showSelectedHost();
+        }
+    }
 }
\ No newline at end of file
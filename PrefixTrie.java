@@ -0,0 +1,276 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Groups the IPv4 hosts of a trace by their /8, /16 and /24 network prefixes, with every prefix holding the
+ * combined series and total bytes of the hosts beneath it, so that a whole network can be graphed as quickly as a
+ * single host. The trie is keyed on the packed IPv4 value of each host one octet per level, and every prefix keeps
+ * its children sorted by address, so a prefix is found by a binary search at each level.
+ * <p>
+ * The trie is built from series the trace already holds rather than from the trace file. A /24 combines the series
+ * of its hosts, a /16 those of its /24s and a /8 those of its /16s through a <code>SeriesMerge</code>, so each bin
+ * is read once per level, and a prefix with a single child shares the child's series instead of copying it. A
+ * prefix's bytes are the sum of its hosts' series, so traffic between two hosts of the same prefix is counted at
+ * both ends, just as each host's series counts it. Hosts whose addresses are not dotted quads are left out. When
+ * the host series are kept off the heap, each merged prefix series is written into the same store as soon as it is
+ * made, so the trie adds little more to the heap than its prefixes' handles.
+ * @author Michael Johnson
+ */
+public class PrefixTrie {
+    private static final int OCTET_BITS = 8;
+    private static final int HOST_PREFIX_LENGTH = 24;
+    private final HostDictionary hosts;
+    private final SeriesStore store;
+    private final Prefix root;
+    private int prefixCount;
+
+    /**
+     * Constructs a <code>PrefixTrie</code> object over the hosts that have a series.
+     * @param hosts     the <code>HostDictionary</code> the series belong to
+     * @param series    each host's series, indexed by host identifier, or null for hosts without one
+     */
+    public PrefixTrie(HostDictionary hosts, SeriesView[] series) {
+        this(hosts, series, null);
+    }
+
+    /**
+     * Constructs a <code>PrefixTrie</code> object over the hosts that have a series, keeping the merged series of
+     * its prefixes in a store.
+     * @param hosts     the <code>HostDictionary</code> the series belong to
+     * @param series    each host's series, indexed by host identifier, or null for hosts without one
+     * @param store     the <code>SeriesStore</code> to write merged series into, or null to keep them on the heap
+     */
+    public PrefixTrie(HostDictionary hosts, SeriesView[] series, SeriesStore store) {
+        this.hosts = hosts;
+        this.store = store;
+        long[] keys = new long[Math.min(hosts.size(), series.length)];
+        int keyCount = 0;
+        for (int id = 0; id < keys.length; id++) {
+            if (hosts.isIpv4(id) && series[id] != null) {
+                keys[keyCount++] = (Integer.toUnsignedLong(hosts.getIpv4(id)) << 31) | id;
+            }
+        }
+        Arrays.sort(keys, 0, keyCount);
+        root = build(keys, 0, keyCount, 0, series);
+    }
+
+    /**
+     * Builds the prefix of the given length covering a run of sorted keys that all share it, splitting the run
+     * wherever the next octet changes.
+     */
+    private Prefix build(long[] keys, int from, int to, int length, SeriesView[] series) {
+        int address = length == 0 || from == to ? 0 : (int) (keys[from] >>> 31) & (-1 << (32 - length));
+        Prefix prefix = new Prefix(address, length, to - from);
+        prefixCount++;
+        SeriesView[] parts;
+        if (length == HOST_PREFIX_LENGTH) {
+            prefix.hostIds = new int[to - from];
+            parts = new SeriesView[to - from];
+            for (int i = from; i < to; i++) {
+                prefix.hostIds[i - from] = (int) (keys[i] & Integer.MAX_VALUE);
+                parts[i - from] = series[prefix.hostIds[i - from]];
+            }
+        } else {
+            int shift = 32 - length - OCTET_BITS;
+            ArrayList<Prefix> children = new ArrayList<Prefix>();
+            int start = from;
+            for (int i = from + 1; i <= to; i++) {
+                if (i == to || octetOf(keys[i], shift) != octetOf(keys[start], shift)) {
+                    children.add(build(keys, start, i, length + OCTET_BITS, series));
+                    start = i;
+                }
+            }
+            prefix.children = children.toArray(new Prefix[0]);
+            parts = new SeriesView[prefix.children.length];
+            for (int i = 0; i < parts.length; i++) {
+                parts[i] = prefix.children[i].series;
+            }
+        }
+        if (parts.length == 1) {
+            prefix.series = parts[0];
+        } else if (store == null) {
+            prefix.series = SeriesMerge.sum(parts);
+        } else {
+            prefix.series = new OffHeapSeries(store, OffHeapSeries.write(store, SeriesMerge.sum(parts)));
+        }
+        prefix.totalBytes = prefix.series.getTotalBytes();
+        return prefix;
+    }
+
+    private static int octetOf(long key, int shift) {
+        return (int) (key >>> (31 + shift)) & 0xff;
+    }
+
+    /**
+     * Gets the prefix covering every IPv4 host, 0.0.0.0/0, whose children are the /8 prefixes.
+     * @return the root <code>Prefix</code>
+     */
+    public Prefix getRoot() {
+        return root;
+    }
+
+    /**
+     * Finds the prefix of the given length that an address belongs to.
+     * @param address   the packed IPv4 address, most significant octet first
+     * @param length    the prefix length, one of 0, 8, 16 or 24
+     * @return the <code>Prefix</code>, or null if no host of the trace falls within it
+     */
+    public Prefix find(int address, int length) {
+        if (length < 0 || length > HOST_PREFIX_LENGTH || length % OCTET_BITS != 0) {
+            return null;
+        }
+        Prefix prefix = root;
+        for (int depth = OCTET_BITS; depth <= length && prefix != null; depth += OCTET_BITS) {
+            prefix = prefix.findChild(address & (-1 << (32 - depth)));
+        }
+        return prefix;
+    }
+
+    /**
+     * Finds a prefix written as an address block, such as 10.1.0.0/16. Bits of the address beyond the prefix
+     * length are ignored.
+     * @param block the <code>String</code> address block
+     * @return the <code>Prefix</code>, or null if the block is malformed, not a /0, /8, /16 or /24, or holds no hosts
+     */
+    public Prefix find(String block) {
+        int slash = block.indexOf('/');
+        if (slash < 0) {
+            return null;
+        }
+        long address = HostDictionary.parseIpv4(block.substring(0, slash).trim());
+        int length;
+        try {
+            length = Integer.parseInt(block.substring(slash + 1).trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return address < 0 ? null : find((int) address, length);
+    }
+
+    /**
+     * Gets the number of prefixes in the trie, including the root.
+     * @return the prefix count
+     */
+    public int getPrefixCount() {
+        return prefixCount;
+    }
+
+    /**
+     * A network prefix and the combined traffic of the hosts within it.
+     */
+    public class Prefix {
+        private final int address;
+        private final int length;
+        private final int hostCount;
+        private Prefix[] children;
+        private int[] hostIds;
+        private SeriesView series;
+        private long totalBytes;
+
+        private Prefix(int address, int length, int hostCount) {
+            this.address = address;
+            this.length = length;
+            this.hostCount = hostCount;
+        }
+
+        private Prefix findChild(int childAddress) {
+            int low = 0;
+            int high = children.length - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                int compare = Integer.compareUnsigned(children[middle].address, childAddress);
+                if (compare < 0) {
+                    low = middle + 1;
+                } else if (compare > 0) {
+                    high = middle - 1;
+                } else {
+                    return children[middle];
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Gets the network address of the prefix.
+         * @return the packed IPv4 address with the bits beyond the prefix length cleared
+         */
+        public int getAddress() {
+            return address;
+        }
+
+        /**
+         * Gets the length of the prefix.
+         * @return the number of leading bits the hosts share, one of 0, 8, 16 or 24
+         */
+        public int getLength() {
+            return length;
+        }
+
+        /**
+         * Checks whether the prefix is a /24, whose children are hosts rather than prefixes.
+         * @return true if the children are hosts
+         */
+        public boolean holdsHosts() {
+            return hostIds != null;
+        }
+
+        /**
+         * Gets the number of prefixes or, for a /24, hosts directly beneath the prefix.
+         * @return the child count
+         */
+        public int getChildCount() {
+            return hostIds != null ? hostIds.length : children.length;
+        }
+
+        /**
+         * Gets one of the longer prefixes directly beneath this one, in address order.
+         * @param index the position of the child
+         * @return the child <code>Prefix</code>, or null for a /24
+         */
+        public Prefix getChild(int index) {
+            return children == null ? null : children[index];
+        }
+
+        /**
+         * Gets the address of one of the hosts of a /24, in address order.
+         * @param index the position of the host
+         * @return the <code>String</code> IP address, or null if the prefix is not a /24
+         */
+        public String getHostAddr(int index) {
+            return hostIds == null ? null : hosts.getAddr(hostIds[index]);
+        }
+
+        /**
+         * Gets the number of hosts anywhere beneath the prefix.
+         * @return the host count
+         */
+        public int getHostCount() {
+            return hostCount;
+        }
+
+        /**
+         * Gets the combined series of every host beneath the prefix.
+         * @return the <code>SeriesView</code> of the prefix's traffic
+         */
+        public SeriesView getSeries() {
+            return series;
+        }
+
+        /**
+         * Gets the combined bytes of every host beneath the prefix.
+         * @return the total number of bytes
+         */
+        public long getTotalBytes() {
+            return totalBytes;
+        }
+
+        /**
+         * Writes the prefix as an address block, such as 10.1.0.0/16.
+         * @return the <code>String</code> address block
+         */
+        @Override
+        public String toString() {
+            return (address >>> 24) + "." + ((address >>> 16) & 0xff) + "." + ((address >>> 8) & 0xff) + "." + (address & 0xff) + "/" + length;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the series most recently built on demand, up to a total estimated heap size. When a new series takes the
+ * total over the limit, the least recently used series are dropped until it fits again, though the newest series
+ * is always kept however large it is. A series is sized once, when it is cached, by
+ * <code>HostSeries.estimateHeapBytes</code>.
+ * @author Michael Johnson
+ */
+public class SeriesCache {
+    private final LinkedHashMap<Integer, Entry> entries = new LinkedHashMap<Integer, Entry>(16, 0.75f, true);
+    private final long maxBytes;
+    private long totalBytes;
+    private long hits;
+    private long misses;
+
+    /**
+     * Constructs an empty <code>SeriesCache</code> object.
+     * @param maxBytes the total estimated heap size the cached series may take
+     */
+    public SeriesCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Looks up a host's series, marking it as the most recently used.
+     * @param hostId the host identifier
+     * @return the cached <code>HostSeries</code>, or null if it is not cached
+     */
+    public HostSeries get(int hostId) {
+        Entry entry = entries.get(hostId);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.series;
+    }
+
+    /**
+     * Caches a host's series as the most recently used, dropping the least recently used series if the cache
+     * has grown past its limit.
+     * @param hostId    the host identifier
+     * @param series    the host's <code>HostSeries</code>, which must not change once it is cached
+     */
+    public void put(int hostId, HostSeries series) {
+        Entry entry = new Entry(series);
+        Entry replaced = entries.put(hostId, entry);
+        if (replaced != null) {
+            totalBytes -= replaced.bytes;
+        }
+        totalBytes += entry.bytes;
+        Iterator<Map.Entry<Integer, Entry>> eldest = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && entries.size() > 1) {
+            Entry evicted = eldest.next().getValue();
+            eldest.remove();
+            totalBytes -= evicted.bytes;
+        }
+    }
+
+    /**
+     * Gets the number of series cached.
+     * @return the series count
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Gets the total estimated heap size of the cached series.
+     * @return the size in bytes
+     */
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * Gets the number of lookups that found their series cached.
+     * @return the hit count
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * Gets the number of lookups that did not find their series cached.
+     * @return the miss count
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    private static class Entry {
+        private final HostSeries series;
+        private final long bytes;
+
+        private Entry(HostSeries series) {
+            this.series = series;
+            bytes = series.estimateHeapBytes();
+        }
+    }
+}
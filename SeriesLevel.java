@@ -0,0 +1,505 @@
+import java.util.Arrays;
+
+/**
+ * Holds the number of bytes a host transmitted in each fixed width time bin of a trace. Bins are
+ * numbered by their start time divided by the bin width, and are stored densely in a <code>long[]</code>
+ * indexed by their offset from the first bin, falling back to sorted parallel bin and byte arrays once
+ * the bins become too sparse for the dense form to pay off. Adding a packet never allocates unless an
+ * array grows.
+ * <p>
+ * Totals and maxima over a range of bins are answered from a prefix sum array and a sparse table of
+ * block maxima, which are built the first time a range is queried and discarded when the level changes.
+ * @author Michael Johnson
+ */
+public class SeriesLevel implements LevelView {
+    private static final int MIN_CAPACITY = 16;
+    private static final int SPARSE_FACTOR = 4;
+    private static final int SPARSE_SLACK = 256;
+    private static final int BLOCK_SHIFT = 6;
+    private static final int OBJECT_HEADER = 16;
+    private static final int ARRAY_HEADER = 16;
+    private static final int REFERENCE_BYTES = 4;
+    private long binWidth;
+    private long base;
+    private long[] bytes;
+    private int span;
+    private boolean sparse;
+    private long[] bins;
+    private int count;
+    private int populated;
+    private long totalBytes;
+    private long maxBytes;
+    private long firstBin;
+    private long lastBin;
+    private long[] prefixBytes;
+    private long[][] blockMax;
+
+    /**
+     * Constructs an empty <code>SeriesLevel</code> object with the given bin width.
+     * @param binWidth the width of each bin in microseconds
+     */
+    public SeriesLevel(long binWidth) {
+        this.binWidth = binWidth;
+    }
+
+    /**
+     * Creates an independent copy of the level.
+     * @return a new <code>SeriesLevel</code> with the same contents
+     */
+    public SeriesLevel copy() {
+        SeriesLevel copy = new SeriesLevel(binWidth);
+        copy.base = base;
+        copy.bytes = bytes == null ? null : bytes.clone();
+        copy.span = span;
+        copy.sparse = sparse;
+        copy.bins = bins == null ? null : bins.clone();
+        copy.count = count;
+        copy.populated = populated;
+        copy.totalBytes = totalBytes;
+        copy.maxBytes = maxBytes;
+        copy.firstBin = firstBin;
+        copy.lastBin = lastBin;
+        return copy;
+    }
+
+    /**
+     * Adds a number of bytes to the given bin.
+     * @param bin       the bin number
+     * @param amount    the number of bytes to add
+     */
+    public void add(long bin, long amount) {
+        long merged;
+        prefixBytes = null;
+        if (bytes == null) {
+            base = bin;
+            bytes = new long[MIN_CAPACITY];
+            firstBin = bin;
+            lastBin = bin;
+        }
+        if (sparse) {
+            merged = addSparse(bin, amount);
+        } else if (bin >= base && bin - base < bytes.length) {
+            merged = addDense(bin, amount);
+        } else if (Math.max(lastBin, bin) - Math.min(firstBin, bin) >= (long) SPARSE_FACTOR * (populated + 1) + SPARSE_SLACK) {
+            toSparse();
+            merged = addSparse(bin, amount);
+        } else {
+            growDense(bin);
+            merged = addDense(bin, amount);
+        }
+        totalBytes += amount;
+        maxBytes = Math.max(maxBytes, merged);
+        firstBin = Math.min(firstBin, bin);
+        lastBin = Math.max(lastBin, bin);
+    }
+
+    /**
+     * Takes back bytes previously added to the given bin.
+     * @param bin       the bin number
+     * @param amount    the number of bytes to remove
+     */
+    public void remove(long bin, long amount) {
+        int index = indexOf(bin);
+        if (index < 0) {
+            return;
+        }
+        prefixBytes = null;
+        boolean wasMax = bytes[index] == maxBytes;
+        bytes[index] -= amount;
+        totalBytes -= amount;
+        if (bytes[index] == 0 && amount != 0) {
+            populated--;
+        }
+        if (wasMax) {
+            maxBytes = 0;
+            for (int i = 0; i < size(); i++) {
+                maxBytes = Math.max(maxBytes, bytes[i]);
+            }
+        }
+    }
+
+    /**
+     * Adds every bin of another level with the same bin width to this one, wherever that level is kept.
+     * @param other the <code>LevelView</code> to merge in
+     */
+    public void addAll(LevelView other) {
+        boolean otherSparse = other.isSparse();
+        for (int i = 0; i < other.size(); i++) {
+            long amount = other.getBytes(i);
+            if (amount != 0 || otherSparse) {
+                add(other.getBin(i), amount);
+            }
+        }
+    }
+
+    /**
+     * Adds the bins of another level with the same bin width from the given bin onwards to this one, including
+     * any that have been emptied.
+     * @param other     the <code>LevelView</code> to copy from
+     * @param fromBin   the first bin to copy
+     */
+    public void addFrom(LevelView other, long fromBin) {
+        for (int i = other.ceilingIndex(fromBin); i < other.size(); i++) {
+            add(other.getBin(i), other.getBytes(i));
+        }
+    }
+
+    /**
+     * Sets every bin of another level with the same bin width to the same number of bytes in this one, leaving
+     * the bins the other level does not hold as they are.
+     * @param other the <code>LevelView</code> to copy from
+     */
+    public void setAll(LevelView other) {
+        for (int i = 0; i < other.size(); i++) {
+            long bin = other.getBin(i);
+            long change = other.getBytes(i) - getBytesAt(bin);
+            if (change > 0) {
+                add(bin, change);
+            } else if (change < 0) {
+                remove(bin, -change);
+            }
+        }
+    }
+
+    private long addDense(long bin, long amount) {
+        int offset = (int) (bin - base);
+        if (offset >= span) {
+            span = offset + 1;
+        }
+        if (bytes[offset] == 0 && amount != 0) {
+            populated++;
+        }
+        bytes[offset] += amount;
+        return bytes[offset];
+    }
+
+    private void growDense(long bin) {
+        long newBase = Math.min(base, bin);
+        int needed = (int) (Math.max(base + span - 1, bin) - newBase + 1);
+        int capacity = Math.max(needed, bytes.length + (bytes.length >> 1));
+        long[] grown = new long[capacity];
+        System.arraycopy(bytes, 0, grown, (int) (base - newBase), span);
+        span += (int) (base - newBase);
+        base = newBase;
+        bytes = grown;
+    }
+
+    private void toSparse() {
+        bins = new long[Math.max(MIN_CAPACITY, populated * 2)];
+        long[] values = new long[bins.length];
+        count = 0;
+        for (int i = 0; i < span; i++) {
+            if (bytes[i] != 0) {
+                bins[count] = base + i;
+                values[count] = bytes[i];
+                count++;
+            }
+        }
+        bytes = values;
+        sparse = true;
+    }
+
+    private void toDense(long bin) {
+        base = Math.min(firstBin, bin);
+        span = (int) (Math.max(lastBin, bin) - base + 1);
+        long[] values = new long[span + (span >> 1)];
+        for (int i = 0; i < count; i++) {
+            values[(int) (bins[i] - base)] = bytes[i];
+        }
+        bytes = values;
+        bins = null;
+        count = 0;
+        sparse = false;
+    }
+
+    private long addSparse(long bin, long amount) {
+        int index;
+        if (count > 0 && bins[count - 1] < bin) {
+            index = -(count + 1);
+        } else {
+            index = Arrays.binarySearch(bins, 0, count, bin);
+        }
+        if (index >= 0) {
+            bytes[index] += amount;
+            return bytes[index];
+        }
+        index = -(index + 1);
+        if (count == bins.length && Math.max(lastBin, bin) - Math.min(firstBin, bin) < 2L * count) {
+            toDense(bin);
+            return addDense(bin, amount);
+        }
+        if (count == bins.length) {
+            int capacity = count + (count >> 1);
+            bins = Arrays.copyOf(bins, capacity);
+            bytes = Arrays.copyOf(bytes, capacity);
+        }
+        System.arraycopy(bins, index, bins, index + 1, count - index);
+        System.arraycopy(bytes, index, bytes, index + 1, count - index);
+        bins[index] = bin;
+        bytes[index] = amount;
+        count++;
+        populated++;
+        return amount;
+    }
+
+    private int indexOf(long bin) {
+        if (bytes == null) {
+            return -1;
+        }
+        if (sparse) {
+            return Math.max(-1, Arrays.binarySearch(bins, 0, count, bin));
+        }
+        return bin >= base && bin - base < span ? (int) (bin - base) : -1;
+    }
+
+    /**
+     * Finds the first slot whose bin is not before the given bin, such as the first slot that needs drawing
+     * when only part of the level is visible.
+     * @param bin the bin number
+     * @return the slot index, which is <code>size()</code> if every bin is before the given bin
+     */
+    @Override
+    public int ceilingIndex(long bin) {
+        if (bytes == null) {
+            return 0;
+        }
+        if (sparse) {
+            int index = Arrays.binarySearch(bins, 0, count, bin);
+            return index >= 0 ? index : -(index + 1);
+        }
+        return (int) Math.max(0, Math.min(span, bin - base));
+    }
+
+    /**
+     * Gets the total number of bytes in the bins <code>[fromBin, toBin)</code>.
+     * @param fromBin   the first bin of the range
+     * @param toBin     the end of the range, exclusive
+     * @return the total volume of bytes in the range
+     */
+    @Override
+    public long getTotalBytes(long fromBin, long toBin) {
+        if (prefixBytes == null) {
+            buildIndex();
+        }
+        int from = ceilingIndex(fromBin);
+        int to = ceilingIndex(toBin);
+        return from < to ? prefixBytes[to] - prefixBytes[from] : 0;
+    }
+
+    /**
+     * Gets the highest number of bytes in any one of the bins <code>[fromBin, toBin)</code>.
+     * @param fromBin   the first bin of the range
+     * @param toBin     the end of the range, exclusive
+     * @return the maximum bytes per bin in the range, or 0 if the range is empty
+     */
+    @Override
+    public long getMaxBytes(long fromBin, long toBin) {
+        if (prefixBytes == null) {
+            buildIndex();
+        }
+        int from = ceilingIndex(fromBin);
+        int to = ceilingIndex(toBin);
+        if (from >= to) {
+            return 0;
+        }
+        int firstBlock = from >> BLOCK_SHIFT;
+        int lastBlock = (to - 1) >> BLOCK_SHIFT;
+        if (firstBlock == lastBlock) {
+            return scanMax(from, to);
+        }
+        long max = Math.max(scanMax(from, (firstBlock + 1) << BLOCK_SHIFT), scanMax(lastBlock << BLOCK_SHIFT, to));
+        if (lastBlock - firstBlock > 1) {
+            int blocks = lastBlock - firstBlock - 1;
+            int k = 31 - Integer.numberOfLeadingZeros(blocks);
+            max = Math.max(max, Math.max(blockMax[k][firstBlock + 1], blockMax[k][lastBlock - (1 << k)]));
+        }
+        return max;
+    }
+
+    private long scanMax(int from, int to) {
+        long max = 0;
+        for (int i = from; i < to; i++) {
+            max = Math.max(max, bytes[i]);
+        }
+        return max;
+    }
+
+    private void buildIndex() {
+        int n = size();
+        long[] prefix = new long[n + 1];
+        for (int i = 0; i < n; i++) {
+            prefix[i + 1] = prefix[i] + bytes[i];
+        }
+        int blocks = (n + (1 << BLOCK_SHIFT) - 1) >> BLOCK_SHIFT;
+        long[][] table = new long[Math.max(1, 32 - Integer.numberOfLeadingZeros(blocks))][];
+        table[0] = new long[blocks];
+        for (int b = 0; b < blocks; b++) {
+            table[0][b] = scanMax(b << BLOCK_SHIFT, Math.min(n, (b + 1) << BLOCK_SHIFT));
+        }
+        for (int k = 1; k < table.length; k++) {
+            int half = 1 << (k - 1);
+            table[k] = new long[blocks - (1 << k) + 1];
+            for (int b = 0; b < table[k].length; b++) {
+                table[k][b] = Math.max(table[k - 1][b], table[k - 1][b + half]);
+            }
+        }
+        blockMax = table;
+        prefixBytes = prefix;
+    }
+
+    /**
+     * Gets the width of each bin of the level.
+     * @return the bin width in microseconds
+     */
+    @Override
+    public long getBinWidth() {
+        return binWidth;
+    }
+
+    /**
+     * Gets the number of slots in the level. Slots are in ascending order of bin, and a dense
+     * level has a slot for every bin between its first and last bin, including empty bins.
+     * @return the number of slots
+     */
+    @Override
+    public int size() {
+        return sparse ? count : span;
+    }
+
+    /**
+     * Gets the bin of a slot.
+     * @param index the slot index
+     * @return the bin number
+     */
+    @Override
+    public long getBin(int index) {
+        return sparse ? bins[index] : base + index;
+    }
+
+    /**
+     * Gets the number of bytes in a slot.
+     * @param index the slot index
+     * @return the number of bytes
+     */
+    @Override
+    public long getBytes(int index) {
+        return bytes[index];
+    }
+
+    /**
+     * Gets the number of bytes transmitted in the given bin.
+     * @param bin the bin number
+     * @return the number of bytes, or 0 if the host sent nothing in that bin
+     */
+    @Override
+    public long getBytesAt(long bin) {
+        int index = indexOf(bin);
+        return index >= 0 ? bytes[index] : 0;
+    }
+
+    /**
+     * Gets the earliest bin in the level.
+     * @return the first bin number
+     */
+    @Override
+    public long getFirstBin() {
+        return firstBin;
+    }
+
+    /**
+     * Gets the latest bin in the level.
+     * @return the last bin number
+     */
+    @Override
+    public long getLastBin() {
+        return lastBin;
+    }
+
+    /**
+     * Gets the highest number of bytes transmitted in any one bin.
+     * @return the maximum bytes per bin
+     */
+    @Override
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Gets the total number of bytes in the level.
+     * @return the total volume of bytes
+     */
+    @Override
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * Estimates the heap taken by the level, including its bins and any window query index.
+     * @return the estimated size in bytes
+     */
+    public long estimateHeapBytes() {
+        long size = OBJECT_HEADER + Long.BYTES * 6 + Integer.BYTES * 3 + 1 + REFERENCE_BYTES * 4;
+        size += arrayBytes(bytes) + arrayBytes(bins) + arrayBytes(prefixBytes);
+        if (blockMax != null) {
+            size += ARRAY_HEADER + (long) REFERENCE_BYTES * blockMax.length;
+            for (long[] row : blockMax) {
+                size += arrayBytes(row);
+            }
+        }
+        return size;
+    }
+
+    private static long arrayBytes(long[] array) {
+        return array == null ? 0 : ARRAY_HEADER + (long) Long.BYTES * array.length;
+    }
+
+    /**
+     * Checks whether the level has fallen back to its sparse form.
+     * @return true if the level is stored sparsely
+     */
+    @Override
+    public boolean isSparse() {
+        return sparse;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof SeriesLevel)) {
+            return false;
+        }
+        SeriesLevel other = (SeriesLevel) obj;
+        if (binWidth != other.binWidth) {
+            return false;
+        }
+        int i = 0;
+        int j = 0;
+        while (true) {
+            while (i < size() && getBytes(i) == 0) {
+                i++;
+            }
+            while (j < other.size() && other.getBytes(j) == 0) {
+                j++;
+            }
+            if (i == size() || j == other.size()) {
+                return i == size() && j == other.size();
+            }
+            if (getBin(i) != other.getBin(j) || getBytes(i) != other.getBytes(j)) {
+                return false;
+            }
+            i++;
+            j++;
+        }
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = Long.hashCode(binWidth);
+        for (int i = 0; i < size(); i++) {
+            if (getBytes(i) != 0) {
+                hash = 31 * hash + Long.hashCode(getBin(i));
+                hash = 31 * hash + Long.hashCode(getBytes(i));
+            }
+        }
+        return hash;
+    }
+}
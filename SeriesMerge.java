@@ -0,0 +1,184 @@
+/**
+ * Walks several levels of the same bin width together in time order, such as one level of the same host's series
+ * from each of several traces. This is a k-way merge that keeps a cursor into each level and a priority queue of
+ * the cursors ordered by the bin each one is on, so every step moves to the next bin held by any of the levels and
+ * reads the bytes each level has in it without copying the levels. The queue is a binary heap of cursor numbers
+ * kept in an <code>int[]</code> alongside the bin each cursor is on, so ordering cursors neither boxes them nor
+ * reads the levels again, and only the levels that hold the current bin are visited to clear or total its bytes. Traces are aligned on their own time stamps,
+ * which count from the start of each capture, so the same bin of two traces is the same time into each capture.
+ * @author Michael Johnson
+ */
+public class SeriesMerge {
+    private final LevelView[] levels;
+    private final int[] positions;
+    private final int[] ends;
+    private final long[] bytes;
+    private final long[] cursorBins;
+    private final int[] heap;
+    private int heapSize;
+    private final int[] held;
+    private int heldCount;
+    private long totalBytes;
+    private long bin;
+
+    /**
+     * Constructs a <code>SeriesMerge</code> object positioned before the first bin of any of the levels.
+     * @param levels the <code>LevelView</code>s to merge, all of the same bin width, any of which may be null
+     */
+    public SeriesMerge(LevelView[] levels) {
+        this(levels, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * Constructs a <code>SeriesMerge</code> object that only visits the bins within a range.
+     * @param levels    the <code>LevelView</code>s to merge, all of the same bin width, any of which may be null
+     * @param fromBin   the first bin to visit
+     * @param toBin     the bin after the last bin to visit
+     */
+    public SeriesMerge(LevelView[] levels, long fromBin, long toBin) {
+        this.levels = levels;
+        positions = new int[levels.length];
+        ends = new int[levels.length];
+        bytes = new long[levels.length];
+        cursorBins = new long[levels.length];
+        heap = new int[levels.length];
+        held = new int[levels.length];
+        for (int i = 0; i < levels.length; i++) {
+            if (levels[i] == null) {
+                continue;
+            }
+            positions[i] = fromBin == Long.MIN_VALUE ? 0 : levels[i].ceilingIndex(fromBin);
+            ends[i] = toBin == Long.MAX_VALUE ? levels[i].size() : levels[i].ceilingIndex(toBin);
+            if (positions[i] < ends[i]) {
+                cursorBins[i] = levels[i].getBin(positions[i]);
+                heap[heapSize++] = i;
+            }
+        }
+        for (int slot = heapSize / 2 - 1; slot >= 0; slot--) {
+            siftDown(slot);
+        }
+    }
+
+    /**
+     * Combines several series into one holding the bytes of all of them, merging each level in a single pass in
+     * time order.
+     * @param series the <code>SeriesView</code>s to combine, any of which may be null
+     * @return a new <code>HostSeries</code>, which is empty if every series is null or empty
+     */
+    public static HostSeries sum(SeriesView[] series) {
+        SeriesView reference = null;
+        long firstTime = Long.MAX_VALUE;
+        long lastTime = Long.MIN_VALUE;
+        for (SeriesView view : series) {
+            if (view != null && view.getLevel(view.getLevelCount() - 1).size() > 0) {
+                reference = view;
+                firstTime = Math.min(firstTime, view.getFirstTime());
+                lastTime = Math.max(lastTime, view.getLastTime());
+            }
+        }
+        if (reference == null) {
+            return new HostSeries();
+        }
+        SeriesLevel[] levels = new SeriesLevel[reference.getLevelCount()];
+        LevelView[] row = new LevelView[series.length];
+        for (int i = 0; i < levels.length; i++) {
+            for (int j = 0; j < series.length; j++) {
+                row[j] = series[j] == null ? null : series[j].getLevel(i);
+            }
+            levels[i] = new SeriesLevel(reference.getLevel(i).getBinWidth());
+            SeriesMerge merge = new SeriesMerge(row);
+            while (merge.next()) {
+                long total = merge.getTotalBytes();
+                if (total != 0) {
+                    levels[i].add(merge.getBin(), total);
+                }
+            }
+        }
+        return new HostSeries(levels, firstTime, lastTime);
+    }
+
+    /**
+     * Moves to the next bin held by any of the levels.
+     * @return true if the merge is on a bin, false once every bin has been visited
+     */
+    public boolean next() {
+        if (heapSize == 0) {
+            return false;
+        }
+        for (int i = 0; i < heldCount; i++) {
+            bytes[held[i]] = 0;
+        }
+        heldCount = 0;
+        totalBytes = 0;
+        bin = cursorBins[heap[0]];
+        while (heapSize > 0 && cursorBins[heap[0]] == bin) {
+            int i = heap[0];
+            bytes[i] = levels[i].getBytes(positions[i]);
+            totalBytes += bytes[i];
+            held[heldCount++] = i;
+            if (++positions[i] < ends[i]) {
+                cursorBins[i] = levels[i].getBin(positions[i]);
+            } else {
+                heap[0] = heap[--heapSize];
+            }
+            siftDown(0);
+        }
+        return true;
+    }
+
+    /**
+     * Moves the cursor at a slot of the heap down until neither of its children is on an earlier bin.
+     */
+    private void siftDown(int slot) {
+        if (heapSize == 0) {
+            return;
+        }
+        int cursor = heap[slot];
+        long cursorBin = cursorBins[cursor];
+        int child;
+        while ((child = 2 * slot + 1) < heapSize) {
+            if (child + 1 < heapSize && cursorBins[heap[child + 1]] < cursorBins[heap[child]]) {
+                child++;
+            }
+            if (cursorBins[heap[child]] >= cursorBin) {
+                break;
+            }
+            heap[slot] = heap[child];
+            slot = child;
+        }
+        heap[slot] = cursor;
+    }
+
+    /**
+     * Gets the bin the merge is on.
+     * @return the bin number
+     */
+    public long getBin() {
+        return bin;
+    }
+
+    /**
+     * Gets the bytes one of the levels has in the current bin.
+     * @param index the position of the level in the array the merge was constructed with
+     * @return the number of bytes, or 0 if the level does not hold the bin
+     */
+    public long getBytes(int index) {
+        return bytes[index];
+    }
+
+    /**
+     * Gets the bytes all of the levels have in the current bin.
+     * @return the total number of bytes
+     */
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * Gets the number of levels being merged.
+     * @return the level count, including any that are null
+     */
+    public int getCount() {
+        return levels.length;
+    }
+}
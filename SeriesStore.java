@@ -0,0 +1,170 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+
+/**
+ * Holds fixed size records outside the Java heap, so that the bulk of a large trace is neither scanned nor copied
+ * by the garbage collector. Records are appended into chunks of direct <code>ByteBuffer</code>s, or of a file
+ * mapped into memory when the data should be allowed to outgrow RAM, and are found again by a <code>long</code>
+ * address holding the chunk in its high 32 bits and the byte offset within the chunk in its low 32 bits.
+ * <p>
+ * Chunks start small and double in size up to 64 MB, so a small trace costs little native memory. A record never
+ * spans two chunks, and one larger than a chunk is given a chunk of its own. Records cannot be freed one by one;
+ * the whole store is released by <code>close</code>, after which none of its addresses may be read. Direct memory
+ * is limited by <code>-XX:MaxDirectMemorySize</code>, which defaults to the maximum heap size, so very large
+ * traces should use a file-backed store.
+ * @author Michael Johnson
+ */
+public class SeriesStore implements Closeable {
+    private static final int FIRST_CHUNK_SIZE = 1024 * 1024;
+    private static final int MAX_CHUNK_SIZE = 64 * 1024 * 1024;
+    private final ArrayList<ByteBuffer> chunks = new ArrayList<ByteBuffer>();
+    private final File file;
+    private final FileChannel channel;
+    private long fileSize;
+    private int nextChunkSize = FIRST_CHUNK_SIZE;
+    private long allocatedBytes;
+    private long reservedBytes;
+
+    /**
+     * Constructs an empty <code>SeriesStore</code> object that keeps its records in direct memory.
+     */
+    public SeriesStore() {
+        file = null;
+        channel = null;
+    }
+
+    /**
+     * Constructs an empty <code>SeriesStore</code> object that keeps its records in a temporary file mapped into
+     * memory, which is deleted when the store is closed or the program exits.
+     * @param directory the directory to create the file in, or null for the system's temporary directory
+     * @throws IOException if the file cannot be created
+     */
+    public SeriesStore(File directory) throws IOException {
+        file = File.createTempFile("series", ".tmp", directory);
+        file.deleteOnExit();
+        channel = new RandomAccessFile(file, "rw").getChannel();
+    }
+
+    /**
+     * Reserves space for a record. The space reads as zero until it is written.
+     * @param size the size of the record in bytes
+     * @return the address of the record
+     * @throws IllegalArgumentException if the record is larger than a <code>ByteBuffer</code> can hold
+     */
+    public long allocate(long size) {
+        size = (size + Long.BYTES - 1) & ~(Long.BYTES - 1L);
+        if (size > Integer.MAX_VALUE - Long.BYTES) {
+            throw new IllegalArgumentException("A record of " + size + " bytes is too large for a series store");
+        }
+        ByteBuffer chunk = chunks.isEmpty() ? null : chunks.get(chunks.size() - 1);
+        if (chunk == null || chunk.remaining() < size) {
+            chunk = addChunk((int) Math.max(size, nextChunkSize));
+            nextChunkSize = Math.min(MAX_CHUNK_SIZE, nextChunkSize * 2);
+        }
+        long address = ((long) (chunks.size() - 1) << 32) | chunk.position();
+        chunk.position(chunk.position() + (int) size);
+        allocatedBytes += size;
+        return address;
+    }
+
+    private ByteBuffer addChunk(int size) {
+        ByteBuffer chunk;
+        if (channel == null) {
+            chunk = ByteBuffer.allocateDirect(size);
+        } else {
+            try {
+                chunk = channel.map(FileChannel.MapMode.READ_WRITE, fileSize, size);
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not grow " + file, e);
+            }
+            fileSize += size;
+        }
+        chunk.order(ByteOrder.nativeOrder());
+        chunks.add(chunk);
+        reservedBytes += size;
+        return chunk;
+    }
+
+    /**
+     * Reads a <code>long</code> from a record.
+     * @param address the address of the record plus the byte offset of the value within it
+     * @return the value
+     */
+    public long getLong(long address) {
+        return chunks.get((int) (address >>> 32)).getLong((int) address);
+    }
+
+    /**
+     * Writes a <code>long</code> into a record.
+     * @param address   the address of the record plus the byte offset of the value within it
+     * @param value     the value
+     */
+    public void putLong(long address, long value) {
+        chunks.get((int) (address >>> 32)).putLong((int) address, value);
+    }
+
+    /**
+     * Reads an <code>int</code> from a record.
+     * @param address the address of the record plus the byte offset of the value within it
+     * @return the value
+     */
+    public int getInt(long address) {
+        return chunks.get((int) (address >>> 32)).getInt((int) address);
+    }
+
+    /**
+     * Writes an <code>int</code> into a record.
+     * @param address   the address of the record plus the byte offset of the value within it
+     * @param value     the value
+     */
+    public void putInt(long address, int value) {
+        chunks.get((int) (address >>> 32)).putInt((int) address, value);
+    }
+
+    /**
+     * Gets the number of bytes taken by the records written so far.
+     * @return the allocated byte count
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /**
+     * Gets the number of bytes of direct memory or file taken by the store's chunks.
+     * @return the reserved byte count
+     */
+    public long getReservedBytes() {
+        return reservedBytes;
+    }
+
+    /**
+     * Checks whether the store's records are kept in a file.
+     * @return true if the store is file-backed
+     */
+    public boolean isFileBacked() {
+        return file != null;
+    }
+
+    /**
+     * Releases the store's chunks and deletes its file if it has one. Direct memory and mappings are given back
+     * once the garbage collector finds the chunks unreachable.
+     */
+    @Override
+    public void close() {
+        chunks.clear();
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            file.delete();
+        }
+    }
+}
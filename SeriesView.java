@@ -0,0 +1,92 @@
+/**
+ * A read-only view of a host's series, through which graphs are drawn and summarised without knowing where the
+ * series is kept. <code>HostSeries</code> keeps its levels on the heap, where they can still be added to, and
+ * <code>OffHeapSeries</code> reads finished levels from a <code>SeriesStore</code> outside it.
+ * @author Michael Johnson
+ */
+public interface SeriesView {
+    /**
+     * Gets the number of levels in the pyramid.
+     * @return the level count
+     */
+    int getLevelCount();
+
+    /**
+     * Gets a level of the pyramid. Levels are ordered from the finest bins to the coarsest.
+     * @param index the level index
+     * @return the <code>LevelView</code> at that index
+     */
+    LevelView getLevel(int index);
+
+    /**
+     * Picks the finest level whose bins are no narrower than a pixel when the given time span is drawn
+     * across the given number of pixels.
+     * @param spanMicros    the drawn time span in microseconds
+     * @param pixels        the number of pixels the span is drawn across
+     * @return the chosen <code>LevelView</code>, or the coarsest level if none is coarse enough
+     */
+    LevelView getLevelFor(long spanMicros, int pixels);
+
+    /**
+     * Gets the time stamp of the earliest packet in the series.
+     * @return the first time stamp in microseconds
+     */
+    long getFirstTime();
+
+    /**
+     * Gets the time stamp of the latest packet in the series.
+     * @return the last time stamp in microseconds
+     */
+    long getLastTime();
+
+    /**
+     * Gets the number of one second slots in the series.
+     * @return the number of slots
+     */
+    int size();
+
+    /**
+     * Gets the second of a slot.
+     * @param index the slot index
+     * @return the time stamp in seconds
+     */
+    int getSecond(int index);
+
+    /**
+     * Gets the number of bytes in a one second slot.
+     * @param index the slot index
+     * @return the number of bytes
+     */
+    long getBytes(int index);
+
+    /**
+     * Gets the number of bytes transmitted in the given second.
+     * @param second the time stamp in seconds
+     * @return the number of bytes, or 0 if the host sent nothing in that second
+     */
+    long getBytesAt(int second);
+
+    /**
+     * Gets the earliest second in the series.
+     * @return the first time stamp in seconds
+     */
+    int getFirstSecond();
+
+    /**
+     * Gets the latest second in the series.
+     * @return the last time stamp in seconds
+     */
+    int getLastSecond();
+
+    /**
+     * Gets the highest number of bytes transmitted in any one second.
+     * @return the maximum bytes per second
+     */
+    long getMaxBytes();
+
+    /**
+     * Gets the total number of bytes in the series.
+     * @return the total volume of bytes
+     */
+    long getTotalBytes();
+}
@@ -0,0 +1,206 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Writes synthetic trace files in the same tab separated format as captured traces, for measuring load and
+ * drawing times on inputs of a known shape and size. Traces are generated from a seed, so the same settings
+ * always produce the same file.
+ * <p>
+ * A trace has a fixed number of distinct hosts, of which a few send and receive most of the traffic, packets
+ * arriving at random at a given average rate, and a given share of seconds in which nothing is sent at all.
+ * <p>
+ * Usage: <code>java SyntheticTrace [-hosts n] [-rate pps] [-duration s] [-sparsity f] [-size bytes[k|m|g]] [-seed n] file</code>
+ * @author Michael Johnson
+ */
+public class SyntheticTrace {
+    private static final String[] PROTOCOLS = {"TCP", "UDP", "ICMP"};
+    private static final int MIN_PACKET_SIZE = 40;
+    private static final int MAX_PACKET_SIZE = 1500;
+    private int hostCount = 1000;
+    private double packetRate = 1000.0;
+    private long duration = 3600;
+    private double sparsity = 0.0;
+    private long seed = 1;
+    private String[] addrs;
+
+    /**
+     * Constructs a <code>SyntheticTrace</code> object for 1000 hosts sending 1000 packets per second for an hour.
+     */
+    public SyntheticTrace() {
+    }
+
+    /**
+     * Writes a synthetic trace file from the command line.
+     * @param args the command line arguments, described in the class documentation
+     */
+    public static void main(String[] args) {
+        SyntheticTrace trace = new SyntheticTrace();
+        File traceFile = null;
+        long maxBytes = Long.MAX_VALUE;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("-hosts")) {
+                    trace.setHostCount(Integer.parseInt(args[++i]));
+                } else if (args[i].equals("-rate")) {
+                    trace.setPacketRate(Double.parseDouble(args[++i]));
+                } else if (args[i].equals("-duration")) {
+                    trace.setDuration(Long.parseLong(args[++i]));
+                } else if (args[i].equals("-sparsity")) {
+                    trace.setSparsity(Double.parseDouble(args[++i]));
+                } else if (args[i].equals("-size")) {
+                    maxBytes = parseSize(args[++i]);
+                } else if (args[i].equals("-seed")) {
+                    trace.setSeed(Long.parseLong(args[++i]));
+                } else {
+                    traceFile = new File(args[i]);
+                }
+            }
+        } catch (RuntimeException e) {
+            traceFile = null;
+        }
+        if (traceFile == null) {
+            System.err.println("Usage: java SyntheticTrace [-hosts n] [-rate pps] [-duration s] [-sparsity f] [-size bytes[k|m|g]] [-seed n] file");
+            System.exit(2);
+        }
+        try {
+            long written = trace.write(traceFile, maxBytes);
+            System.out.printf("Wrote %,d bytes to %s%n", written, traceFile);
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Parses a byte count with an optional <code>k</code>, <code>m</code> or <code>g</code> suffix.
+     * @param size the byte count, such as "100m"
+     * @return the number of bytes
+     */
+    public static long parseSize(String size) {
+        String digits = size.trim().toLowerCase();
+        long unit = 1;
+        if (digits.endsWith("k")) {
+            unit = 1L << 10;
+        } else if (digits.endsWith("m")) {
+            unit = 1L << 20;
+        } else if (digits.endsWith("g")) {
+            unit = 1L << 30;
+        }
+        if (unit != 1) {
+            digits = digits.substring(0, digits.length() - 1);
+        }
+        return Long.parseLong(digits) * unit;
+    }
+
+    /**
+     * Sets the number of distinct hosts in the trace.
+     * @param hostCount the host count
+     */
+    public void setHostCount(int hostCount) {
+        this.hostCount = Math.max(2, hostCount);
+    }
+
+    /**
+     * Sets the average number of packets sent in each second that is not left empty.
+     * @param packetRate the packet rate in packets per second
+     */
+    public void setPacketRate(double packetRate) {
+        this.packetRate = packetRate;
+    }
+
+    /**
+     * Sets the time span of the trace.
+     * @param duration the duration in seconds
+     */
+    public void setDuration(long duration) {
+        this.duration = duration;
+    }
+
+    /**
+     * Sets the share of seconds in which no packets are sent.
+     * @param sparsity a fraction from 0, where every second has traffic, to just below 1
+     */
+    public void setSparsity(double sparsity) {
+        this.sparsity = Math.max(0.0, Math.min(0.999, sparsity));
+    }
+
+    /**
+     * Sets the seed the trace is generated from.
+     * @param seed the random seed
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Writes the trace, stopping at the end of its duration or once it reaches the given size, whichever
+     * comes first.
+     * @param traceFile the file to write
+     * @param maxBytes  the size to stop at, or <code>Long.MAX_VALUE</code> to write the whole duration
+     * @return the number of bytes written
+     * @throws IOException if the file cannot be written
+     */
+    public long write(File traceFile, long maxBytes) throws IOException {
+        Random random = new Random(seed);
+        createAddrs(random);
+        long written = 0;
+        long lineNumber = 1;
+        StringBuilder line = new StringBuilder(96);
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(traceFile), 1 << 16)) {
+            for (long second = 0; second < duration && written < maxBytes; second++) {
+                if (random.nextDouble() < sparsity) {
+                    continue;
+                }
+                double time = second + nextGap(random);
+                while (time < second + 1 && written < maxBytes) {
+                    line.setLength(0);
+                    appendLine(line, random, lineNumber++, (long) (time * 1000000));
+                    byte[] bytes = line.toString().getBytes(StandardCharsets.ISO_8859_1);
+                    out.write(bytes);
+                    written += bytes.length;
+                    time += nextGap(random);
+                }
+            }
+        }
+        return written;
+    }
+
+    private void createAddrs(Random random) {
+        addrs = new String[hostCount];
+        for (int i = 0; i < hostCount; i++) {
+            if (i % 4 == 0) {
+                addrs[i] = "10." + random.nextInt(256) + "." + random.nextInt(256) + "." + (1 + random.nextInt(254));
+            } else {
+                addrs[i] = "192.168." + random.nextInt(4) + "." + (1 + random.nextInt(254));
+            }
+        }
+    }
+
+    private double nextGap(Random random) {
+        return -Math.log(1.0 - random.nextDouble()) / packetRate;
+    }
+
+    private String nextAddr(Random random) {
+        double skew = random.nextDouble();
+        return addrs[(int) (hostCount * skew * skew * skew)];
+    }
+
+    private void appendLine(StringBuilder line, Random random, long lineNumber, long timeMicros) {
+        String protocol = PROTOCOLS[random.nextInt(PROTOCOLS.length)];
+        boolean ports = !protocol.equals("ICMP");
+        String micros = Long.toString(1000000 + timeMicros % 1000000);
+        line.append(lineNumber).append('\t');
+        line.append(timeMicros / 1000000).append('.').append(micros, 1, micros.length()).append('\t');
+        line.append(nextAddr(random)).append('\t');
+        if (ports) {
+            line.append(1024 + random.nextInt(64512));
+        }
+        line.append('\t').append(nextAddr(random)).append('\t');
+        if (ports) {
+            line.append(1 + random.nextInt(1023));
+        }
+        line.append('\t').append(protocol).append('\t');
+        line.append(MIN_PACKET_SIZE + random.nextInt(MAX_PACKET_SIZE - MIN_PACKET_SIZE + 1)).append('\n');
+    }
+}
@@ -0,0 +1,277 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Measures the hot paths of loading and drawing a trace on synthetic traces of a given size, so that a change
+ * can be accepted or rejected on numbers rather than impressions. Each benchmark is run a number of times to
+ * warm up and then a number of times to measure, and reports its throughput, its time per operation, the bytes
+ * it allocated per operation and per second, and the garbage collections that ran while it was measured.
+ * <p>
+ * Allocation is read from the measuring thread, so the parallel load only reports what its calling thread
+ * allocated. Loading a 1 GB trace needs a heap of several gigabytes, such as <code>-Xmx6g</code>.
+ * <p>
+ * Usage: <code>java TraceBenchmark [-sizes 100m,1g] [-hosts n] [-rate pps] [-sparsity f] [-threads n] [-warmup n] [-iterations n] [-only name] [-dir dir]</code>
+ * @author Michael Johnson
+ */
+public class TraceBenchmark {
+    private static final int GRAPH_WIDTH = 995;
+    private static final int GRAPH_HEIGHT = 350;
+    private static final int ZOOM_FACTOR = 100;
+    private static final double MB = 1024.0 * 1024.0;
+    private static volatile long sink;
+    private int warmupIterations = 2;
+    private int iterations = 5;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private String only;
+
+    /**
+     * A single operation to be timed. The returned value is kept so that the work cannot be optimised away.
+     */
+    private interface Benchmark {
+        long run() throws Exception;
+    }
+
+    /**
+     * Constructs a <code>TraceBenchmark</code> object that warms up twice and measures five times.
+     */
+    public TraceBenchmark() {
+    }
+
+    /**
+     * Generates any synthetic traces that do not exist yet and runs every benchmark on each of them.
+     * @param args the command line arguments, described in the class documentation
+     */
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+        TraceBenchmark benchmark = new TraceBenchmark();
+        SyntheticTrace generator = new SyntheticTrace();
+        String sizes = "100m,1g";
+        String settings = "";
+        File directory = new File(System.getProperty("java.io.tmpdir"));
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("-sizes")) {
+                    sizes = args[++i];
+                } else if (args[i].equals("-hosts")) {
+                    generator.setHostCount(Integer.parseInt(args[++i]));
+                    settings += "-h" + args[i];
+                } else if (args[i].equals("-rate")) {
+                    generator.setPacketRate(Double.parseDouble(args[++i]));
+                    settings += "-r" + args[i];
+                } else if (args[i].equals("-sparsity")) {
+                    generator.setSparsity(Double.parseDouble(args[++i]));
+                    settings += "-s" + args[i];
+                } else if (args[i].equals("-threads")) {
+                    benchmark.threads = Math.max(1, Integer.parseInt(args[++i]));
+                } else if (args[i].equals("-warmup")) {
+                    benchmark.warmupIterations = Math.max(0, Integer.parseInt(args[++i]));
+                } else if (args[i].equals("-iterations")) {
+                    benchmark.iterations = Math.max(1, Integer.parseInt(args[++i]));
+                } else if (args[i].equals("-only")) {
+                    benchmark.only = args[++i];
+                } else if (args[i].equals("-dir")) {
+                    directory = new File(args[++i]);
+                } else {
+                    throw new IllegalArgumentException(args[i]);
+                }
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Usage: java TraceBenchmark [-sizes 100m,1g] [-hosts n] [-rate pps] [-sparsity f] [-threads n] [-warmup n] [-iterations n] [-only name] [-dir dir]");
+            System.exit(2);
+        }
+        generator.setDuration(Long.MAX_VALUE);
+        try {
+            for (String size : sizes.split(",")) {
+                File traceFile = new File(directory, "synthetic-" + size.trim() + settings + ".txt");
+                if (!traceFile.isFile()) {
+                    System.out.println("Generating " + traceFile);
+                    generator.write(traceFile, SyntheticTrace.parseSize(size));
+                }
+                benchmark.runAll(traceFile);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Runs every benchmark on one trace and prints a line of results for each.
+     * @param traceFile the trace to measure with
+     * @throws Exception if a benchmark fails
+     */
+    public void runAll(final File traceFile) throws Exception {
+        final long fileSize = traceFile.length();
+        System.out.printf("%n%s (%,d bytes), %d warmup and %d measured iterations%n", traceFile.getName(), fileSize, warmupIterations, iterations);
+        System.out.printf("%-16s %12s %10s %18s %10s %12s %4s %7s%n", "benchmark", "ops/s", "MB/s", "ms/op", "MB/op", "alloc MB/s", "gcs", "gc ms");
+        measure("load.legacy", fileSize, new Benchmark() {
+            @Override
+            public long run() {
+                return new TraceFile(traceFile, false).getHosts().size();
+            }
+        });
+        measure("load.mapped", fileSize, new Benchmark() {
+            @Override
+            public long run() {
+                return new TraceFile(traceFile, true).getHosts().size();
+            }
+        });
+        measure("load.parallel", fileSize, new Benchmark() {
+            @Override
+            public long run() {
+                return new TraceFile(traceFile, threads).getHosts().size();
+            }
+        });
+        measure("parse.mapped", fileSize, new Benchmark() {
+            @Override
+            public long run() throws IOException {
+                final long[] total = new long[1];
+                new MappedTraceParser().parse(traceFile, new MappedTraceParser.RecordHandler() {
+                    @Override
+                    public void handleRecord(MappedTraceParser line) {
+                        total[0] += line.getTimeMicros() + line.getPacketSize() + line.getSourceId() + line.getDestId();
+                    }
+                });
+                return total[0];
+            }
+        });
+        final TraceFile trace = new TraceFile(traceFile, threads);
+        measure("aggregate", 0, new Benchmark() {
+            @Override
+            public long run() {
+                HostSeries[] series = new HostSeries[trace.getHosts().size()];
+                PacketStore.Cursor cursor = trace.getPackets().cursor();
+                while (cursor.next()) {
+                    addPacket(series, cursor.getSourceId(), cursor.getTimeMicros(), cursor.getPacketSize());
+                    addPacket(series, cursor.getDestId(), cursor.getTimeMicros(), cursor.getPacketSize());
+                }
+                return series.length;
+            }
+        });
+        measure("hosts.sort", 0, new Benchmark() {
+            @Override
+            public long run() {
+                HostDictionary source = trace.getHosts();
+                HostDictionary hosts = new HostDictionary();
+                for (int role = HostDictionary.SOURCE; role <= HostDictionary.DEST; role++) {
+                    for (int id : source.getFirstSeen(role)) {
+                        hosts.addRole(hosts.intern(source.getAddr(id)), role);
+                    }
+                }
+                return hosts.getAddrs(hosts.getSorted(HostDictionary.SOURCE)).size()
+                        + hosts.getAddrs(hosts.getSorted(HostDictionary.DEST)).size();
+            }
+        });
+        final GraphRenderer renderer = new GraphRenderer();
+        renderer.setData(busiestHost(trace));
+        final BufferedImage image = new BufferedImage(GRAPH_WIDTH, GRAPH_HEIGHT, BufferedImage.TYPE_INT_RGB);
+        final Graphics2D g2d = image.createGraphics();
+        measure("render.full", 0, new Benchmark() {
+            @Override
+            public long run() {
+                return drawGraph(renderer, image, g2d);
+            }
+        });
+        long span = renderer.getWindowEnd() - renderer.getWindowStart();
+        renderer.setTimeWindow(span / 2, span / 2 + span / ZOOM_FACTOR);
+        measure("render.zoomed", 0, new Benchmark() {
+            @Override
+            public long run() {
+                return drawGraph(renderer, image, g2d);
+            }
+        });
+        g2d.dispose();
+    }
+
+    private static void addPacket(HostSeries[] series, int hostId, long timeMicros, int pktSize) {
+        if (series[hostId] == null) {
+            series[hostId] = new HostSeries();
+        }
+        series[hostId].add(timeMicros, pktSize);
+    }
+
+    private static SeriesView busiestHost(TraceFile trace) {
+        SeriesView busiest = null;
+        for (SeriesView graphData : trace.hostPackets.values()) {
+            if (busiest == null || graphData.getTotalBytes() > busiest.getTotalBytes()) {
+                busiest = graphData;
+            }
+        }
+        return busiest;
+    }
+
+    private static long drawGraph(GraphRenderer renderer, BufferedImage image, Graphics2D g2d) {
+        g2d.setColor(Color.WHITE);
+        g2d.fillRect(0, 0, image.getWidth(), image.getHeight());
+        renderer.render(g2d);
+        return image.getRGB(GRAPH_WIDTH / 2, GRAPH_HEIGHT / 2);
+    }
+
+    private void measure(String name, long bytesPerOp, Benchmark benchmark) throws Exception {
+        if (only != null && !name.startsWith(only)) {
+            return;
+        }
+        for (int i = 0; i < warmupIterations; i++) {
+            sink += benchmark.run();
+        }
+        long[] nanos = new long[iterations];
+        long allocatedBefore = allocatedBytes();
+        long gcCountBefore = gcCount();
+        long gcTimeBefore = gcTime();
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            sink += benchmark.run();
+            nanos[i] = System.nanoTime() - start;
+        }
+        long allocated = allocatedBytes() - allocatedBefore;
+        long gcCount = gcCount() - gcCountBefore;
+        long gcTime = gcTime() - gcTimeBefore;
+        double totalNanos = 0;
+        for (long time : nanos) {
+            totalNanos += time;
+        }
+        double meanNanos = totalNanos / iterations;
+        double variance = 0;
+        for (long time : nanos) {
+            variance += (time - meanNanos) * (time - meanNanos);
+        }
+        double deviation = iterations > 1 ? Math.sqrt(variance / (iterations - 1)) : 0;
+        String throughput = bytesPerOp > 0 ? String.format("%10.1f", bytesPerOp / MB / (meanNanos / 1e9)) : String.format("%10s", "-");
+        String allocation = allocatedBefore < 0 ? String.format("%10s %12s", "n/a", "n/a")
+                : String.format("%10.2f %12.1f", allocated / MB / iterations, allocated / MB / (totalNanos / 1e9));
+        System.out.printf("%-16s %12.2f %s %9.3f +- %6.3f %s %4d %7d%n", name, 1e9 / meanNanos, throughput,
+                meanNanos / 1e6, deviation / 1e6, allocation, gcCount, gcTime);
+    }
+
+    private static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+            if (allocations.isThreadAllocatedMemorySupported() && allocations.isThreadAllocatedMemoryEnabled()) {
+                return allocations.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, collector.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long gcTime() {
+        long time = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            time += Math.max(0, collector.getCollectionTime());
+        }
+        return time;
+    }
+}
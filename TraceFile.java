@@ -1,129 +1,1337 @@
-import java.io.*;
-import java.io.File;
-import java.lang.Integer;
-import java.util.*;
-
-/**
- * @author Michael Johnson
- */
-public class TraceFile {
-    private ArrayList<traceFileRecord> traceFile = new ArrayList<traceFileRecord>();
-    private ArrayList<String> sourceHostList = new ArrayList<String>();
-    private ArrayList<String> destHostList = new ArrayList<String>();
-    public HashMap<String, LinkedHashMap<Integer, Integer>> hostPackets = new HashMap<String, LinkedHashMap<Integer, Integer>>();
-
-    /**
-     * Constructs a <code>TraceFile</code> object from a given <code>File</code>.
-     * @param newFile the file to read from
-     */
-    public TraceFile(File newFile) {
-        readFile(newFile);
-    }
-
-    private void readFile(File newFile) {
-        traceFileRecord record;
-        try {
-            BufferedReader reader = new BufferedReader(new FileReader(newFile));
-            String currLine;
-            while ((currLine = reader.readLine()) != null) {
-                LinkedHashMap<Integer, Integer> sourceGraphData = new LinkedHashMap<Integer, Integer>();
-                LinkedHashMap<Integer, Integer> destGraphData = new LinkedHashMap<Integer, Integer>();
-                record = parseLine(currLine);
-                if (!record.sourceAddr.matches("0")) {
-                    traceFile.add(record);
-                    buildGraphData(record, sourceGraphData, destGraphData);
-                }
-            }
-            reader.close();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-    }
-
-    private traceFileRecord parseLine(String currLine) {
-        currLine = currLine.replaceAll("\t{2}", "\t0\t");
-        String[] currLineArray = currLine.split("\t");
-        Double timeStampOrig = Double.parseDouble(currLineArray[1]);
-        Integer timeStamp = timeStampOrig.intValue();
-        String sourceAddr = currLineArray[2];
-        String destAddr = currLineArray[4];
-        Integer pktSize = Integer.parseInt(currLineArray[7]);
-        return new traceFileRecord(timeStamp, sourceAddr, destAddr, pktSize);
-    }
-
-    private void buildGraphData(traceFileRecord record, LinkedHashMap<Integer, Integer> sourceGraphData, LinkedHashMap<Integer, Integer> destGraphData) {
-        if (!sourceHostList.contains(record.sourceAddr)) {
-            sourceHostList.add(record.sourceAddr);
-        }
-        if (!destHostList.contains(record.destAddr)) {
-            destHostList.add(record.destAddr);
-        }
-        if (!hostPackets.containsKey(record.destAddr)) {
-            destGraphData.put(record.timeStamp, record.pktSize);
-            hostPackets.put(record.destAddr, destGraphData);
-        } else {
-            destGraphData = hostPackets.get(record.destAddr);
-            if (destGraphData.containsKey(record.timeStamp)) {
-                Integer mergePackets = destGraphData.get(record.timeStamp);
-                mergePackets += record.pktSize;
-                destGraphData.put(record.timeStamp, mergePackets);
-                hostPackets.put(record.destAddr, destGraphData);
-            } else {
-                destGraphData.put(record.timeStamp, record.pktSize);
-                hostPackets.put(record.destAddr, destGraphData);
-            }
-        }
-        if (!hostPackets.containsKey(record.sourceAddr)) {
-            sourceGraphData.put(record.timeStamp, record.pktSize);
-            hostPackets.put(record.sourceAddr, sourceGraphData);
-        } else {
-            sourceGraphData = hostPackets.get(record.sourceAddr);
-            if (sourceGraphData.containsKey(record.timeStamp)) {
-                Integer mergePackets = sourceGraphData.get(record.timeStamp);
-                mergePackets += record.pktSize;
-                sourceGraphData.put(record.timeStamp, mergePackets);
-                hostPackets.put(record.sourceAddr, sourceGraphData);
-            } else {
-                sourceGraphData.put(record.timeStamp, record.pktSize);
-                hostPackets.put(record.sourceAddr, sourceGraphData);
-            }
-        }
-    }
-
-    /**
-     * Returns a sorted list of source host IP addresses intended for use in creating a <code>DefaultComboBoxModel</code> object.
-     * @return the sorted list of source host IP addresses
-     */
-    public ArrayList<String> getSourceHostList() {
-        return sourceHostList;
-    }
-
-    /**
-     * Returns a sorted list of destination host IP addresses intended for use in creating a <code>DefaultComboBoxModel</code> object.
-     * @return the sorted list of destination host IP addresses
-     */
-    public ArrayList<String> getDestHostList() {
-        return destHostList;
-    }
-
-    private class traceFileRecord {
-        private Integer timeStamp;
-        private String sourceAddr;
-        private String destAddr;
-        private Integer pktSize;
-
-        /**
-         * Constructs a <code>traceFileRecord</code> object for the given parameters.
-         * @param timeStamp     an <code>Integer</code> time stamp
-         * @param sourceAddr    a <code>String</code> source host IP address
-         * @param destAddr      a <code>String</code> destination host IP address
-         * @param pktSize       an <code>Integer</code> packet size in bytes
-         */
-        private traceFileRecord(Integer timeStamp, String sourceAddr, String destAddr, Integer pktSize) {
-            this.timeStamp = timeStamp;
-            this.sourceAddr = sourceAddr;
-            this.destAddr = destAddr;
-            this.pktSize = pktSize;
-        }
-    }
-}
+import java.io.*;
+import java.io.File;
+import java.lang.Integer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * @author Michael Johnson
+ */
+public class TraceFile {
+    private static final int CHUNKS_PER_WORKER = 4;
+    private static final long MIN_CHUNK_SIZE = 1024 * 1024;
+    private static final long PROGRESS_INTERVAL = 1024 * 1024;
+    private static final int SKETCH_FACTOR = 8;
+    private static final ByteBuffer ZERO_ADDR = ByteBuffer.wrap(new byte[] {'0'});
+    private static final int SPILL_RECORDS = 1 << 20;
+    private static final long NO_SERIES = -1;
+    private static final long LAZY_WINDOW = 64L * 1024 * 1024;
+    private static final int MAX_LINE_LENGTH = 64 * 1024;
+    private HostDictionary hosts = new HostDictionary();
+    private PacketStore packets = new PacketStore(hosts);
+    private ConversationMatrix conversations = new ConversationMatrix(hosts, false);
+    private HostSeries[] hostSeries = new HostSeries[1024];
+    private PacketDistribution[] distributions = new PacketDistribution[1024];
+    private PrefixTrie prefixTrie;
+    private long recordCount;
+    private File sourceFile;
+    private long loadedSize;
+    private long readOffset = -1;
+    private long followOffset;
+    private boolean tailCounted;
+    private long tailTimeMicros;
+    private int tailSourceId;
+    private int tailDestId;
+    private int tailPktSize;
+    private TraceIndex index;
+    private boolean packetsPending;
+    private boolean conversationsPending;
+    private boolean compressed;
+    private TraceFilter filter;
+    private TraceMetrics.LoadTimer loadTimer;
+    private HashMap<String, HeavyHitters.Hitter> topSources;
+    private HashMap<String, HeavyHitters.Hitter> topDests;
+    private SeriesStore seriesStore;
+    private SeriesStore spillStore;
+    private long[] spillHeads;
+    private long[] offHeapSeries;
+    private HostOffsets lineOffsets;
+    private SeriesCache seriesCache;
+    public Map<String, SeriesView> hostPackets = new SeriesMap();
+
+    /**
+     * Constructs a <code>TraceFile</code> object from a given <code>File</code>.
+     * @param newFile the file to read from
+     */
+    public TraceFile(File newFile) {
+        sourceFile = newFile;
+        readFile(newFile);
+    }
+
+    /**
+     * Constructs a <code>TraceFile</code> object from a given <code>File</code>, optionally reading it
+     * through a memory-mapped <code>MappedTraceParser</code> instead of line by line.
+     * @param newFile       the file to read from
+     * @param memoryMapped  whether to parse the file through a memory-mapped view
+     */
+    public TraceFile(File newFile, boolean memoryMapped) {
+        sourceFile = newFile;
+        if (memoryMapped) {
+            readMappedFile(newFile);
+        } else {
+            readFile(newFile);
+        }
+    }
+
+    /**
+     * Constructs a <code>TraceFile</code> object from a given <code>File</code>, splitting the file into
+     * line aligned byte ranges that are parsed and aggregated in parallel before being merged in file order.
+     * The result is the same as reading the file sequentially.
+     * @param newFile   the file to read from
+     * @param workers   the number of worker threads to parse with
+     */
+    public TraceFile(File newFile, int workers) {
+        sourceFile = newFile;
+        readFileInParallel(newFile, workers);
+    }
+
+    /**
+     * Constructs a <code>TraceFile</code> object from a given <code>File</code> in parallel in the same way as
+     * <code>TraceFile(File, int)</code>, loading only the lines that pass a filter.
+     * @param newFile   the file to read from
+     * @param workers   the number of worker threads to parse with
+     * @param filter    the <code>TraceFilter</code> lines must pass, or null to load every line
+     */
+    public TraceFile(File newFile, int workers, TraceFilter filter) {
+        sourceFile = newFile;
+        this.filter = filter;
+        readFileInParallel(newFile, workers);
+    }
+
+    /**
+     * Constructs a <code>TraceFile</code> object from a given <code>File</code> through a memory-mapped view,
+     * reporting progress to the listener after roughly every megabyte. A gzip compressed file is read through a
+     * <code>TracePipeline</code> instead, which decompresses it on other threads while it is parsed. Loading stops
+     * with a <code>CancellationException</code> as soon as the loading thread is interrupted.
+     * @param newFile   the file to read from
+     * @param listener  the <code>LoadListener</code> to report progress to
+     */
+    public TraceFile(File newFile, LoadListener listener) {
+        sourceFile = newFile;
+        readMappedFile(newFile, listener);
+    }
+
+    /**
+     * Constructs a <code>TraceFile</code> object from a given <code>File</code> in the same way as
+     * <code>TraceFile(File, LoadListener)</code>, except that when the options enable indexing a trace that
+     * has been loaded before is reopened from its index without being parsed, and a trace that has not
+     * is indexed once it has been loaded. Packets are only read from a reopened trace when they are asked for.
+     * A trace loaded through a filter only holds the lines that pass it and is never indexed.
+     * <p>
+     * When the options keep series off the heap, packets are written straight into a <code>SeriesStore</code>, and
+     * the series being built are moved into a second, temporary store after every million lines and merged one
+     * host at a time into the trace's store once the file has been read, so the heap taken by the load does not
+     * grow with the size of the trace. The trace then cannot be followed, and should be closed once it is no
+     * longer needed.
+     * <p>
+     * When the options build series on demand, a trace that cannot be reopened from its index is read in a first
+     * pass that only records its hosts and the offsets of each host's lines in a <code>HostOffsets</code>. A host's
+     * series is built from its own lines the first time it is looked up, and kept in a <code>SeriesCache</code>
+     * while it is among the most recently used. Such a trace keeps its series on the heap, and is neither indexed
+     * nor followed.
+     * @param newFile   the file to read from
+     * @param listener  the <code>LoadListener</code> to report progress to
+     * @param options   the <code>TraceOptions</code> to load with
+     */
+    public TraceFile(File newFile, LoadListener listener, TraceOptions options) {
+        sourceFile = newFile;
+        conversations = new ConversationMatrix(hosts, options.isConversationSeries());
+        filter = options.getFilter();
+        if (options.getTopHosts() > 0) {
+            readTopHosts(newFile, listener, options.getTopHosts());
+            return;
+        }
+        boolean lazy = options.isLazySeries() && !TracePipeline.isCompressed(newFile);
+        if (options.isOffHeap() && !lazy) {
+            openStores(options.getOffHeapDirectory());
+        }
+        boolean indexed = options.isIndexEnabled() && filter == null;
+        if (indexed && readIndex(options.getIndexFile(newFile), listener)) {
+            return;
+        }
+        if (lazy) {
+            readLineOffsets(newFile, listener, options.getSeriesCacheBytes());
+            return;
+        }
+        long modified = newFile.lastModified();
+        readMappedFile(newFile, listener);
+        if (indexed) {
+            try {
+                TraceIndex.write(options.getIndexFile(newFile), loadedSize, modified, recordCount, hosts, allSeries(), distributions, conversations);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private TraceFile() {
+    }
+
+    private void openStores(File directory) {
+        try {
+            seriesStore = directory == null ? new SeriesStore() : new SeriesStore(directory);
+            spillStore = directory == null ? new SeriesStore() : new SeriesStore(directory);
+            packets = new PacketStore(hosts, seriesStore);
+        } catch (IOException e) {
+            e.printStackTrace();
+            closeStores();
+            seriesStore = null;
+            packets = new PacketStore(hosts);
+        }
+    }
+
+    private void closeStores() {
+        if (seriesStore != null) {
+            seriesStore.close();
+        }
+        if (spillStore != null) {
+            spillStore.close();
+        }
+        spillStore = null;
+        spillHeads = null;
+    }
+
+    /**
+     * Releases the memory or file holding a trace loaded off the heap. Neither the trace nor any series taken from
+     * it may be read afterwards. Traces kept on the heap are left as they are.
+     */
+    public synchronized void close() {
+        prefixTrie = null;
+        closeStores();
+    }
+
+    /**
+     * Receives progress reports from a <code>TraceFile</code> while it is being loaded.
+     */
+    public interface LoadListener {
+        /**
+         * Called on the loading thread between lines. The partially loaded trace may be read, for example to take
+         * copies for another thread, but only until the call returns.
+         * @param partial       the <code>TraceFile</code> being loaded
+         * @param bytesRead     the number of bytes of the file parsed so far
+         * @param totalBytes    the size of the file in bytes
+         */
+        void loadProgress(TraceFile partial, long bytesRead, long totalBytes);
+    }
+
+    private void readFile(File newFile) {
+        traceFileRecord record;
+        loadTimer = TraceMetrics.get().startLoad();
+        try {
+            InputStream in = new FileInputStream(newFile);
+            if (TracePipeline.isCompressed(newFile)) {
+                in = new GZIPInputStream(in);
+                compressed = true;
+            }
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in));
+            String currLine;
+            while ((currLine = reader.readLine()) != null) {
+                boolean timed = loadTimer != null && loadTimer.sample();
+                long parseStart = timed ? System.nanoTime() : 0;
+                record = parseLine(currLine);
+                if (timed) {
+                    loadTimer.parsed(System.nanoTime() - parseStart);
+                }
+                if (!record.sourceAddr.equals("0")) {
+                    int sourceId = hosts.intern(record.sourceAddr);
+                    int destId = hosts.intern(record.destAddr);
+                    packets.add(record.timeMicros, sourceId, destId, record.pktSize);
+                    long aggregateStart = timed ? System.nanoTime() : 0;
+                    buildGraphData(record.timeMicros, sourceId, destId, record.pktSize);
+                    if (timed) {
+                        loadTimer.aggregated(System.nanoTime() - aggregateStart);
+                    }
+                } else if (loadTimer != null) {
+                    loadTimer.skipped();
+                }
+            }
+            reader.close();
+            loadedSize = newFile.length();
+            finishLoad();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void readMappedFile(File newFile) {
+        if (TracePipeline.isCompressed(newFile)) {
+            readMappedFile(newFile, null);
+            return;
+        }
+        loadTimer = TraceMetrics.get().startLoad();
+        try (RandomAccessFile file = new RandomAccessFile(newFile, "r"); FileChannel channel = file.getChannel()) {
+            loadedSize = channel.size();
+            readMappedRange(channel, 0, loadedSize);
+            finishLoad();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void readMappedFile(File newFile, LoadListener listener) {
+        loadTimer = TraceMetrics.get().startLoad();
+        MappedTraceParser parser = newParser();
+        try {
+            parseTrace(newFile, Long.MAX_VALUE, parser, recordHandler(), listener);
+        } catch (CancellationException e) {
+            closeStores();
+            throw e;
+        }
+        if (loadTimer != null) {
+            loadTimer.malformed(parser.getMalformedLines());
+        }
+        if (spillStore != null) {
+            finishOffHeap();
+        }
+        finishLoad();
+    }
+
+    /**
+     * Parses a trace up to the given end, or up to the size the file had when it was opened if that is smaller. The
+     * size is taken once, so a final line that is still being written is read only as far as it had got, exactly
+     * as <code>markFollowPoint</code> expects, and is left for <code>readAppended</code> to finish. Each window of the
+     * file is mapped once, and progress is reported from within it.
+     */
+    private void parseTrace(final File newFile, long end, MappedTraceParser parser, MappedTraceParser.RecordHandler handler, final LoadListener listener) {
+        if (TracePipeline.isCompressed(newFile)) {
+            parseCompressedTrace(newFile, parser, handler, listener);
+            return;
+        }
+        try (RandomAccessFile file = new RandomAccessFile(newFile, "r"); FileChannel channel = file.getChannel()) {
+            final long size = Math.min(end, channel.size());
+            loadedSize = size;
+            if (Thread.currentThread().isInterrupted()) {
+                throw new CancellationException("Loading " + newFile.getName() + " was cancelled");
+            }
+            parser.setProgressHandler(new MappedTraceParser.ProgressHandler() {
+                @Override
+                public void progressMade(long position) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        throw new CancellationException("Loading " + newFile.getName() + " was cancelled");
+                    }
+                    if (listener != null) {
+                        listener.loadProgress(TraceFile.this, position, size);
+                    }
+                }
+            }, PROGRESS_INTERVAL);
+            parser.parseBounded(channel, 0, size, true, handler);
+        } catch (ClosedByInterruptException e) {
+            throw new CancellationException("Loading " + newFile.getName() + " was cancelled");
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void parseCompressedTrace(File newFile, MappedTraceParser parser, MappedTraceParser.RecordHandler handler, LoadListener listener) {
+        compressed = true;
+        loadedSize = newFile.length();
+        try (TracePipeline pipeline = new TracePipeline(newFile)) {
+            for (ByteBuffer buf = pipeline.next(); buf != null; buf = pipeline.next()) {
+                parser.parse(buf, 0, buf.limit(), true, handler);
+                pipeline.recycle(buf);
+                if (listener != null) {
+                    listener.loadProgress(this, pipeline.getBytesRead(), loadedSize);
+                }
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new CancellationException("Loading " + newFile.getName() + " was cancelled");
+                }
+            }
+        } catch (InterruptedException e) {
+            throw new CancellationException("Loading " + newFile.getName() + " was cancelled");
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void readTopHosts(File newFile, LoadListener listener, int topHosts) {
+        final HeavyHitters sources = new HeavyHitters(topHosts * SKETCH_FACTOR);
+        final HeavyHitters dests = new HeavyHitters(topHosts * SKETCH_FACTOR);
+        loadTimer = TraceMetrics.get().startLoad();
+        MappedTraceParser parser = newParser();
+        MappedTraceParser.RecordHandler handler = new MappedTraceParser.RecordHandler() {
+            @Override
+            public void handleRecord(MappedTraceParser line) {
+                boolean timed = loadTimer != null && loadTimer.sample();
+                if (line.isSourceZero()) {
+                    if (loadTimer != null) {
+                        loadTimer.skipped();
+                    }
+                    return;
+                }
+                recordCount++;
+                long aggregateStart = timed ? System.nanoTime() : 0;
+                ByteBuffer sourceBuf = line.getLineBuffer();
+                int sourceStart = line.getSourceStart();
+                int sourceEnd = line.getSourceEnd();
+                ByteBuffer destBuf = line.isDestZero() ? ZERO_ADDR : sourceBuf;
+                int destStart = line.isDestZero() ? 0 : line.getDestStart();
+                int destEnd = line.isDestZero() ? 1 : line.getDestEnd();
+                long timeMicros = line.getTimeMicros();
+                int pktSize = line.getPacketSize();
+                int source = sources.add(sourceBuf, sourceStart, sourceEnd, pktSize);
+                if (source >= 0) {
+                    sources.getSeries(source).add(timeMicros, pktSize);
+                }
+                int dest = dests.add(destBuf, destStart, destEnd, pktSize);
+                if (dest >= 0) {
+                    dests.getSeries(dest).add(timeMicros, pktSize);
+                }
+                int received = sources.find(destBuf, destStart, destEnd);
+                if (received >= 0) {
+                    sources.getSeries(received).add(timeMicros, pktSize);
+                }
+                int sent = dests.find(sourceBuf, sourceStart, sourceEnd);
+                if (sent >= 0) {
+                    dests.getSeries(sent).add(timeMicros, pktSize);
+                }
+                if (timed) {
+                    loadTimer.aggregated(System.nanoTime() - aggregateStart);
+                }
+            }
+        };
+        parseTrace(newFile, Long.MAX_VALUE, parser, handler, listener);
+        if (loadTimer != null) {
+            loadTimer.malformed(parser.getMalformedLines());
+        }
+        topSources = adoptTopHosts(sources.getTop(topHosts), HostDictionary.SOURCE);
+        topDests = adoptTopHosts(dests.getTop(topHosts), HostDictionary.DEST);
+        finishLoad();
+    }
+
+    private HashMap<String, HeavyHitters.Hitter> adoptTopHosts(List<HeavyHitters.Hitter> top, int role) {
+        HashMap<String, HeavyHitters.Hitter> ranks = new HashMap<String, HeavyHitters.Hitter>();
+        for (HeavyHitters.Hitter hitter : top) {
+            int hostId = hosts.intern(hitter.getAddr());
+            hosts.addRole(hostId, role);
+            ranks.put(hitter.getAddr(), hitter);
+            HeavyHitters.Hitter other = topSources == null ? null : topSources.get(hitter.getAddr());
+            if (other == null || hitter.getError() < other.getError()) {
+                adoptGraphData(hostId, hitter.getSeries());
+            }
+        }
+        return ranks;
+    }
+
+    private boolean readIndex(File indexFile, LoadListener listener) {
+        TraceIndex opened = TraceIndex.open(indexFile, sourceFile);
+        if (opened == null) {
+            return false;
+        }
+        index = opened;
+        hosts = index.getHosts();
+        packets = seriesStore == null ? new PacketStore(hosts) : new PacketStore(hosts, seriesStore);
+        if (spillStore != null) {
+            spillStore.close();
+            spillStore = null;
+        }
+        conversations = new ConversationMatrix(hosts, false);
+        conversationsPending = true;
+        packetsPending = true;
+        hostSeries = new HostSeries[Math.max(hostSeries.length, hosts.size())];
+        recordCount = index.getRecordCount();
+        loadedSize = index.getSourceSize();
+        if (listener != null) {
+            listener.loadProgress(this, loadedSize, loadedSize);
+        }
+        return true;
+    }
+
+    private void readLineOffsets(File newFile, LoadListener listener, long cacheBytes) {
+        lineOffsets = new HostOffsets();
+        loadTimer = TraceMetrics.get().startLoad();
+        MappedTraceParser parser = newParser();
+        parseTrace(newFile, Long.MAX_VALUE, parser, new MappedTraceParser.RecordHandler() {
+            @Override
+            public void handleRecord(MappedTraceParser line) {
+                boolean timed = loadTimer != null && loadTimer.sample();
+                if (!line.isSourceZero()) {
+                    int sourceId = line.getSourceId();
+                    int destId = line.getDestId();
+                    recordCount++;
+                    long aggregateStart = timed ? System.nanoTime() : 0;
+                    hosts.addRole(sourceId, HostDictionary.SOURCE);
+                    hosts.addRole(destId, HostDictionary.DEST);
+                    lineOffsets.add(sourceId, line.getLineOffset());
+                    if (destId != sourceId) {
+                        lineOffsets.add(destId, line.getLineOffset());
+                    }
+                    conversations.add(line.getTimeMicros(), sourceId, destId, line.getPacketSize());
+                    if (timed) {
+                        loadTimer.aggregated(System.nanoTime() - aggregateStart);
+                    }
+                } else if (loadTimer != null) {
+                    loadTimer.skipped();
+                }
+            }
+        }, listener);
+        if (loadTimer != null) {
+            loadTimer.malformed(parser.getMalformedLines());
+        }
+        packetsPending = true;
+        seriesCache = new SeriesCache(cacheBytes);
+        finishLoad();
+    }
+
+    /**
+     * Builds a host's series from only the lines recorded for it, mapping the trace a window at a time. Offsets
+     * ascend, so a window is only remapped when the next line could run past its end.
+     */
+    private HostSeries readHostSeries(final int hostId) {
+        final HostSeries graphData = new HostSeries();
+        final PacketDistribution distribution = new PacketDistribution();
+        MappedTraceParser parser = new MappedTraceParser(hosts);
+        MappedTraceParser.RecordHandler handler = new MappedTraceParser.RecordHandler() {
+            @Override
+            public void handleRecord(MappedTraceParser line) {
+                if (line.getDestId() == hostId) {
+                    graphData.add(line.getTimeMicros(), line.getPacketSize());
+                    distribution.add(line.getTimeMicros(), line.getPacketSize());
+                }
+                if (line.getSourceId() == hostId) {
+                    graphData.add(line.getTimeMicros(), line.getPacketSize());
+                    distribution.add(line.getTimeMicros(), line.getPacketSize());
+                }
+            }
+        };
+        try (RandomAccessFile file = new RandomAccessFile(sourceFile, "r"); FileChannel channel = file.getChannel()) {
+            long size = Math.min(loadedSize, channel.size());
+            MappedByteBuffer window = null;
+            long windowStart = 0;
+            HostOffsets.Cursor cursor = lineOffsets.cursor(hostId);
+            while (cursor.next()) {
+                long offset = cursor.getOffset();
+                if (offset >= size) {
+                    break;
+                }
+                long windowEnd = window == null ? 0 : windowStart + window.limit();
+                if (window == null || offset >= windowEnd || (offset + MAX_LINE_LENGTH > windowEnd && windowEnd < size)) {
+                    windowStart = offset;
+                    window = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(LAZY_WINDOW, size - offset));
+                }
+                int start = (int) (offset - windowStart);
+                parser.parse(window, start, start + 1, true, handler);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (seriesCache != null && distributionOf(hostId) == null) {
+            adoptDistribution(hostId, distribution);
+        }
+        return graphData;
+    }
+
+    /**
+     * Reads the packets of a trace that was reopened from its index or whose series are built on demand, stopping
+     * exactly where the trace ended when it was loaded. A line that was still being written then is read only as
+     * far as it had got, just as the series counted it, and is left to <code>readAppended</code> to finish. If the
+     * file has since been cut short, a final line cut off by that is not read.
+     */
+    private void readPendingPackets() {
+        if (!packetsPending) {
+            return;
+        }
+        packetsPending = false;
+        MappedTraceParser.RecordHandler handler = new MappedTraceParser.RecordHandler() {
+            @Override
+            public void handleRecord(MappedTraceParser line) {
+                if (!line.isSourceZero()) {
+                    packets.add(line.getTimeMicros(), line.getSourceId(), line.getDestId(), line.getPacketSize());
+                }
+            }
+        };
+        if (TracePipeline.isCompressed(sourceFile)) {
+            parseTrace(sourceFile, loadedSize, newParser(), handler, null);
+            return;
+        }
+        try (RandomAccessFile file = new RandomAccessFile(sourceFile, "r"); FileChannel channel = file.getChannel()) {
+            long end = Math.min(loadedSize, channel.size());
+            newParser().parseBounded(channel, 0, end, end == loadedSize, handler);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Decodes the conversation totals of a trace reopened from its index the first time they are needed, so the
+     * trace file itself is never read just to find a host's peers.
+     */
+    private void readPendingConversations() {
+        if (conversationsPending) {
+            conversationsPending = false;
+            index.readConversations(conversations);
+        }
+    }
+
+    private MappedTraceParser newParser() {
+        MappedTraceParser parser = new MappedTraceParser(hosts);
+        parser.setFilter(filter);
+        return parser;
+    }
+
+    private void readMappedRange(FileChannel channel, long start, long end) throws IOException {
+        MappedTraceParser parser = newParser();
+        parser.parseBounded(channel, start, end, true, recordHandler());
+        if (loadTimer != null) {
+            loadTimer.malformed(parser.getMalformedLines());
+        }
+    }
+
+    private void finishLoad() {
+        if (loadTimer == null) {
+            return;
+        }
+        long heapBytes = lineOffsets == null ? 0 : lineOffsets.estimateHeapBytes();
+        for (HostSeries graphData : hostSeries) {
+            if (graphData != null) {
+                heapBytes += graphData.estimateHeapBytes();
+            }
+        }
+        for (PacketDistribution distribution : distributions) {
+            if (distribution != null) {
+                heapBytes += distribution.estimateHeapBytes();
+            }
+        }
+        loadTimer.finish(loadedSize, hosts.size(), heapBytes);
+        loadTimer = null;
+    }
+
+    private MappedTraceParser.RecordHandler recordHandler() {
+        return new MappedTraceParser.RecordHandler() {
+            @Override
+            public void handleRecord(MappedTraceParser line) {
+                boolean timed = loadTimer != null && loadTimer.sample();
+                if (!line.isSourceZero()) {
+                    int sourceId = line.getSourceId();
+                    int destId = line.getDestId();
+                    packets.add(line.getTimeMicros(), sourceId, destId, line.getPacketSize());
+                    long aggregateStart = timed ? System.nanoTime() : 0;
+                    buildGraphData(line.getTimeMicros(), sourceId, destId, line.getPacketSize());
+                    if (timed) {
+                        loadTimer.aggregated(System.nanoTime() - aggregateStart);
+                    }
+                } else if (loadTimer != null) {
+                    loadTimer.skipped();
+                }
+            }
+        };
+    }
+
+    private void readFileInParallel(File newFile, int workers) {
+        if (TracePipeline.isCompressed(newFile)) {
+            // a gzip stream cannot be split, so it is decompressed and parsed on a pipeline instead
+            readMappedFile(newFile, null);
+            return;
+        }
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, workers));
+        loadTimer = TraceMetrics.get().startLoad();
+        try (RandomAccessFile file = new RandomAccessFile(newFile, "r"); FileChannel channel = file.getChannel()) {
+            long[] bounds = chunkBounds(channel, Math.max(1, workers) * CHUNKS_PER_WORKER);
+            loadedSize = bounds[bounds.length - 1];
+            mergeFrom(pool.invoke(new IngestTask(channel, bounds, 0, bounds.length - 1, loadTimer, filter)));
+            finishLoad();
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (UncheckedIOException e) {
+            e.getCause().printStackTrace();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Reads any complete lines appended to the trace file since it was loaded or last followed and folds them into
+     * the existing host series and host lists, so the cost depends only on the number of new bytes. A final line
+     * that is still being written is left until its terminator appears. If anything changed the listener is called
+     * while this trace is locked against further changes. A gzip compressed trace, one kept off the heap and one
+     * whose series are built on demand are never followed.
+     * @param listener the <code>LoadListener</code> to notify of new data, which may be null
+     * @return true if the trace changed
+     * @throws IOException if the trace file cannot be read
+     */
+    public synchronized boolean readAppended(LoadListener listener) throws IOException {
+        if (isTopHostsOnly() || compressed || seriesStore != null || lineOffsets != null) {
+            return false;
+        }
+        readPendingPackets();
+        readPendingConversations();
+        try (RandomAccessFile file = new RandomAccessFile(sourceFile, "r"); FileChannel channel = file.getChannel()) {
+            if (readOffset < 0) {
+                markFollowPoint(channel);
+            }
+            long size = channel.size();
+            if (size <= readOffset) {
+                return false;
+            }
+            boolean changed = tailCounted;
+            if (tailCounted) {
+                packets.removeLast();
+                seriesOf(tailSourceId).remove(tailTimeMicros, tailPktSize);
+                seriesOf(tailDestId).remove(tailTimeMicros, tailPktSize);
+                distributionOf(tailSourceId).remove(tailTimeMicros, tailPktSize);
+                distributionOf(tailDestId).remove(tailTimeMicros, tailPktSize);
+                conversations.remove(tailTimeMicros, tailSourceId, tailDestId, tailPktSize);
+                recordCount--;
+                tailCounted = false;
+            }
+            long records = recordCount;
+            followOffset = newParser().parse(channel, followOffset, size, false, recordHandler());
+            readOffset = size;
+            changed |= recordCount != records;
+            if (changed) {
+                prefixTrie = null;
+            }
+            if (changed && listener != null) {
+                listener.loadProgress(this, followOffset, size);
+            }
+            return changed;
+        }
+    }
+
+    private void markFollowPoint(FileChannel channel) throws IOException {
+        ByteBuffer probe = ByteBuffer.allocate(8192);
+        followOffset = 0;
+        long position = loadedSize;
+        while (position > 0 && followOffset == 0) {
+            int length = (int) Math.min(probe.capacity(), position);
+            position -= length;
+            probe.clear().limit(length);
+            channel.read(probe, position);
+            for (int i = length - 1; i >= 0; i--) {
+                if (probe.get(i) == '\n' || probe.get(i) == '\r') {
+                    followOffset = position + i + 1;
+                    break;
+                }
+            }
+        }
+        readOffset = loadedSize;
+        if (followOffset < loadedSize) {
+            ByteBuffer tail = ByteBuffer.allocate((int) (loadedSize - followOffset));
+            while (tail.hasRemaining()) {
+                if (channel.read(tail, followOffset + tail.position()) < 0) {
+                    break;
+                }
+            }
+            tail.flip();
+            newParser().parse(tail, 0, tail.limit(), true, new MappedTraceParser.RecordHandler() {
+                @Override
+                public void handleRecord(MappedTraceParser line) {
+                    tailCounted = !line.isSourceZero();
+                    tailTimeMicros = line.getTimeMicros();
+                    tailSourceId = line.getSourceId();
+                    tailDestId = line.getDestId();
+                    tailPktSize = line.getPacketSize();
+                }
+            });
+        }
+    }
+
+    private static long[] chunkBounds(FileChannel channel, int chunks) throws IOException {
+        long size = channel.size();
+        chunks = (int) Math.max(1, Math.min(chunks, size / MIN_CHUNK_SIZE));
+        long[] bounds = new long[chunks + 1];
+        ByteBuffer probe = ByteBuffer.allocate(8192);
+        for (int i = 1; i < chunks; i++) {
+            long position = Math.max(bounds[i - 1], size / chunks * i);
+            bounds[i] = size;
+            while (position < size && bounds[i] == size) {
+                probe.clear();
+                int read = channel.read(probe, position);
+                if (read <= 0) {
+                    break;
+                }
+                for (int j = 0; j < read; j++) {
+                    if (probe.get(j) == '\n') {
+                        bounds[i] = position + j + 1;
+                        break;
+                    }
+                }
+                position += read;
+            }
+        }
+        bounds[chunks] = size;
+        return bounds;
+    }
+
+    private void mergeFrom(TraceFile later) {
+        recordCount += later.recordCount;
+        if (loadTimer != null && later.loadTimer != null) {
+            loadTimer.merge(later.loadTimer);
+        }
+        int[] idMap = hosts.merge(later.hosts);
+        packets.addAll(later.packets, idMap);
+        conversations.addAll(later.conversations, idMap);
+        for (int id = 0; id < idMap.length; id++) {
+            HostSeries laterData = later.hostSeries[id];
+            if (laterData == null) {
+                continue;
+            }
+            HostSeries graphData = idMap[id] < hostSeries.length ? hostSeries[idMap[id]] : null;
+            if (graphData == null) {
+                adoptGraphData(idMap[id], laterData);
+            } else {
+                graphData.addAll(laterData);
+            }
+        }
+        for (int id = 0; id < idMap.length && id < later.distributions.length; id++) {
+            PacketDistribution laterDistribution = later.distributions[id];
+            if (laterDistribution == null) {
+                continue;
+            }
+            PacketDistribution distribution = distributionOf(idMap[id]);
+            if (distribution == null) {
+                adoptDistribution(idMap[id], laterDistribution);
+            } else {
+                distribution.addAll(laterDistribution);
+            }
+        }
+    }
+
+    private traceFileRecord parseLine(String currLine) {
+        currLine = currLine.replaceAll("\t{2}", "\t0\t");
+        String[] currLineArray = currLine.split("\t");
+        Double timeStampOrig = Double.parseDouble(currLineArray[1]);
+        Long timeMicros = MappedTraceParser.toMicros(timeStampOrig);
+        String sourceAddr = currLineArray[2];
+        String destAddr = currLineArray[4];
+        Integer pktSize = Integer.parseInt(currLineArray[7]);
+        return new traceFileRecord(timeMicros, sourceAddr, destAddr, pktSize);
+    }
+
+    private void buildGraphData(long timeMicros, int sourceId, int destId, int pktSize) {
+        recordCount++;
+        hosts.addRole(sourceId, HostDictionary.SOURCE);
+        hosts.addRole(destId, HostDictionary.DEST);
+        graphDataFor(destId).add(timeMicros, pktSize);
+        graphDataFor(sourceId).add(timeMicros, pktSize);
+        distributionFor(destId).add(timeMicros, pktSize);
+        distributionFor(sourceId).add(timeMicros, pktSize);
+        conversations.add(timeMicros, sourceId, destId, pktSize);
+        if (spillStore != null && (recordCount & (SPILL_RECORDS - 1)) == 0) {
+            spillSeries();
+        }
+    }
+
+    /**
+     * Moves every series built since the last spill into the spill store, chaining each host's spilled segments
+     * from its newest through a link of the segment's address and the previous link.
+     */
+    private void spillSeries() {
+        if (spillHeads == null || spillHeads.length < hostSeries.length) {
+            int from = spillHeads == null ? 0 : spillHeads.length;
+            spillHeads = spillHeads == null ? new long[hostSeries.length] : Arrays.copyOf(spillHeads, hostSeries.length);
+            Arrays.fill(spillHeads, from, spillHeads.length, NO_SERIES);
+        }
+        for (int id = 0; id < hostSeries.length; id++) {
+            if (hostSeries[id] != null) {
+                long link = spillStore.allocate(2 * Long.BYTES);
+                spillStore.putLong(link, OffHeapSeries.write(spillStore, hostSeries[id]));
+                spillStore.putLong(link + Long.BYTES, spillHeads[id]);
+                spillHeads[id] = link;
+                hostSeries[id] = null;
+            }
+        }
+    }
+
+    private boolean isSpilled(int hostId) {
+        return spillHeads != null && hostId < spillHeads.length && spillHeads[hostId] != NO_SERIES;
+    }
+
+    /**
+     * Builds a host's whole series on the heap from its spilled segments, oldest first, and whatever has been added
+     * since the last spill.
+     */
+    private HostSeries mergedSeries(int hostId) {
+        HostSeries current = hostId < hostSeries.length ? hostSeries[hostId] : null;
+        if (!isSpilled(hostId)) {
+            return current;
+        }
+        long[] segments = new long[8];
+        int count = 0;
+        for (long link = spillHeads[hostId]; link != NO_SERIES; link = spillStore.getLong(link + Long.BYTES)) {
+            if (count == segments.length) {
+                segments = Arrays.copyOf(segments, count * 2);
+            }
+            segments[count++] = spillStore.getLong(link);
+        }
+        HostSeries merged = new HostSeries();
+        while (count > 0) {
+            merged.addAll(new OffHeapSeries(spillStore, segments[--count]));
+        }
+        if (current != null) {
+            merged.addAll(current);
+        }
+        return merged;
+    }
+
+    /**
+     * Writes every host's finished series into the trace's store one host at a time, then drops the spill store.
+     */
+    private void finishOffHeap() {
+        offHeapSeries = new long[hosts.size()];
+        Arrays.fill(offHeapSeries, NO_SERIES);
+        for (int id = 0; id < hosts.size(); id++) {
+            HostSeries graphData = mergedSeries(id);
+            if (graphData != null) {
+                offHeapSeries[id] = OffHeapSeries.write(seriesStore, graphData);
+            }
+            if (id < hostSeries.length) {
+                hostSeries[id] = null;
+            }
+        }
+        spillStore.close();
+        spillStore = null;
+        spillHeads = null;
+    }
+
+    private SeriesView viewOf(int hostId) {
+        if (offHeapSeries != null) {
+            return hostId < offHeapSeries.length && offHeapSeries[hostId] != NO_SERIES ? new OffHeapSeries(seriesStore, offHeapSeries[hostId]) : null;
+        }
+        if (spillStore != null) {
+            return mergedSeries(hostId);
+        }
+        return seriesOf(hostId);
+    }
+
+    private SeriesView[] allSeries() {
+        if (offHeapSeries == null) {
+            return hostSeries;
+        }
+        SeriesView[] views = new SeriesView[hosts.size()];
+        for (int id = 0; id < views.length; id++) {
+            views[id] = viewOf(id);
+        }
+        return views;
+    }
+
+    private HostSeries graphDataFor(int hostId) {
+        HostSeries graphData = seriesOf(hostId);
+        if (graphData == null) {
+            graphData = new HostSeries();
+            adoptGraphData(hostId, graphData);
+        }
+        return graphData;
+    }
+
+    private HostSeries seriesOf(int hostId) {
+        if (lineOffsets != null) {
+            return lazySeriesOf(hostId);
+        }
+        HostSeries graphData = hostId < hostSeries.length ? hostSeries[hostId] : null;
+        if (graphData == null && index != null && index.hasSeries(hostId)) {
+            graphData = index.readSeries(hostId);
+            adoptGraphData(hostId, graphData);
+        }
+        return graphData;
+    }
+
+    /**
+     * Looks a host's series up in the cache or builds it from the host's lines. Series built while the first pass
+     * is still running are not cached, since more of their lines may yet be found.
+     */
+    private HostSeries lazySeriesOf(int hostId) {
+        HostSeries graphData = seriesCache == null ? null : seriesCache.get(hostId);
+        if (graphData == null && lineOffsets.getCount(hostId) > 0) {
+            graphData = readHostSeries(hostId);
+            if (seriesCache != null) {
+                seriesCache.put(hostId, graphData);
+            }
+        }
+        return graphData;
+    }
+
+    private void adoptGraphData(int hostId, HostSeries graphData) {
+        if (hostId >= hostSeries.length) {
+            hostSeries = Arrays.copyOf(hostSeries, Math.max(hostId + 1, hostSeries.length * 2));
+        }
+        hostSeries[hostId] = graphData;
+    }
+
+    private PacketDistribution distributionFor(int hostId) {
+        PacketDistribution distribution = distributionOf(hostId);
+        if (distribution == null) {
+            distribution = new PacketDistribution();
+            adoptDistribution(hostId, distribution);
+        }
+        return distribution;
+    }
+
+    private PacketDistribution distributionOf(int hostId) {
+        PacketDistribution distribution = hostId < distributions.length ? distributions[hostId] : null;
+        if (distribution == null && index != null) {
+            distribution = index.readDistribution(hostId);
+            if (distribution != null) {
+                adoptDistribution(hostId, distribution);
+            }
+        }
+        return distribution;
+    }
+
+    private void adoptDistribution(int hostId, PacketDistribution distribution) {
+        if (hostId >= distributions.length) {
+            distributions = Arrays.copyOf(distributions, Math.max(hostId + 1, distributions.length * 2));
+        }
+        distributions[hostId] = distribution;
+    }
+
+    /**
+     * Returns every packet of the trace, in file order, held in a columnar <code>PacketStore</code>. A trace that
+     * was reopened from its index reads its packets from the trace file the first time they are asked for.
+     * @return the packets of the trace
+     */
+    public synchronized PacketStore getPackets() {
+        readPendingPackets();
+        return packets;
+    }
+
+    /**
+     * Returns an independent copy of a host's graphing data that remains valid while this trace keeps changing.
+     * A series that has been finished off the heap can no longer change, and is returned as it is.
+     * @param hostAddr the <code>String</code> host IP address
+     * @return a copy of the host's series, or null if the host has not been seen
+     */
+    public synchronized SeriesView copyGraphData(String hostAddr) {
+        SeriesView graphData = hostPackets.get(hostAddr);
+        return graphData instanceof HostSeries ? ((HostSeries) graphData).copy() : graphData;
+    }
+
+    /**
+     * Returns the bins of a host's graphing data that have changed since they were last asked for, such as for
+     * keeping a copy from <code>copyGraphData</code> up to date with <code>HostSeries.applyChanges</code> while the
+     * trace is followed, instead of copying the whole series after every poll.
+     * @param hostAddr the <code>String</code> host IP address
+     * @return the changed bins, or null if the host has not been seen or its series is not kept on the heap
+     */
+    public synchronized HostSeries copyGraphChanges(String hostAddr) {
+        SeriesView graphData = hostPackets.get(hostAddr);
+        return graphData instanceof HostSeries ? ((HostSeries) graphData).copyChanges() : null;
+    }
+
+    /**
+     * Returns the trace's IPv4 hosts grouped by /8, /16 and /24 network prefix, with every prefix holding the
+     * combined series of its hosts. The trie is built from the host series the first time it is asked for, without
+     * reading the trace file again, and is kept until lines appended to the trace are read. Building it merges every
+     * host's series, so it should not be asked for on the EDT. When the series are kept off the heap, so are those
+     * of the prefixes. A trace whose series are built on demand and one that kept only its top hosts do not hold
+     * every host's series, so have no trie.
+     * @return the <code>PrefixTrie</code>, or null if the trace cannot provide one
+     */
+    public synchronized PrefixTrie getPrefixTrie() {
+        if (lineOffsets != null || isTopHostsOnly()) {
+            return null;
+        }
+        if (prefixTrie == null) {
+            SeriesView[] views = new SeriesView[hosts.size()];
+            for (int id = 0; id < views.length; id++) {
+                views[id] = viewOf(id);
+            }
+            prefixTrie = new PrefixTrie(hosts, views, seriesStore);
+        }
+        return prefixTrie;
+    }
+
+    /**
+     * Returns how a host's packet sizes and per-second throughput are spread over the whole trace, as an independent
+     * copy. The distributions are filled as the trace is parsed, so reading their percentiles costs nothing like a
+     * scan of the host's series. Only when the host's packets were not in time order are its throughput counts
+     * rebuilt from its one second bins, once. A trace whose series are built on demand fills a host's distributions
+     * along with its series, and a trace that kept only its top hosts has none.
+     * @param hostAddr the <code>String</code> host IP address
+     * @return a copy of the host's <code>PacketDistribution</code>, or null if it has none
+     */
+    public synchronized PacketDistribution getDistribution(String hostAddr) {
+        int hostId = hosts.find(hostAddr);
+        if (hostId < 0 || isTopHostsOnly()) {
+            return null;
+        }
+        if (lineOffsets != null && distributionOf(hostId) == null) {
+            lazySeriesOf(hostId);
+        }
+        PacketDistribution distribution = distributionOf(hostId);
+        if (distribution != null && !distribution.isExact()) {
+            SeriesView graphData = viewOf(hostId);
+            if (graphData != null) {
+                distribution.rebuildRates(graphData.getLevel(HostSeries.SECOND_LEVEL));
+            }
+        }
+        return distribution == null ? null : distribution.copy();
+    }
+
+    /**
+     * Returns the hosts a host has exchanged the most bytes with. The totals are counted as the trace is parsed,
+     * including by the first pass of a trace whose series are built on demand, and a trace that was reopened from
+     * its index decodes them from the index, so the trace file is never read again to find them.
+     * @param hostAddr  the <code>String</code> host IP address
+     * @param role      <code>HostDictionary.SOURCE</code> for the hosts it sent to, or
+     *                  <code>HostDictionary.DEST</code> for the hosts that sent to it
+     * @param n         the number of peers to return
+     * @return up to <code>n</code> conversations, heaviest first
+     */
+    public synchronized List<ConversationMatrix.Conversation> getTopPeers(String hostAddr, int role, int n) {
+        readPendingConversations();
+        int hostId = hosts.find(hostAddr);
+        return hostId < 0 ? new ArrayList<ConversationMatrix.Conversation>() : conversations.getTopPeers(hostId, role, n);
+    }
+
+    /**
+     * Returns the graphing data of the packets sent from one host to another, as an independent copy. Unless
+     * <code>TraceOptions.setConversationSeries</code> kept a series for every pair, the series is built from the
+     * trace's packets. An index only keeps the totals of each pair, so a trace reopened from its index always
+     * builds the series from its packets.
+     * @param sourceAddr    the <code>String</code> IP address of the sending host
+     * @param destAddr      the <code>String</code> IP address of the receiving host
+     * @return the conversation's <code>HostSeries</code>, or null if the source never sent to the destination
+     */
+    public synchronized HostSeries getConversationSeries(String sourceAddr, String destAddr) {
+        readPendingConversations();
+        readPendingPackets();
+        int sourceId = hosts.find(sourceAddr);
+        int destId = hosts.find(destAddr);
+        int pair = sourceId < 0 || destId < 0 ? -1 : conversations.find(sourceId, destId);
+        if (pair < 0) {
+            return null;
+        }
+        if (conversations.isKeepingSeries()) {
+            return conversations.getSeries(pair).copy();
+        }
+        HostSeries graphData = new HostSeries();
+        PacketStore.Cursor cursor = packets.cursor();
+        while (cursor.next()) {
+            if (cursor.getSourceId() == sourceId && cursor.getDestId() == destId) {
+                graphData.add(cursor.getTimeMicros(), cursor.getPacketSize());
+            }
+        }
+        return graphData;
+    }
+
+    /**
+     * Returns the dictionary of every host address seen in the trace.
+     * @return the <code>HostDictionary</code> of the trace
+     */
+    public HostDictionary getHosts() {
+        return hosts;
+    }
+
+    /**
+     * Returns a sorted list of source host IP addresses intended for use in creating a <code>DefaultComboBoxModel</code> object.
+     * A trace that kept only its top hosts lists them by rank instead, heaviest first.
+     * @return the sorted list of source host IP addresses
+     */
+    public synchronized ArrayList<String> getSourceHostList() {
+        return hosts.getAddrs(isTopHostsOnly() ? hosts.getFirstSeen(HostDictionary.SOURCE) : hosts.getSorted(HostDictionary.SOURCE));
+    }
+
+    /**
+     * Returns a sorted list of destination host IP addresses intended for use in creating a <code>DefaultComboBoxModel</code> object.
+     * A trace that kept only its top hosts lists them by rank instead, heaviest first.
+     * @return the sorted list of destination host IP addresses
+     */
+    public synchronized ArrayList<String> getDestHostList() {
+        return hosts.getAddrs(isTopHostsOnly() ? hosts.getFirstSeen(HostDictionary.DEST) : hosts.getSorted(HostDictionary.DEST));
+    }
+
+    /**
+     * Checks whether the trace was loaded keeping only its top hosts by volume, as set by
+     * <code>TraceOptions.setTopHosts</code>. Such a trace holds no packets and does not follow its file.
+     * @return true if only the top hosts were kept
+     */
+    public synchronized boolean isTopHostsOnly() {
+        return topSources != null;
+    }
+
+    /**
+     * Gets the estimated rank and share of a host kept because it was among the top hosts of a role.
+     * @param hostAddr  the <code>String</code> IP address of the host
+     * @param role      <code>HostDictionary.SOURCE</code> or <code>HostDictionary.DEST</code>
+     * @return the host's <code>HeavyHitters.Hitter</code>, or null if the host is not a top host of that role
+     */
+    public synchronized HeavyHitters.Hitter getTopHost(String hostAddr, int role) {
+        HashMap<String, HeavyHitters.Hitter> ranks = role == HostDictionary.SOURCE ? topSources : topDests;
+        return ranks == null ? null : ranks.get(hostAddr);
+    }
+
+    /**
+     * Returns the source host IP addresses in the order they first appear in the trace.
+     * @return the list of source host IP addresses in first-seen order
+     */
+    public synchronized ArrayList<String> getFirstSeenSourceHostList() {
+        return hosts.getAddrs(hosts.getFirstSeen(HostDictionary.SOURCE));
+    }
+
+    /**
+     * Returns the destination host IP addresses in the order they first appear in the trace.
+     * @return the list of destination host IP addresses in first-seen order
+     */
+    public synchronized ArrayList<String> getFirstSeenDestHostList() {
+        return hosts.getAddrs(hosts.getFirstSeen(HostDictionary.DEST));
+    }
+
+    /**
+     * Presents the series of every host as a map keyed by host address. Series that are still held in a
+     * trace's index are decoded the first time they are looked up, series kept off the heap are looked up
+     * through a new handle each time, and series built on demand are built from their lines unless cached.
+     */
+    private class SeriesMap extends AbstractMap<String, SeriesView> {
+        @Override
+        public SeriesView get(Object key) {
+            synchronized (TraceFile.this) {
+                int hostId = key instanceof String ? hosts.find((String) key) : -1;
+                return hostId < 0 ? null : viewOf(hostId);
+            }
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            synchronized (TraceFile.this) {
+                int hostId = key instanceof String ? hosts.find((String) key) : -1;
+                return hostId >= 0 && hasSeries(hostId);
+            }
+        }
+
+        @Override
+        public int size() {
+            synchronized (TraceFile.this) {
+                int count = 0;
+                for (int id = 0; id < hosts.size(); id++) {
+                    if (hasSeries(id)) {
+                        count++;
+                    }
+                }
+                return count;
+            }
+        }
+
+        @Override
+        public Set<Map.Entry<String, SeriesView>> entrySet() {
+            return new AbstractSet<Map.Entry<String, SeriesView>>() {
+                @Override
+                public Iterator<Map.Entry<String, SeriesView>> iterator() {
+                    return new Iterator<Map.Entry<String, SeriesView>>() {
+                        private int next = advance(0);
+
+                        private int advance(int from) {
+                            synchronized (TraceFile.this) {
+                                while (from < hosts.size() && !hasSeries(from)) {
+                                    from++;
+                                }
+                                return from;
+                            }
+                        }
+
+                        @Override
+                        public boolean hasNext() {
+                            synchronized (TraceFile.this) {
+                                return next < hosts.size();
+                            }
+                        }
+
+                        @Override
+                        public Map.Entry<String, SeriesView> next() {
+                            if (!hasNext()) {
+                                throw new NoSuchElementException();
+                            }
+                            synchronized (TraceFile.this) {
+                                int hostId = next;
+                                next = advance(next + 1);
+                                return new AbstractMap.SimpleImmutableEntry<String, SeriesView>(hosts.getAddr(hostId), viewOf(hostId));
+                            }
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return SeriesMap.this.size();
+                }
+            };
+        }
+    }
+
+    private boolean hasSeries(int hostId) {
+        if (offHeapSeries != null) {
+            return hostId < offHeapSeries.length && offHeapSeries[hostId] != NO_SERIES;
+        }
+        if (lineOffsets != null) {
+            return lineOffsets.getCount(hostId) > 0;
+        }
+        return (hostId < hostSeries.length && hostSeries[hostId] != null) || (index != null && index.hasSeries(hostId)) || isSpilled(hostId);
+    }
+
+    private static class IngestTask extends RecursiveTask<TraceFile> {
+        private static final long serialVersionUID = 1L;
+        private final FileChannel channel;
+        private final long[] bounds;
+        private final int first;
+        private final int last;
+        private final TraceMetrics.LoadTimer timer;
+        private final TraceFilter filter;
+
+        /**
+         * Constructs an <code>IngestTask</code> covering the chunks between two indices of <code>bounds</code>.
+         * @param channel   the open trace file channel
+         * @param bounds    the line aligned chunk boundaries of the file
+         * @param first     the index of the first chunk boundary
+         * @param last      the index of the last chunk boundary
+         * @param timer     the <code>LoadTimer</code> of the whole load, or null if it is not being measured
+         * @param filter    the <code>TraceFilter</code> lines must pass, or null to load every line
+         */
+        private IngestTask(FileChannel channel, long[] bounds, int first, int last, TraceMetrics.LoadTimer timer, TraceFilter filter) {
+            this.channel = channel;
+            this.bounds = bounds;
+            this.first = first;
+            this.last = last;
+            this.timer = timer;
+            this.filter = filter;
+        }
+
+        @Override
+        protected TraceFile compute() {
+            if (last - first == 1) {
+                TraceFile partial = new TraceFile();
+                partial.loadTimer = timer == null ? null : timer.fork();
+                partial.filter = filter;
+                try {
+                    partial.readMappedRange(channel, bounds[first], bounds[last]);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return partial;
+            }
+            int middle = (first + last) >>> 1;
+            IngestTask earlier = new IngestTask(channel, bounds, first, middle, timer, filter);
+            earlier.fork();
+            TraceFile later = new IngestTask(channel, bounds, middle, last, timer, filter).compute();
+            TraceFile merged = earlier.join();
+            merged.mergeFrom(later);
+            return merged;
+        }
+    }
+
+    private class traceFileRecord {
+        private Long timeMicros;
+        private String sourceAddr;
+        private String destAddr;
+        private Integer pktSize;
+
+        /**
+         * Constructs a <code>traceFileRecord</code> object for the given parameters.
+         * @param timeMicros    a <code>Long</code> time stamp in microseconds
+         * @param sourceAddr    a <code>String</code> source host IP address
+         * @param destAddr      a <code>String</code> destination host IP address
+         * @param pktSize       an <code>Integer</code> packet size in bytes
+         */
+        private traceFileRecord(Long timeMicros, String sourceAddr, String destAddr, Integer pktSize) {
+            this.timeMicros = timeMicros;
+            this.sourceAddr = sourceAddr;
+            this.destAddr = destAddr;
+            this.pktSize = pktSize;
+        }
+    }
+}
@@ -0,0 +1,354 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Selects the lines of a trace to load with an expression such as
+ * <code>src in 10.1.0.0/16 and size &gt; 1000 and t between 100 and 400</code>. The expression is compiled once
+ * into a tree of primitive range tests, which <code>MappedTraceParser</code> applies to each line after decoding
+ * its time stamp and size but before interning its addresses, so lines that are filtered out cost neither a host
+ * lookup nor a series update.
+ * <p>
+ * A comparison names a field, <code>src</code>, <code>dst</code>, <code>host</code> (either address),
+ * <code>size</code> (bytes) or <code>t</code> (seconds), and tests it with <code>=</code>, <code>!=</code>,
+ * <code>&lt;</code>, <code>&lt;=</code>, <code>&gt;</code>, <code>&gt;=</code>, <code>between a and b</code>
+ * (inclusive) or, for addresses, <code>in</code> or <code>not in</code> a CIDR block. Comparisons are combined
+ * with <code>and</code>, <code>or</code>, <code>not</code> and parentheses, and <code>and</code> binds tighter
+ * than <code>or</code>. Addresses that are not IPv4 never fall in a block.
+ * @author Michael Johnson
+ */
+public class TraceFilter {
+    private static final int SOURCE = 0;
+    private static final int DEST = 1;
+    private static final int EITHER = 2;
+    private final String expression;
+    private final Term root;
+    private List<String> tokens;
+    private int next;
+
+    private TraceFilter(String expression) {
+        this.expression = expression.trim();
+        tokens = tokenize(expression);
+        if (tokens.isEmpty()) {
+            throw new IllegalArgumentException("The filter is empty");
+        }
+        root = parseOr();
+        if (next < tokens.size()) {
+            throw new IllegalArgumentException("Unexpected '" + tokens.get(next) + "' in filter");
+        }
+        tokens = null;
+    }
+
+    /**
+     * Compiles a filter expression.
+     * @param expression the expression, as described in the class documentation
+     * @return the compiled <code>TraceFilter</code>
+     * @throws IllegalArgumentException if the expression cannot be understood, with a message saying why
+     */
+    public static TraceFilter compile(String expression) {
+        return new TraceFilter(expression);
+    }
+
+    /**
+     * Tests the line a parser has just decoded.
+     * @param line the <code>MappedTraceParser</code> positioned on the line
+     * @return true if the line should be loaded
+     */
+    public boolean accept(MappedTraceParser line) {
+        return root.test(line);
+    }
+
+    /**
+     * Gets the expression the filter was compiled from.
+     * @return the expression
+     */
+    public String getExpression() {
+        return expression;
+    }
+
+    @Override
+    public String toString() {
+        return expression;
+    }
+
+    private static List<String> tokenize(String expression) {
+        ArrayList<String> tokens = new ArrayList<String>();
+        int i = 0;
+        while (i < expression.length()) {
+            char c = expression.charAt(i);
+            int start = i;
+            if (Character.isWhitespace(c)) {
+                i++;
+                continue;
+            } else if (c == '(' || c == ')') {
+                i++;
+            } else if (isOperatorChar(c)) {
+                while (i < expression.length() && isOperatorChar(expression.charAt(i))) {
+                    i++;
+                }
+            } else {
+                while (i < expression.length() && !Character.isWhitespace(expression.charAt(i))
+                        && expression.charAt(i) != '(' && expression.charAt(i) != ')' && !isOperatorChar(expression.charAt(i))) {
+                    i++;
+                }
+            }
+            tokens.add(expression.substring(start, i));
+        }
+        return tokens;
+    }
+
+    private static boolean isOperatorChar(char c) {
+        return c == '<' || c == '>' || c == '=' || c == '!';
+    }
+
+    private String peek() {
+        return next < tokens.size() ? tokens.get(next) : null;
+    }
+
+    private String take(String expected) {
+        if (next >= tokens.size()) {
+            throw new IllegalArgumentException("The filter ends where " + expected + " was expected");
+        }
+        return tokens.get(next++);
+    }
+
+    private boolean takeIf(String keyword) {
+        if (keyword.equalsIgnoreCase(peek())) {
+            next++;
+            return true;
+        }
+        return false;
+    }
+
+    private Term parseOr() {
+        ArrayList<Term> terms = new ArrayList<Term>();
+        terms.add(parseAnd());
+        while (takeIf("or")) {
+            terms.add(parseAnd());
+        }
+        return terms.size() == 1 ? terms.get(0) : new AnyOf(terms.toArray(new Term[0]));
+    }
+
+    private Term parseAnd() {
+        ArrayList<Term> terms = new ArrayList<Term>();
+        terms.add(parseFactor());
+        while (takeIf("and")) {
+            terms.add(parseFactor());
+        }
+        return terms.size() == 1 ? terms.get(0) : new AllOf(terms.toArray(new Term[0]));
+    }
+
+    private Term parseFactor() {
+        if (takeIf("not")) {
+            return new Not(parseFactor());
+        }
+        if (takeIf("(")) {
+            Term term = parseOr();
+            if (!takeIf(")")) {
+                throw new IllegalArgumentException("Missing ')' in filter");
+            }
+            return term;
+        }
+        return parseComparison();
+    }
+
+    private Term parseComparison() {
+        String field = take("a field name").toLowerCase();
+        if (field.equals("src") || field.equals("source")) {
+            return parseAddressTest(SOURCE);
+        } else if (field.equals("dst") || field.equals("dest")) {
+            return parseAddressTest(DEST);
+        } else if (field.equals("host")) {
+            return parseAddressTest(EITHER);
+        } else if (field.equals("size")) {
+            return parseNumberTest(false);
+        } else if (field.equals("t") || field.equals("time")) {
+            return parseNumberTest(true);
+        }
+        throw new IllegalArgumentException("Unknown field '" + field + "' in filter; use src, dst, host, size or t");
+    }
+
+    private Term parseAddressTest(int field) {
+        String operator = take("'in', '=' or '!='").toLowerCase();
+        boolean negate = operator.equals("!=");
+        if (operator.equals("not")) {
+            if (!takeIf("in")) {
+                throw new IllegalArgumentException("'not' after an address field must be followed by 'in'");
+            }
+            negate = true;
+        } else if (!negate && !operator.equals("in") && !operator.equals("=") && !operator.equals("==")) {
+            throw new IllegalArgumentException("Addresses are compared with 'in', 'not in', '=' or '!='");
+        }
+        Term term = parseBlock(field, take("an address or CIDR block"));
+        return negate ? new Not(term) : term;
+    }
+
+    private static Term parseBlock(int field, String block) {
+        int slash = block.indexOf('/');
+        int prefix = 32;
+        String addr = block;
+        if (slash >= 0) {
+            addr = block.substring(0, slash);
+            try {
+                prefix = Integer.parseInt(block.substring(slash + 1));
+            } catch (NumberFormatException e) {
+                prefix = -1;
+            }
+        }
+        long network = HostDictionary.parseIpv4(addr);
+        if (network < 0 || prefix < 0 || prefix > 32) {
+            throw new IllegalArgumentException("'" + block + "' is not an IPv4 address or CIDR block");
+        }
+        long mask = prefix == 0 ? 0 : (0xffffffffL << (32 - prefix)) & 0xffffffffL;
+        return new AddressBlock(field, network & mask, mask);
+    }
+
+    private Term parseNumberTest(boolean seconds) {
+        String operator = take("a comparison").toLowerCase();
+        if (operator.equals("between")) {
+            long low = parseValue(take("a number"), seconds);
+            if (!takeIf("and")) {
+                throw new IllegalArgumentException("'between' needs 'and' between its bounds");
+            }
+            return range(low, parseValue(take("a number"), seconds), seconds);
+        }
+        long value = parseValue(take("a number"), seconds);
+        switch (operator) {
+            case "=":
+            case "==":
+                return range(value, value, seconds);
+            case "!=":
+                return new Not(range(value, value, seconds));
+            case "<":
+                return range(Long.MIN_VALUE, value - 1, seconds);
+            case "<=":
+                return range(Long.MIN_VALUE, value, seconds);
+            case ">":
+                return range(value + 1, Long.MAX_VALUE, seconds);
+            case ">=":
+                return range(value, Long.MAX_VALUE, seconds);
+            default:
+                throw new IllegalArgumentException("Unknown comparison '" + operator + "' in filter");
+        }
+    }
+
+    private static Term range(long low, long high, boolean seconds) {
+        return seconds ? new TimeRange(low, high) : new SizeRange(low, high);
+    }
+
+    private static long parseValue(String value, boolean seconds) {
+        try {
+            return seconds ? MappedTraceParser.toMicros(Double.parseDouble(value)) : Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("'" + value + "' is not a number");
+        }
+    }
+
+    /**
+     * One node of a compiled filter.
+     */
+    private abstract static class Term {
+        abstract boolean test(MappedTraceParser line);
+    }
+
+    private static class AllOf extends Term {
+        private final Term[] terms;
+
+        private AllOf(Term[] terms) {
+            this.terms = terms;
+        }
+
+        @Override
+        boolean test(MappedTraceParser line) {
+            for (Term term : terms) {
+                if (!term.test(line)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static class AnyOf extends Term {
+        private final Term[] terms;
+
+        private AnyOf(Term[] terms) {
+            this.terms = terms;
+        }
+
+        @Override
+        boolean test(MappedTraceParser line) {
+            for (Term term : terms) {
+                if (term.test(line)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static class Not extends Term {
+        private final Term term;
+
+        private Not(Term term) {
+            this.term = term;
+        }
+
+        @Override
+        boolean test(MappedTraceParser line) {
+            return !term.test(line);
+        }
+    }
+
+    private static class TimeRange extends Term {
+        private final long low;
+        private final long high;
+
+        private TimeRange(long low, long high) {
+            this.low = low;
+            this.high = high;
+        }
+
+        @Override
+        boolean test(MappedTraceParser line) {
+            long timeMicros = line.getTimeMicros();
+            return timeMicros >= low && timeMicros <= high;
+        }
+    }
+
+    private static class SizeRange extends Term {
+        private final long low;
+        private final long high;
+
+        private SizeRange(long low, long high) {
+            this.low = low;
+            this.high = high;
+        }
+
+        @Override
+        boolean test(MappedTraceParser line) {
+            int pktSize = line.getPacketSize();
+            return pktSize >= low && pktSize <= high;
+        }
+    }
+
+    private static class AddressBlock extends Term {
+        private final int field;
+        private final long network;
+        private final long mask;
+
+        private AddressBlock(int field, long network, long mask) {
+            this.field = field;
+            this.network = network;
+            this.mask = mask;
+        }
+
+        @Override
+        boolean test(MappedTraceParser line) {
+            return (field != DEST && contains(line.getSourceIpv4())) || (field != SOURCE && contains(line.getDestIpv4()));
+        }
+
+        private boolean contains(long addr) {
+            return addr >= 0 && (addr & mask) == network;
+        }
+    }
+}
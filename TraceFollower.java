@@ -0,0 +1,97 @@
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Polls a growing trace file on a background thread and folds any newly appended lines into its
+ * <code>TraceFile</code>. Each poll only checks the file's size unless new bytes have been written,
+ * and only the new bytes are parsed.
+ * @author Michael Johnson
+ */
+public class TraceFollower {
+    private TraceFile trace;
+    private long pollInterval;
+    private TraceFile.LoadListener listener;
+    private ErrorListener errorListener;
+    private ScheduledExecutorService executor;
+
+    /**
+     * Notified when following stops because the trace could not be read.
+     */
+    public interface ErrorListener {
+        /**
+         * Called on the polling thread once the follower has been stopped.
+         * @param follower  the <code>TraceFollower</code> that stopped
+         * @param e         the <code>RuntimeException</code> that stopped it
+         */
+        void followFailed(TraceFollower follower, RuntimeException e);
+    }
+
+    /**
+     * Constructs a <code>TraceFollower</code> object for the given parameters.
+     * @param trace         the <code>TraceFile</code> to keep up to date
+     * @param pollInterval  the delay between polls in milliseconds
+     * @param listener      the <code>LoadListener</code> called on the polling thread whenever the trace changes
+     * @param errorListener the <code>ErrorListener</code> called if following stops on an error, which may be null
+     */
+    public TraceFollower(TraceFile trace, long pollInterval, TraceFile.LoadListener listener, ErrorListener errorListener) {
+        this.trace = trace;
+        this.pollInterval = pollInterval;
+        this.listener = listener;
+        this.errorListener = errorListener;
+    }
+
+    /**
+     * Starts polling the trace file if it is not already being polled.
+     */
+    public synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "trace-follower");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                poll();
+            }
+        }, 0, pollInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops polling the trace file.
+     */
+    public synchronized void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * Reads any new lines. A failure to read the file is left for the next poll to try again, but anything else
+     * that goes wrong would otherwise cancel every later poll without a word, so following is stopped and the
+     * error listener told instead.
+     */
+    private void poll() {
+        try {
+            trace.readAppended(listener);
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            stop();
+            if (errorListener != null) {
+                errorListener.followFailed(this, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,370 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads and writes the binary index of a parsed trace, which holds the host dictionary, the number of
+ * records, every host's <code>HostSeries</code> and <code>PacketDistribution</code> and the totals of every
+ * conversation, so that a trace can be reopened without parsing it
+ * again. The index records the size and modification time of the trace it was built from and is ignored
+ * once either changes.
+ * <p>
+ * An index file holds a header, the host addresses, the first-seen order of each role, one block per
+ * host with its distribution's bucket counts followed by its series' bins and byte counts, delta and varint
+ * encoded, a directory of block offsets, and the byte and
+ * packet totals of every pair of hosts at the end. The file is memory-mapped when opened and each host's block is only decoded when it is asked for.
+ * @author Michael Johnson
+ */
+public class TraceIndex {
+    private static final int MAGIC = 0x50544958;
+    private static final int VERSION = 3;
+    private static final int ROLE_COUNT = 2;
+    private static final int TRAILER_SIZE = 8;
+    private static final int NO_DISTRIBUTION = 0;
+    private static final int EXACT_DISTRIBUTION = 1;
+    private static final int INEXACT_DISTRIBUTION = 2;
+    private ByteBuffer buffer;
+    private long sourceSize;
+    private long recordCount;
+    private HostDictionary hosts = new HostDictionary();
+    private int[] seriesOffsets;
+    private int conversationsOffset;
+
+    private TraceIndex() {
+    }
+
+    /**
+     * Writes the index of a parsed trace. The index is written to a temporary file first and then renamed,
+     * so a reader never sees a partly written index.
+     * @param indexFile         the <code>File</code> to write the index to
+     * @param sourceSize        the number of bytes of the trace that were parsed
+     * @param sourceModified    the modification time of the trace when it was parsed
+     * @param recordCount       the number of records in the trace
+     * @param hosts             the <code>HostDictionary</code> of the trace
+     * @param series            each host's series, on or off the heap, indexed by host identifier, or null for hosts without one
+     * @param distributions     each host's distribution, indexed by host identifier, or null for hosts without one
+     * @param conversations     the <code>ConversationMatrix</code> of the trace, of which only the totals are kept
+     * @throws IOException if the index cannot be written
+     */
+    public static void write(File indexFile, long sourceSize, long sourceModified, long recordCount, HostDictionary hosts, SeriesView[] series, PacketDistribution[] distributions, ConversationMatrix conversations) throws IOException {
+        File tempFile = new File(indexFile.getPath() + ".tmp");
+        int[] offsets = new int[hosts.size()];
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(sourceSize);
+            out.writeLong(sourceModified);
+            out.writeLong(recordCount);
+            long[] binWidths = HostSeries.getBinWidths();
+            out.writeInt(binWidths.length);
+            for (long binWidth : binWidths) {
+                out.writeLong(binWidth);
+            }
+            out.writeInt(hosts.size());
+            for (int id = 0; id < hosts.size(); id++) {
+                byte[] addr = hosts.getAddr(id).getBytes(StandardCharsets.ISO_8859_1);
+                out.writeShort(addr.length);
+                out.write(addr);
+            }
+            for (int role = 0; role < ROLE_COUNT; role++) {
+                int[] ids = hosts.getFirstSeen(role);
+                out.writeInt(ids.length);
+                for (int id : ids) {
+                    out.writeInt(id);
+                }
+            }
+            for (int id = 0; id < hosts.size(); id++) {
+                if (id < series.length && series[id] != null) {
+                    offsets[id] = out.size();
+                    writeDistribution(out, id < distributions.length ? distributions[id] : null);
+                    writeSeries(out, series[id]);
+                }
+            }
+            int directoryOffset = out.size();
+            for (int offset : offsets) {
+                out.writeInt(offset);
+            }
+            writeConversations(out, conversations);
+            out.writeLong(directoryOffset);
+            if (out.size() == Integer.MAX_VALUE) {
+                throw new IOException("Index of " + indexFile.getName() + " is too large to be mapped");
+            }
+        } catch (IOException e) {
+            tempFile.delete();
+            throw e;
+        }
+        if (!tempFile.renameTo(indexFile)) {
+            indexFile.delete();
+            if (!tempFile.renameTo(indexFile)) {
+                tempFile.delete();
+                throw new IOException("Could not replace " + indexFile);
+            }
+        }
+    }
+
+    private static void writeSeries(DataOutputStream out, SeriesView graphData) throws IOException {
+        writeVarLong(out, graphData.getFirstTime());
+        writeVarLong(out, graphData.getLastTime());
+        for (int i = 0; i < graphData.getLevelCount(); i++) {
+            LevelView level = graphData.getLevel(i);
+            int populated = 0;
+            for (int slot = 0; slot < level.size(); slot++) {
+                if (level.getBytes(slot) != 0) {
+                    populated++;
+                }
+            }
+            writeVarLong(out, populated);
+            long previous = 0;
+            for (int slot = 0; slot < level.size(); slot++) {
+                if (level.getBytes(slot) != 0) {
+                    writeVarLong(out, level.getBin(slot) - previous);
+                    writeVarLong(out, level.getBytes(slot));
+                    previous = level.getBin(slot);
+                }
+            }
+        }
+    }
+
+    private static void writeConversations(DataOutputStream out, ConversationMatrix conversations) throws IOException {
+        int populated = 0;
+        for (int pair = 0; pair < conversations.size(); pair++) {
+            if (conversations.getPackets(pair) != 0) {
+                populated++;
+            }
+        }
+        writeVarLong(out, populated);
+        for (int pair = 0; pair < conversations.size(); pair++) {
+            if (conversations.getPackets(pair) != 0) {
+                writeVarLong(out, conversations.getSourceId(pair));
+                writeVarLong(out, conversations.getDestId(pair));
+                writeVarLong(out, conversations.getBytes(pair));
+                writeVarLong(out, conversations.getPackets(pair));
+            }
+        }
+    }
+
+    private static void writeDistribution(DataOutputStream out, PacketDistribution distribution) throws IOException {
+        if (distribution == null) {
+            writeVarLong(out, NO_DISTRIBUTION);
+            return;
+        }
+        writeVarLong(out, distribution.isExact() ? EXACT_DISTRIBUTION : INEXACT_DISTRIBUTION);
+        writeHistogram(out, distribution.getSizes());
+        writeHistogram(out, distribution.getClosedRates());
+        writeVarLong(out, distribution.getHeadSecond());
+        writeVarLong(out, distribution.getHeadBytes());
+        writeVarLong(out, distribution.getTailSecond());
+        writeVarLong(out, distribution.getTailBytes());
+    }
+
+    private static void writeHistogram(DataOutputStream out, PacketHistogram histogram) throws IOException {
+        int[] counts = histogram.getCounts();
+        writeVarLong(out, histogram.getFirstBucket());
+        writeVarLong(out, counts.length);
+        for (int count : counts) {
+            writeVarLong(out, count);
+        }
+        writeVarLong(out, histogram.getSum());
+        writeVarLong(out, histogram.getMax());
+    }
+
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        long zigZag = (value << 1) ^ (value >> 63);
+        while ((zigZag & ~0x7FL) != 0) {
+            out.writeByte((int) ((zigZag & 0x7F) | 0x80));
+            zigZag >>>= 7;
+        }
+        out.writeByte((int) zigZag);
+    }
+
+    /**
+     * Opens the index of a trace if it exists and was built from the trace as it is now.
+     * @param indexFile     the <code>File</code> the index is kept in
+     * @param sourceFile    the trace file the index should describe
+     * @return the opened <code>TraceIndex</code>, or null if there is no usable index
+     */
+    public static TraceIndex open(File indexFile, File sourceFile) {
+        if (!indexFile.isFile() || indexFile.length() < TRAILER_SIZE || indexFile.length() > Integer.MAX_VALUE) {
+            return null;
+        }
+        try (RandomAccessFile file = new RandomAccessFile(indexFile, "r"); FileChannel channel = file.getChannel()) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            TraceIndex index = new TraceIndex();
+            return index.readHeader(mapped, sourceFile) ? index : null;
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private boolean readHeader(ByteBuffer mapped, File sourceFile) {
+        if (mapped.getInt() != MAGIC || mapped.getInt() != VERSION) {
+            return false;
+        }
+        sourceSize = mapped.getLong();
+        long sourceModified = mapped.getLong();
+        if (sourceSize != sourceFile.length() || sourceModified != sourceFile.lastModified()) {
+            return false;
+        }
+        recordCount = mapped.getLong();
+        long[] binWidths = HostSeries.getBinWidths();
+        if (mapped.getInt() != binWidths.length) {
+            return false;
+        }
+        for (long binWidth : binWidths) {
+            if (mapped.getLong() != binWidth) {
+                return false;
+            }
+        }
+        int hostCount = mapped.getInt();
+        for (int id = 0; id < hostCount; id++) {
+            byte[] addr = new byte[mapped.getShort() & 0xffff];
+            mapped.get(addr);
+            hosts.intern(new String(addr, StandardCharsets.ISO_8859_1));
+        }
+        for (int role = 0; role < ROLE_COUNT; role++) {
+            int count = mapped.getInt();
+            for (int i = 0; i < count; i++) {
+                hosts.addRole(mapped.getInt(), role);
+            }
+        }
+        mapped.position((int) mapped.getLong(mapped.limit() - TRAILER_SIZE));
+        seriesOffsets = new int[hostCount];
+        for (int id = 0; id < hostCount; id++) {
+            seriesOffsets[id] = mapped.getInt();
+        }
+        conversationsOffset = mapped.position();
+        buffer = mapped;
+        return true;
+    }
+
+    /**
+     * Gets the host dictionary of the trace, with every host's first-seen order restored.
+     * @return the <code>HostDictionary</code> of the trace
+     */
+    public HostDictionary getHosts() {
+        return hosts;
+    }
+
+    /**
+     * Gets the number of records in the trace.
+     * @return the record count
+     */
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Gets the number of bytes of the trace that were parsed to build the index.
+     * @return the size of the trace in bytes
+     */
+    public long getSourceSize() {
+        return sourceSize;
+    }
+
+    /**
+     * Checks whether the index holds a series for a host.
+     * @param hostId the host identifier
+     * @return true if the host has a series
+     */
+    public boolean hasSeries(int hostId) {
+        return hostId < seriesOffsets.length && seriesOffsets[hostId] != 0;
+    }
+
+    /**
+     * Decodes the series of a host from the index.
+     * @param hostId the host identifier
+     * @return a new <code>HostSeries</code>, or null if the host has no series
+     */
+    public HostSeries readSeries(int hostId) {
+        if (!hasSeries(hostId)) {
+            return null;
+        }
+        ByteBuffer block = buffer.duplicate();
+        block.position(seriesOffsets[hostId]);
+        readDistribution(block);
+        long firstTime = readVarLong(block);
+        long lastTime = readVarLong(block);
+        long[] binWidths = HostSeries.getBinWidths();
+        SeriesLevel[] levels = new SeriesLevel[binWidths.length];
+        for (int i = 0; i < levels.length; i++) {
+            levels[i] = new SeriesLevel(binWidths[i]);
+            long populated = readVarLong(block);
+            long bin = 0;
+            for (long slot = 0; slot < populated; slot++) {
+                bin += readVarLong(block);
+                levels[i].add(bin, readVarLong(block));
+            }
+        }
+        return new HostSeries(levels, firstTime, lastTime);
+    }
+
+    /**
+     * Decodes the byte and packet totals of every pair of hosts from the index.
+     * @param conversations the <code>ConversationMatrix</code> to add the totals to, sharing this index's hosts
+     */
+    public void readConversations(ConversationMatrix conversations) {
+        ByteBuffer block = buffer.duplicate();
+        block.position(conversationsOffset);
+        long populated = readVarLong(block);
+        for (long i = 0; i < populated; i++) {
+            int sourceId = (int) readVarLong(block);
+            int destId = (int) readVarLong(block);
+            long pairBytes = readVarLong(block);
+            conversations.addTotals(sourceId, destId, pairBytes, readVarLong(block));
+        }
+    }
+
+    /**
+     * Decodes the distribution of a host's packet sizes and throughput from the index.
+     * @param hostId the host identifier
+     * @return a new <code>PacketDistribution</code>, or null if the host has none
+     */
+    public PacketDistribution readDistribution(int hostId) {
+        if (!hasSeries(hostId)) {
+            return null;
+        }
+        ByteBuffer block = buffer.duplicate();
+        block.position(seriesOffsets[hostId]);
+        return readDistribution(block);
+    }
+
+    private static PacketDistribution readDistribution(ByteBuffer block) {
+        long kind = readVarLong(block);
+        if (kind == NO_DISTRIBUTION) {
+            return null;
+        }
+        PacketHistogram sizes = readHistogram(block);
+        PacketHistogram rates = readHistogram(block);
+        long headSecond = readVarLong(block);
+        long headBytes = readVarLong(block);
+        long tailSecond = readVarLong(block);
+        long tailBytes = readVarLong(block);
+        return new PacketDistribution(sizes, rates, headSecond, headBytes, tailSecond, tailBytes, kind == EXACT_DISTRIBUTION);
+    }
+
+    private static PacketHistogram readHistogram(ByteBuffer block) {
+        int firstBucket = (int) readVarLong(block);
+        int[] counts = new int[(int) readVarLong(block)];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = (int) readVarLong(block);
+        }
+        long sum = readVarLong(block);
+        long max = readVarLong(block);
+        return new PacketHistogram(firstBucket, counts, sum, max);
+    }
+
+    private static long readVarLong(ByteBuffer in) {
+        long zigZag = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.get();
+            zigZag |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return (zigZag >>> 1) ^ -(zigZag & 1);
+    }
+}
@@ -0,0 +1,368 @@
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Measures where the time goes when a trace is loaded and its graph drawn, and publishes the measurements as the
+ * <code>PacketTracer:type=TraceMetrics</code> MBean and, optionally, as a summary line logged at a fixed interval.
+ * <p>
+ * Measurements are off unless the <code>packettracer.metrics</code> system property is true or they are switched on
+ * through the MBean or the statistics overlay. While they are off a load or repaint only checks a flag. While they
+ * are on a load counts its lines and times one line in every 64, and every repaint is timed. The
+ * <code>packettracer.metrics.log</code> system property sets the log interval in seconds.
+ * @author Michael Johnson
+ */
+public class TraceMetrics implements TraceMetricsMBean {
+    private static final String OBJECT_NAME = "PacketTracer:type=TraceMetrics";
+    private static final int SAMPLE_INTERVAL = 64;
+    private static final double NANOS_PER_MICRO = 1e3;
+    private static final double NANOS_PER_MILLI = 1e6;
+    private static TraceMetrics instance;
+    private volatile boolean enabled = Boolean.getBoolean("packettracer.metrics");
+    private int logIntervalSeconds;
+    private Timer logTimer;
+    private LogHistogram parseLine = new LogHistogram();
+    private LogHistogram buildGraphData = new LogHistogram();
+    private LogHistogram updateData = new LogHistogram();
+    private LogHistogram repaint = new LogHistogram();
+    private volatile long lastRepaint;
+    private long loadCount;
+    private long linesRead;
+    private long bytesRead;
+    private long skippedLines;
+    private long malformedLines;
+    private int hostCount;
+    private long loadNanos;
+    private long parseNanos;
+    private long aggregateNanos;
+    private long heapBytes;
+
+    private TraceMetrics() {
+    }
+
+    /**
+     * Gets the metrics of this process, registering them with the platform MBean server the first time.
+     * @return the shared <code>TraceMetrics</code>
+     */
+    public static synchronized TraceMetrics get() {
+        if (instance == null) {
+            instance = new TraceMetrics();
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(instance, new ObjectName(OBJECT_NAME));
+            } catch (JMException e) {
+                e.printStackTrace();
+            }
+            instance.setLogIntervalSeconds(Integer.getInteger("packettracer.metrics.log", 0));
+        }
+        return instance;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @Override
+    public synchronized int getLogIntervalSeconds() {
+        return logIntervalSeconds;
+    }
+
+    @Override
+    public synchronized void setLogIntervalSeconds(int seconds) {
+        logIntervalSeconds = Math.max(0, seconds);
+        if (logTimer != null) {
+            logTimer.cancel();
+            logTimer = null;
+        }
+        if (logIntervalSeconds > 0) {
+            logTimer = new Timer("TraceMetrics log", true);
+            logTimer.schedule(new TimerTask() {
+                @Override
+                public void run() {
+                    if (enabled) {
+                        System.out.println(getSummary());
+                    }
+                }
+            }, logIntervalSeconds * 1000L, logIntervalSeconds * 1000L);
+        }
+    }
+
+    /**
+     * Starts measuring a load.
+     * @return a <code>LoadTimer</code> to report the load's progress to, or null if measurements are off
+     */
+    public LoadTimer startLoad() {
+        return enabled ? new LoadTimer() : null;
+    }
+
+    /**
+     * Records the time taken to hand a new series to the graph.
+     * @param nanos the time in nanoseconds
+     */
+    public void recordUpdate(long nanos) {
+        updateData.record(nanos);
+    }
+
+    /**
+     * Records the time taken to repaint the graph.
+     * @param nanos the time in nanoseconds
+     */
+    public void recordRepaint(long nanos) {
+        lastRepaint = nanos;
+        repaint.record(nanos);
+    }
+
+    private synchronized void finishLoad(LoadTimer timer, long bytes, int hosts, long seriesHeapBytes) {
+        loadCount++;
+        linesRead = timer.lines;
+        bytesRead = bytes;
+        skippedLines = timer.skipped;
+        malformedLines = timer.malformed;
+        hostCount = hosts;
+        loadNanos = System.nanoTime() - timer.startTime;
+        parseNanos = timer.parseSamples == 0 ? 0 : timer.parseNanos * timer.lines / timer.parseSamples;
+        aggregateNanos = timer.aggregateSamples == 0 ? 0 : timer.aggregateNanos * (timer.lines - timer.skipped) / timer.aggregateSamples;
+        heapBytes = seriesHeapBytes;
+    }
+
+    @Override
+    public synchronized long getLoadCount() {
+        return loadCount;
+    }
+
+    @Override
+    public synchronized long getLinesRead() {
+        return linesRead;
+    }
+
+    @Override
+    public synchronized long getBytesRead() {
+        return bytesRead;
+    }
+
+    @Override
+    public synchronized long getSkippedLines() {
+        return skippedLines;
+    }
+
+    @Override
+    public synchronized long getMalformedLines() {
+        return malformedLines;
+    }
+
+    @Override
+    public synchronized int getHostCount() {
+        return hostCount;
+    }
+
+    @Override
+    public synchronized double getLoadMillis() {
+        return loadNanos / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public synchronized double getParseMillis() {
+        return parseNanos / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public synchronized double getAggregateMillis() {
+        return aggregateNanos / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public synchronized double getReadMillis() {
+        return Math.max(0, loadNanos - parseNanos - aggregateNanos) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public synchronized double getLinesPerSecond() {
+        return loadNanos == 0 ? 0 : linesRead * 1e9 / loadNanos;
+    }
+
+    @Override
+    public synchronized double getBytesPerSecond() {
+        return loadNanos == 0 ? 0 : bytesRead * 1e9 / loadNanos;
+    }
+
+    @Override
+    public synchronized long getHostPacketsHeapBytes() {
+        return heapBytes;
+    }
+
+    @Override
+    public double getParseLineP50Micros() {
+        return parseLine.getPercentile(50) / NANOS_PER_MICRO;
+    }
+
+    @Override
+    public double getParseLineP99Micros() {
+        return parseLine.getPercentile(99) / NANOS_PER_MICRO;
+    }
+
+    @Override
+    public double getBuildGraphDataP50Micros() {
+        return buildGraphData.getPercentile(50) / NANOS_PER_MICRO;
+    }
+
+    @Override
+    public double getBuildGraphDataP99Micros() {
+        return buildGraphData.getPercentile(99) / NANOS_PER_MICRO;
+    }
+
+    @Override
+    public double getUpdateDataP50Micros() {
+        return updateData.getPercentile(50) / NANOS_PER_MICRO;
+    }
+
+    @Override
+    public double getUpdateDataP99Micros() {
+        return updateData.getPercentile(99) / NANOS_PER_MICRO;
+    }
+
+    @Override
+    public long getRepaintCount() {
+        return repaint.getCount();
+    }
+
+    @Override
+    public double getLastRepaintMicros() {
+        return lastRepaint / NANOS_PER_MICRO;
+    }
+
+    @Override
+    public double getRepaintP50Micros() {
+        return repaint.getPercentile(50) / NANOS_PER_MICRO;
+    }
+
+    @Override
+    public double getRepaintP99Micros() {
+        return repaint.getPercentile(99) / NANOS_PER_MICRO;
+    }
+
+    @Override
+    public double getRepaintMaxMicros() {
+        return repaint.getMax() / NANOS_PER_MICRO;
+    }
+
+    @Override
+    public synchronized String getSummary() {
+        return String.format("loads=%d lines=%,d (%,.0f lines/s, %.1f MB/s) skipped=%,d malformed=%,d hosts=%,d series=%.1f MB"
+                        + " load=%.0f ms (read %.0f, parse %.0f, aggregate %.0f) repaint p50=%.2f ms p99=%.2f ms max=%.2f ms",
+                loadCount, linesRead, getLinesPerSecond(), getBytesPerSecond() / (1024 * 1024), skippedLines, malformedLines,
+                hostCount, heapBytes / (1024.0 * 1024.0), getLoadMillis(), getReadMillis(), getParseMillis(), getAggregateMillis(),
+                getRepaintP50Micros() / 1e3, getRepaintP99Micros() / 1e3, getRepaintMaxMicros() / 1e3);
+    }
+
+    @Override
+    public synchronized void reset() {
+        loadCount = linesRead = bytesRead = skippedLines = malformedLines = 0;
+        loadNanos = parseNanos = aggregateNanos = heapBytes = 0;
+        hostCount = 0;
+        lastRepaint = 0;
+        parseLine.reset();
+        buildGraphData.reset();
+        updateData.reset();
+        repaint.reset();
+    }
+
+    /**
+     * Counts the lines of one load and times a sample of them. A <code>LoadTimer</code> is used by one thread at a
+     * time; loads that parse in parallel give each worker its own and merge them afterwards.
+     */
+    public class LoadTimer {
+        private long startTime = System.nanoTime();
+        private long lines;
+        private long skipped;
+        private long malformed;
+        private long parseNanos;
+        private long parseSamples;
+        private long aggregateNanos;
+        private long aggregateSamples;
+
+        private LoadTimer() {
+        }
+
+        /**
+         * Counts a line and decides whether it is one of the lines to time.
+         * @return true if the line's parsing and aggregation should be timed
+         */
+        public boolean sample() {
+            return ++lines % SAMPLE_INTERVAL == 0;
+        }
+
+        /**
+         * Counts a line that was skipped because its source address was 0.
+         */
+        public void skipped() {
+            skipped++;
+        }
+
+        /**
+         * Counts lines that could not be parsed.
+         * @param count the number of malformed lines
+         */
+        public void malformed(long count) {
+            malformed += count;
+        }
+
+        /**
+         * Records the time taken to parse a sampled line.
+         * @param nanos the time in nanoseconds
+         */
+        public void parsed(long nanos) {
+            parseNanos += nanos;
+            parseSamples++;
+            parseLine.record(nanos);
+        }
+
+        /**
+         * Records the time taken to add a sampled packet to its host series.
+         * @param nanos the time in nanoseconds
+         */
+        public void aggregated(long nanos) {
+            aggregateNanos += nanos;
+            aggregateSamples++;
+            buildGraphData.record(nanos);
+        }
+
+        /**
+         * Creates a timer for a part of this load that is read by another thread.
+         * @return a new <code>LoadTimer</code> to merge back once the part has been read
+         */
+        public LoadTimer fork() {
+            return new LoadTimer();
+        }
+
+        /**
+         * Adds the counts and times of a part of this load that was read by another thread.
+         * @param part the <code>LoadTimer</code> of the part
+         */
+        public void merge(LoadTimer part) {
+            lines += part.lines;
+            skipped += part.skipped;
+            malformed += part.malformed;
+            parseNanos += part.parseNanos;
+            parseSamples += part.parseSamples;
+            aggregateNanos += part.aggregateNanos;
+            aggregateSamples += part.aggregateSamples;
+        }
+
+        /**
+         * Ends the load and publishes its measurements.
+         * @param bytes             the number of bytes read
+         * @param hosts             the number of distinct hosts found
+         * @param seriesHeapBytes   an estimate of the heap taken by the host series
+         */
+        public void finish(long bytes, int hosts, long seriesHeapBytes) {
+            finishLoad(this, bytes, hosts, seriesHeapBytes);
+        }
+    }
+}
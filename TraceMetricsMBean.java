@@ -0,0 +1,186 @@
+/**
+ * The management interface of <code>TraceMetrics</code>, through which JMX clients such as JConsole read how
+ * long traces take to load and graphs take to draw, and switch the measurements on and off.
+ * @author Michael Johnson
+ */
+public interface TraceMetricsMBean {
+    /**
+     * Checks whether loads and repaints are being measured.
+     * @return true if measurements are being taken
+     */
+    boolean isEnabled();
+
+    /**
+     * Switches measurements on or off.
+     * @param enabled true to measure loads and repaints
+     */
+    void setEnabled(boolean enabled);
+
+    /**
+     * Gets how often a summary of the measurements is logged.
+     * @return the interval in seconds, or 0 if no summary is logged
+     */
+    int getLogIntervalSeconds();
+
+    /**
+     * Sets how often a summary of the measurements is logged.
+     * @param seconds the interval in seconds, or 0 to stop logging
+     */
+    void setLogIntervalSeconds(int seconds);
+
+    /**
+     * Gets the number of traces loaded while measurements were on.
+     * @return the load count
+     */
+    long getLoadCount();
+
+    /**
+     * Gets the number of lines read by the last measured load, including skipped lines.
+     * @return the line count
+     */
+    long getLinesRead();
+
+    /**
+     * Gets the number of bytes read by the last measured load.
+     * @return the byte count
+     */
+    long getBytesRead();
+
+    /**
+     * Gets the number of lines the last measured load skipped because their source address was 0.
+     * @return the skipped line count
+     */
+    long getSkippedLines();
+
+    /**
+     * Gets the number of lines the last measured load could not make sense of.
+     * @return the malformed line count
+     */
+    long getMalformedLines();
+
+    /**
+     * Gets the number of distinct hosts found by the last measured load.
+     * @return the host count
+     */
+    int getHostCount();
+
+    /**
+     * Gets how long the last measured load took.
+     * @return the load time in milliseconds
+     */
+    double getLoadMillis();
+
+    /**
+     * Gets an estimate of the part of the last measured load spent parsing lines, from sampled lines. Only loads
+     * that read line by line time their parsing; memory-mapped loads count it as reading.
+     * @return the parse time in milliseconds
+     */
+    double getParseMillis();
+
+    /**
+     * Gets an estimate of the part of the last measured load spent adding packets to host series, from sampled lines.
+     * @return the aggregation time in milliseconds
+     */
+    double getAggregateMillis();
+
+    /**
+     * Gets the part of the last measured load that was neither parsing nor aggregation, which is mostly reading.
+     * @return the remaining time in milliseconds
+     */
+    double getReadMillis();
+
+    /**
+     * Gets the rate at which the last measured load read lines.
+     * @return the lines per second
+     */
+    double getLinesPerSecond();
+
+    /**
+     * Gets the rate at which the last measured load read bytes.
+     * @return the bytes per second
+     */
+    double getBytesPerSecond();
+
+    /**
+     * Gets an estimate of the heap taken by the host series of the last measured load.
+     * @return the heap size in bytes
+     */
+    long getHostPacketsHeapBytes();
+
+    /**
+     * Gets the median time taken to parse a sampled line.
+     * @return the time in microseconds
+     */
+    double getParseLineP50Micros();
+
+    /**
+     * Gets the 99th percentile of the time taken to parse a sampled line.
+     * @return the time in microseconds
+     */
+    double getParseLineP99Micros();
+
+    /**
+     * Gets the median time taken to add a sampled packet to its host series.
+     * @return the time in microseconds
+     */
+    double getBuildGraphDataP50Micros();
+
+    /**
+     * Gets the 99th percentile of the time taken to add a sampled packet to its host series.
+     * @return the time in microseconds
+     */
+    double getBuildGraphDataP99Micros();
+
+    /**
+     * Gets the median time taken to hand a new series to the graph.
+     * @return the time in microseconds
+     */
+    double getUpdateDataP50Micros();
+
+    /**
+     * Gets the 99th percentile of the time taken to hand a new series to the graph.
+     * @return the time in microseconds
+     */
+    double getUpdateDataP99Micros();
+
+    /**
+     * Gets the number of graph repaints measured.
+     * @return the repaint count
+     */
+    long getRepaintCount();
+
+    /**
+     * Gets the time the last measured repaint took.
+     * @return the time in microseconds
+     */
+    double getLastRepaintMicros();
+
+    /**
+     * Gets the median time taken to repaint the graph.
+     * @return the time in microseconds
+     */
+    double getRepaintP50Micros();
+
+    /**
+     * Gets the 99th percentile of the time taken to repaint the graph.
+     * @return the time in microseconds
+     */
+    double getRepaintP99Micros();
+
+    /**
+     * Gets the longest time taken to repaint the graph.
+     * @return the time in microseconds
+     */
+    double getRepaintMaxMicros();
+
+    /**
+     * Gets a one line summary of the measurements, as written to the log.
+     * @return the summary
+     */
+    String getSummary();
+
+    /**
+     * Forgets every measurement taken so far.
+     */
+    void reset();
+}
@@ -0,0 +1,197 @@
+import java.io.File;
+
+/**
+ * Holds the choices that control how a <code>TraceFile</code> is loaded, such as whether a binary index of
+ * the parsed trace is kept beside it so that the trace can be reopened without parsing it again.
+ * @author Michael Johnson
+ */
+public class TraceOptions {
+    private static final String INDEX_SUFFIX = ".idx";
+    private static final long DEFAULT_SERIES_CACHE_BYTES = 64L * 1024 * 1024;
+    private boolean indexEnabled = true;
+    private File indexDirectory;
+    private int topHosts;
+    private boolean conversationSeries;
+    private TraceFilter filter;
+    private boolean offHeap;
+    private File offHeapDirectory;
+    private boolean lazySeries;
+    private long seriesCacheBytes = DEFAULT_SERIES_CACHE_BYTES;
+
+    /**
+     * Constructs a <code>TraceOptions</code> object that keeps an index file next to each trace.
+     */
+    public TraceOptions() {
+    }
+
+    /**
+     * Checks whether traces are reopened from, and indexed into, a binary index file.
+     * @return true if index files are used
+     */
+    public boolean isIndexEnabled() {
+        return indexEnabled;
+    }
+
+    /**
+     * Sets whether traces are reopened from, and indexed into, a binary index file.
+     * @param indexEnabled false to always parse the trace and never write an index file
+     */
+    public void setIndexEnabled(boolean indexEnabled) {
+        this.indexEnabled = indexEnabled;
+    }
+
+    /**
+     * Gets the directory index files are kept in.
+     * @return the index directory, or null if index files are kept next to their traces
+     */
+    public File getIndexDirectory() {
+        return indexDirectory;
+    }
+
+    /**
+     * Sets the directory index files are kept in, such as when traces are on a read-only share.
+     * @param indexDirectory the index directory, or null to keep index files next to their traces
+     */
+    public void setIndexDirectory(File indexDirectory) {
+        this.indexDirectory = indexDirectory;
+    }
+
+    /**
+     * Gets the number of top source and destination hosts to keep when only the heaviest talkers are kept.
+     * @return the number of hosts kept for each role, or 0 if every host is kept
+     */
+    public int getTopHosts() {
+        return topHosts;
+    }
+
+    /**
+     * Sets whether to keep only the hosts that carry the most bytes. In that mode a trace is read in a single pass
+     * that estimates every host's volume in bounded memory, and series are only kept for the top source and
+     * destination hosts, so traces with millions of distinct hosts can be opened.
+     * @param topHosts the number of hosts to keep for each role, or 0 to keep every host
+     */
+    public void setTopHosts(int topHosts) {
+        this.topHosts = Math.max(0, topHosts);
+    }
+
+    /**
+     * Checks whether a series is kept for every pair of hosts that exchange packets.
+     * @return true if conversation series are kept
+     */
+    public boolean isConversationSeries() {
+        return conversationSeries;
+    }
+
+    /**
+     * Sets whether a series is kept for every pair of hosts that exchange packets while a trace is loaded. Graphing
+     * a conversation is then immediate rather than a pass over the trace's packets, at the cost of far more memory
+     * on traces with many pairs. Byte and packet totals are kept for every pair either way.
+     * @param conversationSeries true to keep a series for every pair
+     */
+    public void setConversationSeries(boolean conversationSeries) {
+        this.conversationSeries = conversationSeries;
+    }
+
+    /**
+     * Gets the filter lines must pass to be loaded.
+     * @return the <code>TraceFilter</code>, or null if every line is loaded
+     */
+    public TraceFilter getFilter() {
+        return filter;
+    }
+
+    /**
+     * Sets a filter that lines must pass to be loaded, such as <code>TraceFilter.compile("src in 10.1.0.0/16")</code>.
+     * Lines that fail it are dropped while the trace is parsed, before their addresses are interned. Filtered
+     * traces are neither reopened from nor written to an index file, since the index holds the whole trace.
+     * @param filter the <code>TraceFilter</code> to apply, or null to load every line
+     */
+    public void setFilter(TraceFilter filter) {
+        this.filter = filter;
+    }
+
+    /**
+     * Checks whether host series and packets are kept off the heap.
+     * @return true if traces are loaded into a <code>SeriesStore</code>
+     */
+    public boolean isOffHeap() {
+        return offHeap;
+    }
+
+    /**
+     * Sets whether host series and packets are kept off the heap in a <code>SeriesStore</code>, so that the heap
+     * stays the same size however large the trace is and full-day traces do not cause long garbage collection
+     * pauses. Series are finished off the heap once the trace has been read, so such a trace cannot be followed.
+     * @param offHeap true to keep series and packets off the heap
+     */
+    public void setOffHeap(boolean offHeap) {
+        this.offHeap = offHeap;
+    }
+
+    /**
+     * Gets the directory off-heap data is mapped from.
+     * @return the directory, or null if off-heap data is kept in direct memory
+     */
+    public File getOffHeapDirectory() {
+        return offHeapDirectory;
+    }
+
+    /**
+     * Sets a directory to keep off-heap data in a temporary file mapped into memory, so that it can be larger
+     * than RAM or than the direct memory the JVM allows.
+     * @param offHeapDirectory the directory, or null to keep off-heap data in direct memory
+     */
+    public void setOffHeapDirectory(File offHeapDirectory) {
+        this.offHeapDirectory = offHeapDirectory;
+    }
+
+    /**
+     * Checks whether host series are built only when they are looked at.
+     * @return true if traces are opened in a single pass that records where each host's lines are
+     */
+    public boolean isLazySeries() {
+        return lazySeries;
+    }
+
+    /**
+     * Sets whether a trace is opened in a fast first pass that only records the hosts and the offsets of the lines
+     * each host appears in, leaving each host's series to be built from its own lines when it is first looked at.
+     * The host lists are then ready far sooner on wide traces and far less memory is taken, since only the series
+     * that have been looked at recently are kept. Gzip compressed traces cannot be read from an offset, so they
+     * are always loaded in full, and a trace opened this way is neither indexed nor followed.
+     * @param lazySeries true to build series on demand
+     */
+    public void setLazySeries(boolean lazySeries) {
+        this.lazySeries = lazySeries;
+    }
+
+    /**
+     * Gets how much heap the series built on demand may take before the least recently used are dropped.
+     * @return the limit in bytes
+     */
+    public long getSeriesCacheBytes() {
+        return seriesCacheBytes;
+    }
+
+    /**
+     * Sets how much heap the series built on demand may take before the least recently used are dropped.
+     * @param seriesCacheBytes the limit in bytes, which defaults to 64 MB
+     */
+    public void setSeriesCacheBytes(long seriesCacheBytes) {
+        this.seriesCacheBytes = Math.max(0, seriesCacheBytes);
+    }
+
+    /**
+     * Gets the index file of a trace. Index files kept in an index directory are named after both the trace's
+     * name and its full path, so that traces with the same name in different directories do not collide.
+     * @param traceFile the trace file
+     * @return the <code>File</code> its index is kept in
+     */
+    public File getIndexFile(File traceFile) {
+        if (indexDirectory == null) {
+            return new File(traceFile.getPath() + INDEX_SUFFIX);
+        }
+        String pathHash = Integer.toHexString(traceFile.getAbsolutePath().hashCode());
+        return new File(indexDirectory, traceFile.getName() + "-" + pathHash + INDEX_SUFFIX);
+    }
+}
@@ -0,0 +1,269 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads a gzip compressed trace as a pipeline of stages, so that reading the file, decompressing it and parsing it
+ * overlap on separate threads. A reader thread reads compressed bytes into buffers, an inflater thread decompresses
+ * them into text buffers that each end on a line boundary, and the caller takes the text buffers with
+ * <code>next</code> and parses them.
+ * <p>
+ * The stages are joined by bounded queues of buffers that are allocated once and handed back for reuse, so a stage
+ * that gets ahead waits for the stage after it and memory stays the same however large the trace is. Text buffers
+ * must be given back with <code>recycle</code> once they have been parsed.
+ * @author Michael Johnson
+ */
+public class TracePipeline implements Closeable {
+    private static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+    private static final int DEFAULT_BUFFER_COUNT = 4;
+    private static final int INFLATER_BUFFER_SIZE = 64 * 1024;
+    private static final ByteBuffer END_OF_DATA = ByteBuffer.allocate(0);
+    private final File traceFile;
+    private final BlockingQueue<ByteBuffer> freeCompressed;
+    private final BlockingQueue<ByteBuffer> compressed;
+    private final BlockingQueue<ByteBuffer> freeText;
+    private final BlockingQueue<ByteBuffer> text;
+    private final Thread reader;
+    private final Thread inflater;
+    private volatile long bytesRead;
+    private volatile IOException failure;
+    private volatile boolean closed;
+    private boolean finished;
+
+    /**
+     * Constructs a <code>TracePipeline</code> object that reads a compressed trace through four 1 MB buffers
+     * between each pair of stages.
+     * @param traceFile the gzip compressed trace
+     */
+    public TracePipeline(File traceFile) {
+        this(traceFile, DEFAULT_BUFFER_SIZE, DEFAULT_BUFFER_COUNT);
+    }
+
+    /**
+     * Constructs a <code>TracePipeline</code> object that reads a compressed trace through the given buffers.
+     * @param traceFile     the gzip compressed trace
+     * @param bufferSize    the size of each buffer in bytes, which must be larger than the longest line
+     * @param bufferCount   the number of buffers between each pair of stages
+     */
+    public TracePipeline(File traceFile, int bufferSize, int bufferCount) {
+        this.traceFile = traceFile;
+        bufferCount = Math.max(2, bufferCount);
+        freeCompressed = new ArrayBlockingQueue<ByteBuffer>(bufferCount);
+        compressed = new ArrayBlockingQueue<ByteBuffer>(bufferCount + 1);
+        freeText = new ArrayBlockingQueue<ByteBuffer>(bufferCount);
+        text = new ArrayBlockingQueue<ByteBuffer>(bufferCount + 1);
+        for (int i = 0; i < bufferCount; i++) {
+            freeCompressed.add(ByteBuffer.allocate(bufferSize));
+            freeText.add(ByteBuffer.allocate(bufferSize));
+        }
+        reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                readCompressed();
+            }
+        }, "Trace reader");
+        inflater = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                inflate();
+            }
+        }, "Trace inflater");
+        reader.setDaemon(true);
+        inflater.setDaemon(true);
+        reader.start();
+        inflater.start();
+    }
+
+    /**
+     * Checks whether a file starts with the gzip magic number.
+     * @param file the file to check
+     * @return true if the file is gzip compressed
+     */
+    public static boolean isCompressed(File file) {
+        try (InputStream in = new FileInputStream(file)) {
+            return in.read() == 0x1f && in.read() == 0x8b;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Waits for the next buffer of decompressed text. The buffer holds whole lines from position 0 to its limit,
+     * except that the last buffer may end with a line that has no terminator.
+     * @return the next text buffer, or null once the whole trace has been read
+     * @throws IOException if the trace cannot be read or is not valid gzip data
+     * @throws InterruptedException if the calling thread is interrupted while waiting
+     */
+    public ByteBuffer next() throws IOException, InterruptedException {
+        if (finished) {
+            return null;
+        }
+        ByteBuffer buf = text.take();
+        if (buf == END_OF_DATA) {
+            finished = true;
+            if (failure != null) {
+                throw failure;
+            }
+            return null;
+        }
+        return buf;
+    }
+
+    /**
+     * Hands a text buffer returned by <code>next</code> back to the inflater once it has been parsed.
+     * @param buf the parsed text buffer
+     */
+    public void recycle(ByteBuffer buf) {
+        freeText.add(buf);
+    }
+
+    /**
+     * Gets the number of compressed bytes read so far, for reporting progress against the size of the file.
+     * @return the compressed byte count
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * Stops the reader and inflater threads, whether or not the whole trace has been read.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        reader.interrupt();
+        inflater.interrupt();
+    }
+
+    private void readCompressed() {
+        try (RandomAccessFile file = new RandomAccessFile(traceFile, "r"); FileChannel channel = file.getChannel()) {
+            while (true) {
+                ByteBuffer buf = freeCompressed.take();
+                buf.clear();
+                if (channel.read(buf) < 0) {
+                    compressed.put(END_OF_DATA);
+                    return;
+                }
+                buf.flip();
+                bytesRead += buf.remaining();
+                compressed.put(buf);
+            }
+        } catch (ClosedByInterruptException | InterruptedException e) {
+            // closed before the end of the file
+        } catch (IOException e) {
+            fail(e);
+            compressed.offer(END_OF_DATA);
+        }
+    }
+
+    private void inflate() {
+        try (InputStream in = new GZIPInputStream(new CompressedInput(), INFLATER_BUFFER_SIZE)) {
+            ByteBuffer buf = freeText.take();
+            buf.clear();
+            while (true) {
+                int read = in.read(buf.array(), buf.position(), buf.remaining());
+                if (read < 0) {
+                    break;
+                }
+                buf.position(buf.position() + read);
+                if (!buf.hasRemaining()) {
+                    buf = handOff(buf);
+                }
+            }
+            buf.flip();
+            if (buf.hasRemaining()) {
+                text.put(buf);
+            } else {
+                freeText.put(buf);
+            }
+            text.put(END_OF_DATA);
+        } catch (InterruptedException | InterruptedIOException e) {
+            // closed before the end of the file
+        } catch (IOException e) {
+            fail(e);
+            text.offer(END_OF_DATA);
+        }
+    }
+
+    private ByteBuffer handOff(ByteBuffer full) throws IOException, InterruptedException {
+        int cut = full.limit();
+        while (cut > 0 && full.get(cut - 1) != '\n' && full.get(cut - 1) != '\r') {
+            cut--;
+        }
+        if (cut == 0) {
+            throw new IOException("A line of " + traceFile.getName() + " is longer than the pipeline buffer");
+        }
+        ByteBuffer next = freeText.take();
+        next.clear();
+        next.put(full.array(), cut, full.limit() - cut);
+        full.position(0).limit(cut);
+        text.put(full);
+        return next;
+    }
+
+    private void fail(IOException e) {
+        if (!closed && failure == null) {
+            failure = e;
+        }
+    }
+
+    /**
+     * Presents the buffers filled by the reader thread as a stream for the inflater, handing each buffer back to
+     * the reader once it has been consumed.
+     */
+    private class CompressedInput extends InputStream {
+        private ByteBuffer current;
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            int count = Math.min(len, current.remaining());
+            current.get(b, off, count);
+            return count;
+        }
+
+        /**
+         * Waits for more compressed bytes if none are buffered, since <code>GZIPInputStream</code> only looks for a
+         * further gzip member after the first when bytes are available.
+         */
+        @Override
+        public int available() throws IOException {
+            return fill() ? current.remaining() : 0;
+        }
+
+        private boolean fill() throws IOException {
+            try {
+                while (current == null || !current.hasRemaining()) {
+                    if (current == END_OF_DATA) {
+                        if (failure != null) {
+                            throw failure;
+                        }
+                        return false;
+                    }
+                    if (current != null) {
+                        freeCompressed.put(current);
+                    }
+                    current = compressed.take();
+                }
+                return true;
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("Inflating " + traceFile.getName() + " was interrupted");
+            }
+        }
+    }
+}
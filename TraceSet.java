@@ -0,0 +1,210 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Holds several traces opened together to be compared, such as captures of the same network on different days.
+ * The traces are loaded concurrently on a fixed pool of at most one thread per processor, each as it would be on
+ * its own with <code>TraceFile(File, LoadListener, TraceOptions)</code>, so opening them takes about as long as
+ * loading the largest of them rather than all of them one after another. A host's series from each trace are
+ * compared or combined bin by bin through a <code>SeriesMerge</code>.
+ * @author Michael Johnson
+ */
+public class TraceSet {
+    private final File[] files;
+    private final TraceFile[] traces;
+    private final long[] bytesRead;
+    private final long[] totalBytes;
+
+    /**
+     * Constructs a <code>TraceSet</code> object with one loading thread per processor.
+     * @param files     the files to load
+     * @param listener  the <code>LoadListener</code> to report progress to, or null
+     * @param options   the <code>TraceOptions</code> to load every file with
+     */
+    public TraceSet(List<File> files, TraceFile.LoadListener listener, TraceOptions options) {
+        this(files, listener, options, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructs a <code>TraceSet</code> object from the given files, loading up to the given number of them at
+     * once. Progress is reported to the listener for whichever trace has moved on, with the bytes read and total
+     * size summed over every file, and the listener is never called by two loading threads at the same time.
+     * Loading stops with a <code>CancellationException</code> as soon as the calling thread is interrupted, and
+     * if any file fails to load the others are stopped and the failure is thrown on; in either case the traces
+     * already loaded are closed.
+     * @param files     the files to load
+     * @param listener  the <code>LoadListener</code> to report progress to, or null
+     * @param options   the <code>TraceOptions</code> to load every file with
+     * @param threads   the number of files to load at once
+     */
+    public TraceSet(List<File> files, final TraceFile.LoadListener listener, final TraceOptions options, int threads) {
+        this.files = files.toArray(new File[0]);
+        traces = new TraceFile[this.files.length];
+        bytesRead = new long[this.files.length];
+        totalBytes = new long[this.files.length];
+        for (int i = 0; i < this.files.length; i++) {
+            totalBytes[i] = this.files[i].length();
+        }
+        ExecutorService loadPool = Executors.newFixedThreadPool(Math.max(1, Math.min(this.files.length, threads)));
+        ArrayList<Future<TraceFile>> loads = new ArrayList<Future<TraceFile>>();
+        for (int i = 0; i < this.files.length; i++) {
+            final int index = i;
+            loads.add(loadPool.submit(new Callable<TraceFile>() {
+                @Override
+                public TraceFile call() {
+                    return new TraceFile(TraceSet.this.files[index], new TraceFile.LoadListener() {
+                        @Override
+                        public void loadProgress(TraceFile partial, long read, long total) {
+                            reportProgress(listener, partial, index, read, total);
+                        }
+                    }, options);
+                }
+            }));
+        }
+        try {
+            for (int i = 0; i < traces.length; i++) {
+                traces[i] = loads.get(i).get();
+            }
+        } catch (InterruptedException e) {
+            abandon(loads);
+            throw new CancellationException("Loading " + this.files.length + " traces was cancelled");
+        } catch (ExecutionException e) {
+            abandon(loads);
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            } else if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            loadPool.shutdownNow();
+        }
+    }
+
+    private synchronized void reportProgress(TraceFile.LoadListener listener, TraceFile partial, int index, long read, long total) {
+        bytesRead[index] = read;
+        totalBytes[index] = total;
+        if (listener != null) {
+            long allRead = 0;
+            long allTotal = 0;
+            for (int i = 0; i < bytesRead.length; i++) {
+                allRead += bytesRead[i];
+                allTotal += totalBytes[i];
+            }
+            listener.loadProgress(partial, allRead, allTotal);
+        }
+    }
+
+    private void abandon(List<Future<TraceFile>> loads) {
+        for (Future<TraceFile> load : loads) {
+            load.cancel(true);
+        }
+        for (Future<TraceFile> load : loads) {
+            try {
+                load.get().close();
+            } catch (InterruptedException | ExecutionException | CancellationException e) {
+                // never finished loading, so there is nothing to close
+            }
+        }
+    }
+
+    /**
+     * Gets the number of traces in the set.
+     * @return the trace count
+     */
+    public int size() {
+        return traces.length;
+    }
+
+    /**
+     * Gets one of the traces, in the order their files were given.
+     * @param index the position of the trace
+     * @return the loaded <code>TraceFile</code>
+     */
+    public TraceFile getTrace(int index) {
+        return traces[index];
+    }
+
+    /**
+     * Gets the file one of the traces was loaded from.
+     * @param index the position of the trace
+     * @return the trace's <code>File</code>
+     */
+    public File getFile(int index) {
+        return files[index];
+    }
+
+    /**
+     * Gets the file names of the traces, such as for labelling their series in a graph.
+     * @return the <code>String</code> names in the order the files were given
+     */
+    public String[] getNames() {
+        String[] names = new String[files.length];
+        for (int i = 0; i < files.length; i++) {
+            names[i] = files[i].getName();
+        }
+        return names;
+    }
+
+    /**
+     * Gets a host's series from every trace, in the order the files were given.
+     * @param hostAddr the host IP address
+     * @return one <code>SeriesView</code> per trace, null where the trace has no series for the host
+     */
+    public SeriesView[] getSeries(String hostAddr) {
+        SeriesView[] series = new SeriesView[traces.length];
+        for (int i = 0; i < traces.length; i++) {
+            series[i] = traces[i].hostPackets.get(hostAddr);
+        }
+        return series;
+    }
+
+    /**
+     * Combines a host's series from every trace into one, aligned on the time stamps of each trace.
+     * @param hostAddr the host IP address
+     * @return a new <code>HostSeries</code> holding the host's bytes from all of the traces
+     */
+    public HostSeries getMergedSeries(String hostAddr) {
+        return SeriesMerge.sum(getSeries(hostAddr));
+    }
+
+    /**
+     * Returns the sorted source host IP addresses seen in any of the traces.
+     * @return the sorted list of source host IP addresses
+     */
+    public ArrayList<String> getSourceHostList() {
+        return getHostList(HostDictionary.SOURCE);
+    }
+
+    /**
+     * Returns the sorted destination host IP addresses seen in any of the traces.
+     * @return the sorted list of destination host IP addresses
+     */
+    public ArrayList<String> getDestHostList() {
+        return getHostList(HostDictionary.DEST);
+    }
+
+    private ArrayList<String> getHostList(int role) {
+        HostDictionary hosts = new HostDictionary();
+        for (TraceFile trace : traces) {
+            ArrayList<String> addrs = role == HostDictionary.SOURCE ? trace.getSourceHostList() : trace.getDestHostList();
+            for (String addr : addrs) {
+                hosts.addRole(hosts.intern(addr), role);
+            }
+        }
+        return hosts.getAddrs(hosts.getSorted(role));
+    }
+
+    /**
+     * Closes every trace in the set, releasing any that were loaded off the heap.
+     */
+    public void close() {
+        for (TraceFile trace : traces) {
+            if (trace != null) {
+                trace.close();
+            }
+        }
+    }
+}